@@ -17,7 +17,10 @@
 
 package org.springframework.security.saml;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import org.springframework.security.saml.saml2.Saml2Object;
 
@@ -66,6 +69,29 @@ public interface SamlMessageStore<T extends Saml2Object, Holder> {
 	 */
 	T removeMessage(Holder holder, String id);
 
+	/**
+	 * Removes the messages that match a filter.
+	 * The default implementation removes each matching message by its identifier,
+	 * stores that keep an index of their own can remove them directly.
+	 *
+	 * @param holder - the message store implementation
+	 * @param filter - selects the messages to be removed
+	 * @param ids    - returns the unique identifier a message was added with
+	 * @return the messages that were removed, empty if none matched
+	 */
+	default List<T> removeMessages(Holder holder, Predicate<T> filter, Function<T, String> ids) {
+		List<T> result = new ArrayList<>();
+		for (T message : getMessages(holder)) {
+			if (filter.test(message)) {
+				T removed = removeMessage(holder, ids.apply(message));
+				if (removed != null) {
+					result.add(removed);
+				}
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * @param holder  - the message store implementation
 	 * @param id      - the unique identifier for the message to be added
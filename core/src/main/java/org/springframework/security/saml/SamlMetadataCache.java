@@ -17,10 +17,46 @@
 
 package org.springframework.security.saml;
 
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
 public interface SamlMetadataCache {
 
 	byte[] getMetadata(String uri, boolean skipSslValidation);
 
+	/**
+	 * Returns the object that was resolved from a metadata document, such as a parsed and
+	 * trust checked {@link org.springframework.security.saml.saml2.metadata.Metadata} object.
+	 * The resolver is only invoked when nothing has been resolved for the given key yet,
+	 * or when the content of the document has changed since the last resolution.
+	 * Resolved objects are shared between callers and must not be modified.
+	 *
+	 * @param key      identifies the resolution, for example the provider configuration the document belongs to
+	 * @param data     the raw metadata document
+	 * @param resolver converts the raw document into the resolved object
+	 * @param <T>      the type of the resolved object
+	 * @return the resolved object, may be null if the resolver returned null
+	 */
+	default <T> T getResolvedMetadata(Object key, byte[] data, Function<byte[], T> resolver) {
+		return resolver.apply(data);
+	}
+
+	/**
+	 * Returns a value that is derived from resolved metadata, such as an index of all remote providers.
+	 * The builder is only invoked when no value exists for the key, or when the existing value is
+	 * no longer current. Derived values are replaced as a whole and must not be modified.
+	 *
+	 * @param key       identifies the derived value
+	 * @param isCurrent tests whether a previously built value can still be used
+	 * @param builder   creates a new value
+	 * @param <T>       the type of the derived value
+	 * @return the derived value
+	 */
+	default <T> T getDerivedMetadata(Object key, Predicate<T> isCurrent, Supplier<T> builder) {
+		return builder.get();
+	}
+
 	void clear();
 
 	byte[] remove(String uri);
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml;
+
+/**
+ * Remembers the IDs of received messages and assertions until they expire,
+ * so that a message that is received again within its validity period can be rejected.
+ */
+public interface SamlReplayCache {
+
+	/**
+	 * Records an ID as used, unless it already is.
+	 * IDs that have already expired are not recorded, the caller is expected to reject them.
+	 *
+	 * @param issuer  the entityId of the issuer, IDs are unique per issuer
+	 * @param id      the message or assertion ID
+	 * @param expires the time in milliseconds since the epoch after which the ID can no longer be used
+	 * @return true if the ID was recorded, false if it has been used before
+	 */
+	boolean checkAndRecord(String issuer, String id, long expires);
+
+}
@@ -17,23 +17,31 @@
 
 package org.springframework.security.saml;
 
+import java.util.Objects;
 import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.security.saml.provider.HostedProviderService;
+import org.springframework.security.saml.provider.config.LocalProviderConfiguration;
 import org.springframework.security.saml.provider.provisioning.SamlProviderProvisioning;
-import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 import org.springframework.security.web.util.matcher.RequestMatcher;
 
-import static org.springframework.security.saml.util.StringUtils.addAliasPath;
-import static org.springframework.security.saml.util.StringUtils.appendSlash;
 import static org.springframework.security.saml.util.StringUtils.stripEndingSlases;
 import static org.springframework.security.saml.util.StringUtils.stripSlashes;
 
+/**
+ * Matches requests to a SAML endpoint, {@code /prefix/path/**} or {@code /prefix/path/alias/alias/**}.
+ * The prefix and alias of the hosted provider are compiled once per configuration version,
+ * and a request is routed once, the route is shared by all matchers of the same provisioning
+ * so that requests outside of the prefix are rejected by all SAML filters after a single lookup.
+ */
 public class SamlRequestMatcher implements RequestMatcher {
 
-	private SamlProviderProvisioning provisioning;
+	private static final String ROUTE_ATTRIBUTE = SamlRequestMatcher.class.getName() + ".ROUTE";
+
+	private final SamlProviderProvisioning provisioning;
 	private boolean matchAgainstAliasPath;
-	private String path;
+	private final String path;
+	private volatile Routes routes;
 
 	public SamlRequestMatcher(SamlProviderProvisioning provisioning, String path) {
 		this(provisioning, path, false);
@@ -42,31 +50,55 @@ public class SamlRequestMatcher implements RequestMatcher {
 	public SamlRequestMatcher(SamlProviderProvisioning provisioning, String path, boolean matchAgainstAliasPath) {
 		this.matchAgainstAliasPath = matchAgainstAliasPath;
 		this.provisioning = provisioning;
-		this.path = path;
+		this.path = stripSlashes(path);
 	}
 
 	@Override
 	public boolean matches(HttpServletRequest request) {
-		HostedProviderService provider = this.provisioning.getHostedProvider();
-		String prefix = provider.getConfiguration().getPrefix();
-		String alias = provider.getConfiguration().getAlias();
-		String path = this.path;
-		String matcherUrl = getExpectedPath(prefix, alias, path);
-		AntPathRequestMatcher matcher = new AntPathRequestMatcher(matcherUrl);
-		return matcher.matches(request);
+		Route route = getRoute(request);
+		String endpoint = route.endpoint;
+		if (endpoint == null) {
+			return false;
+		}
+		if (!isMatchAgainstAliasPath()) {
+			return isSubpath(endpoint, path);
+		}
+		return endpoint.startsWith(path) &&
+			isSubpath(endpoint.substring(path.length()), "/alias/" + route.routes.alias);
 	}
 
-	private String getExpectedPath(String prefix, String alias, String path) {
-		String result = "/" + stripSlashes(prefix);
-		result = stripEndingSlases(result) + "/" + stripSlashes(path);
-		if (isMatchAgainstAliasPath()) {
-			result = appendSlash(result);
-			result = addAliasPath(result, alias);
+	private Route getRoute(HttpServletRequest request) {
+		Object attribute = request.getAttribute(ROUTE_ATTRIBUTE);
+		if (attribute instanceof Route) {
+			Route route = (Route) attribute;
+			if (route.isRouteOf(provisioning, request)) {
+				return route;
+			}
+		}
+		Route route = new Route(provisioning, request, getRoutes());
+		request.setAttribute(ROUTE_ATTRIBUTE, route);
+		return route;
+	}
+
+	private Routes getRoutes() {
+		HostedProviderService provider = this.provisioning.getHostedProvider();
+		LocalProviderConfiguration configuration = provider.getConfiguration();
+		Routes result = this.routes;
+		if (result == null || result.version != configuration.getVersion()) {
+			result = new Routes(configuration);
+			this.routes = result;
 		}
-		result = result + "/**";
 		return result;
 	}
 
+	/*
+	 * same semantics as an AntPathRequestMatcher for a pattern ending with /**
+	 */
+	private static boolean isSubpath(String path, String subpath) {
+		return path.startsWith(subpath) &&
+			(path.length() == subpath.length() || path.charAt(subpath.length()) == '/');
+	}
+
 	public boolean isMatchAgainstAliasPath() {
 		return matchAgainstAliasPath;
 	}
@@ -75,4 +107,41 @@ public class SamlRequestMatcher implements RequestMatcher {
 		this.matchAgainstAliasPath = matchAgainstAliasPath;
 		return this;
 	}
+
+	private static class Routes {
+		private final long version;
+		private final String prefix;
+		private final String alias;
+
+		Routes(LocalProviderConfiguration configuration) {
+			this.version = configuration.getVersion();
+			this.prefix = stripEndingSlases("/" + stripSlashes(configuration.getPrefix())) + "/";
+			this.alias = configuration.getAlias();
+		}
+	}
+
+	private static class Route {
+		private final SamlProviderProvisioning provisioning;
+		private final String servletPath;
+		private final String pathInfo;
+		private final Routes routes;
+		//the path after the prefix, null if the request is outside of the prefix
+		private final String endpoint;
+
+		Route(SamlProviderProvisioning provisioning, HttpServletRequest request, Routes routes) {
+			this.provisioning = provisioning;
+			this.servletPath = request.getServletPath();
+			this.pathInfo = request.getPathInfo();
+			this.routes = routes;
+			String url = pathInfo == null ? servletPath : servletPath + pathInfo;
+			this.endpoint = url.startsWith(routes.prefix) ? url.substring(routes.prefix.length()) : null;
+		}
+
+		//forwards and includes change the path of the request
+		boolean isRouteOf(SamlProviderProvisioning provisioning, HttpServletRequest request) {
+			return this.provisioning == provisioning &&
+				Objects.equals(servletPath, request.getServletPath()) &&
+				Objects.equals(pathInfo, request.getPathInfo());
+		}
+	}
 }
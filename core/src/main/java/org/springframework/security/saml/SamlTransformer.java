@@ -17,11 +17,16 @@
 
 package org.springframework.security.saml;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.metadata.Metadata;
+import org.springframework.security.saml.saml2.metadata.MetadataFilter;
+import org.springframework.security.saml.saml2.signature.Signature;
 
 public interface SamlTransformer {
 
@@ -35,6 +40,21 @@ public interface SamlTransformer {
 	 */
 	String toXml(Saml2Object saml2Object);
 
+	/**
+	 * Writes the UTF-8 encoded XML of a SAML object to a stream, signing it like {@link #toXml(Saml2Object)}.
+	 * The stream is not closed. The default implementation converts the object into a String first.
+	 *
+	 * @param saml2Object - object to be converted to XML
+	 * @param out         - the stream to write the XML to
+	 */
+	default void toXml(Saml2Object saml2Object, OutputStream out) {
+		try {
+			out.write(toXml(saml2Object).getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			throw new SamlException(e);
+		}
+	}
+
 	/**
 	 * Converts an SAML/XML string into a Java object
 	 *
@@ -71,6 +91,67 @@ public interface SamlTransformer {
 	 */
 	Saml2Object fromXml(byte[] xml, List<SimpleKey> verificationKeys, List<SimpleKey> localKeys);
 
+	/**
+	 * Converts a metadata document, an EntityDescriptor or an EntitiesDescriptor aggregate,
+	 * into a chain of metadata objects containing only the entities included by the filter.
+	 * Implementations may stream the document rather than parse it into a DOM.
+	 *
+	 * @param xml              the XML representation of the metadata
+	 * @param verificationKeys Nullable. If not null, the document signature will be validated upon conversion.
+	 *                         The implementation will attempt each key until one succeeds
+	 * @param filter           selects the entities to be returned
+	 * @return the first included entity, or null if no entity is included
+	 * @throws org.springframework.security.saml.saml2.signature.SignatureException if signature validation
+	 *                                                                              fails
+	 */
+	default Metadata fromMetadataXml(byte[] xml, List<SimpleKey> verificationKeys, MetadataFilter filter) {
+		Saml2Object result = fromXml(xml, verificationKeys, null);
+		if (!(result instanceof Metadata)) {
+			throw new SamlException("Not a metadata document:" + (result == null ? null : result.getClass()));
+		}
+		return filter.filter((Metadata) result);
+	}
+
+	/**
+	 * Validates the signature of a metadata document, without converting the entities it contains.
+	 *
+	 * @param xml              the XML representation of the metadata
+	 * @param verificationKeys the keys to validate the signature with. The implementation will attempt
+	 *                         each key until one succeeds
+	 * @return the validated signature, or null if the document is not signed
+	 * @throws org.springframework.security.saml.saml2.signature.SignatureException if signature validation
+	 *                                                                              fails
+	 */
+	default Signature validateMetadataSignature(byte[] xml, List<SimpleKey> verificationKeys) {
+		Metadata metadata = fromMetadataXml(xml, verificationKeys, new MetadataFilter());
+		return metadata == null ? null : metadata.getSignature();
+	}
+
+	/**
+	 * Validates the signatures of an object that was converted by {@link #fromXml(byte[], List, List)}
+	 * without verification keys, and records the validated signatures on it. This lets callers
+	 * discover the issuer of a message before they know which keys to validate it with.
+	 * The default implementation converts the original XML again.
+	 *
+	 * @param object           the object returned by fromXml
+	 * @param verificationKeys the keys to validate the signatures with. The implementation will attempt
+	 *                         each key until one succeeds
+	 * @param localKeys        the decryption keys the object was converted with
+	 * @param <T>              the type of the object
+	 * @return the object holding the validated signatures
+	 * @throws org.springframework.security.saml.saml2.signature.SignatureException if signature validation
+	 *                                                                              fails
+	 */
+	@SuppressWarnings("unchecked")
+	default <T extends Saml2Object> T validateSignatures(T object,
+														 List<SimpleKey> verificationKeys,
+														 List<SimpleKey> localKeys) {
+		if (object.getOriginalXML() == null) {
+			throw new SamlException("No original XML to validate signatures against.");
+		}
+		return (T) fromXml(object.getOriginalXML(), verificationKeys, localKeys);
+	}
+
 	/**
 	 * Deflates and base64 encodes the SAML message readying it for transport.
 	 * If the result is used as a query parameter, it still has to be URL encoded.
@@ -90,4 +171,21 @@ public interface SamlTransformer {
 	 */
 	String samlDecode(String s, boolean inflate);
 
+	/**
+	 * Converts a base64 encoded, and optionally deflated, SAML message into its Saml2Object representation.
+	 * The default implementation decodes the message into a String first.
+	 *
+	 * @param s                base64 encoded message, as received through a binding
+	 * @param inflate          true if the message is deflated
+	 * @param verificationKeys the keys to validate the signatures with, nullable
+	 * @param localKeys        the keys to decrypt the message with, nullable
+	 * @return the Saml2Object representation of the message
+	 */
+	default Saml2Object fromEncodedXml(String s,
+									   boolean inflate,
+									   List<SimpleKey> verificationKeys,
+									   List<SimpleKey> localKeys) {
+		return fromXml(samlDecode(s, inflate), verificationKeys, localKeys);
+	}
+
 }
@@ -21,6 +21,7 @@ import java.util.List;
 
 import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.provider.HostedProviderService;
+import org.springframework.security.saml.provider.SamlMessageContext;
 import org.springframework.security.saml.saml2.Saml2Object;
 import org.springframework.security.saml.saml2.signature.Signature;
 import org.springframework.security.saml.saml2.signature.SignatureException;
@@ -47,4 +48,18 @@ public interface SamlValidator {
 	 */
 	void validate(Saml2Object saml2Object, HostedProviderService provider) throws ValidationException;
 
+	/**
+	 * Performs an object validation on the respective object, resolving metadata through the message context
+	 *
+	 * @param saml2Object the object to be validated according to SAML specification rules
+	 * @param provider    the object used to resolve metadata
+	 * @param context     the context of the message the object was received in
+	 * @throws ValidationException if validation failed. Details in the exception.
+	 */
+	default void validate(Saml2Object saml2Object,
+						  HostedProviderService provider,
+						  SamlMessageContext context) throws ValidationException {
+		validate(saml2Object, provider);
+	}
+
 }
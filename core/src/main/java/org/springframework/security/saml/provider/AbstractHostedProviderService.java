@@ -17,14 +17,19 @@
 
 package org.springframework.security.saml.provider;
 
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.time.Clock;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.springframework.security.crypto.codec.Hex;
 import org.springframework.security.saml.SamlException;
 import org.springframework.security.saml.SamlMetadataCache;
 import org.springframework.security.saml.SamlMetadataException;
@@ -34,17 +39,22 @@ import org.springframework.security.saml.SamlValidator;
 import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.provider.config.ExternalProviderConfiguration;
 import org.springframework.security.saml.provider.config.LocalProviderConfiguration;
+import org.springframework.security.saml.saml2.ImplementationHolder;
+import org.springframework.security.saml.saml2.RetentionPolicy;
 import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.authentication.Assertion;
 import org.springframework.security.saml.saml2.authentication.Issuer;
 import org.springframework.security.saml.saml2.authentication.LogoutRequest;
 import org.springframework.security.saml.saml2.authentication.LogoutResponse;
 import org.springframework.security.saml.saml2.authentication.NameIdPrincipal;
+import org.springframework.security.saml.saml2.authentication.Response;
 import org.springframework.security.saml.saml2.authentication.Status;
 import org.springframework.security.saml.saml2.authentication.StatusCode;
 import org.springframework.security.saml.saml2.metadata.Binding;
 import org.springframework.security.saml.saml2.metadata.Endpoint;
 import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata;
 import org.springframework.security.saml.saml2.metadata.Metadata;
+import org.springframework.security.saml.saml2.metadata.MetadataFilter;
 import org.springframework.security.saml.saml2.metadata.ServiceProviderMetadata;
 import org.springframework.security.saml.saml2.metadata.SsoProvider;
 import org.springframework.security.saml.saml2.signature.Signature;
@@ -57,7 +67,10 @@ import org.apache.commons.logging.LogFactory;
 import org.joda.time.DateTime;
 
 import static java.lang.String.format;
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Optional.ofNullable;
 
 public abstract class AbstractHostedProviderService<
 	Configuration extends LocalProviderConfiguration,
@@ -72,7 +85,10 @@ public abstract class AbstractHostedProviderService<
 	private final SamlTransformer transformer;
 	private final SamlValidator validator;
 	private final SamlMetadataCache cache;
+	private final AtomicReference<PublishedIndex<RemoteMetadata>> remoteProviderIndex = new AtomicReference<>();
+	private final AtomicBoolean refreshingRemoteProviderIndex = new AtomicBoolean();
 	private Clock clock = Clock.systemUTC();
+	private long remoteProviderRefreshMillis = 1000 * 60;
 
 	public AbstractHostedProviderService(Configuration configuration,
 										 LocalMetadata metadata,
@@ -99,6 +115,24 @@ public abstract class AbstractHostedProviderService<
 		return cache;
 	}
 
+	public long getRemoteProviderRefreshMillis() {
+		return remoteProviderRefreshMillis;
+	}
+
+	/**
+	 * Remote providers are looked up in an index that is rebuilt when the configuration changes,
+	 * and checked against the cached metadata documents at this interval.
+	 *
+	 * @param remoteProviderRefreshMillis interval in milliseconds, 0 to check on every lookup
+	 * @return this object for chaining
+	 */
+	public AbstractHostedProviderService<Configuration, LocalMetadata, RemoteMetadata> setRemoteProviderRefreshMillis(
+		long remoteProviderRefreshMillis
+	) {
+		this.remoteProviderRefreshMillis = remoteProviderRefreshMillis;
+		return this;
+	}
+
 	protected RemoteMetadata getRemoteProvider(Issuer issuer) {
 		if (issuer == null) {
 			return null;
@@ -138,8 +172,6 @@ public abstract class AbstractHostedProviderService<
 			try {
 				RemoteMetadata m = getRemoteProvider(c);
 				if (m != null) {
-					m.setEntityAlias(c.getAlias());
-
 					result.add(m);
 				}
 			} catch (SamlException x) {
@@ -195,35 +227,274 @@ public abstract class AbstractHostedProviderService<
 
 	@Override
 	public RemoteMetadata getRemoteProvider(String entityId) {
-		for (RemoteMetadata m : getRemoteProviders()) {
-			while (m != null) {
-				if (entityId.equals(m.getEntityId())) {
-					return m;
-				}
-				m = m.hasNext() ? m.getNext() : null;
-			}
-		}
 		return
 			throwIfNull(
-				null,
+				getRemoteProviderIndex().getByEntityId(entityId),
 				"remote provider entityId",
 				entityId
 			);
 	}
 
+	@Override
+	public RemoteMetadata getRemoteProviderByAlias(String alias) {
+		return
+			throwIfNull(
+				getRemoteProviderIndex().getByAlias(alias),
+				"remote provider alias",
+				alias
+			);
+	}
+
+	@Override
+	public RemoteMetadata getRemoteProviderBySourceId(byte[] sourceId) {
+		return
+			throwIfNull(
+				getRemoteProviderIndex().getBySourceId(sourceId),
+				"remote provider source ID",
+				sourceId == null ? null : new String(Hex.encode(sourceId))
+			);
+	}
+
+	/*
+	 * Lookups only read the published index. While the configuration is unchanged, a single thread
+	 * rebuilds an index that is due for a refresh, other threads keep using the previous one.
+	 */
+	private RemoteProviderIndex<RemoteMetadata> getRemoteProviderIndex() {
+		long version = getConfiguration().getVersion();
+		PublishedIndex<RemoteMetadata> current = remoteProviderIndex.get();
+		if (current != null && current.version == version) {
+			if (clock.millis() < current.refreshAt || !refreshingRemoteProviderIndex.compareAndSet(false, true)) {
+				return current.index;
+			}
+			try {
+				return publishRemoteProviderIndex(version);
+			} finally {
+				refreshingRemoteProviderIndex.set(false);
+			}
+		}
+		return publishRemoteProviderIndex(version);
+	}
+
+	private RemoteProviderIndex<RemoteMetadata> publishRemoteProviderIndex(long version) {
+		RemoteProviderIndex<RemoteMetadata> index = buildRemoteProviderIndex();
+		remoteProviderIndex.set(new PublishedIndex<>(index, version, clock.millis() + remoteProviderRefreshMillis));
+		return index;
+	}
+
+	private RemoteProviderIndex<RemoteMetadata> buildRemoteProviderIndex() {
+		List<RemoteMetadata> providers = getRemoteProviders();
+		List<ExternalProviderConfiguration> configurations = getConfiguration().getProviders();
+		List<IndexedMetadata<RemoteMetadata>> aggregates = new ArrayList<>();
+		List<Object> key = new ArrayList<>();
+		key.add(RemoteProviderIndex.class);
+		for (ExternalProviderConfiguration c : configurations) {
+			key.add(getRemoteProviderCacheKey(c));
+			if (c.isLazyMetadata()) {
+				try {
+					LazyRemoteProvider<RemoteMetadata> lazy = getLazyRemoteProvider(c);
+					if (lazy != null && lazy.index != null) {
+						aggregates.add(lazy.index);
+					}
+				} catch (SamlException x) {
+					logger.debug("Unable to resolve remote provider metadata.", x);
+				}
+			}
+		}
+		return cache.getDerivedMetadata(
+			key,
+			(RemoteProviderIndex<RemoteMetadata> index) -> index.isCurrent(providers, aggregates),
+			() -> new RemoteProviderIndex<>(providers, aggregates)
+		);
+	}
+
+	/**
+	 * For lazily resolved metadata only the first entity of the document is returned,
+	 * other entities are resolved on lookup by entityId. Documents that can't be indexed
+	 * are resolved fully.
+	 */
 	@Override
 	public RemoteMetadata getRemoteProvider(ExternalProviderConfiguration c) {
-		String metadata = c.getMetadata();
-		RemoteMetadata result = resolve(metadata, c.isSkipSslValidation());
+		if (c.isLazyMetadata()) {
+			LazyRemoteProvider<RemoteMetadata> lazy = getLazyRemoteProvider(c);
+			if (lazy == null) {
+				return null;
+			}
+			return lazy.index != null ? lazy.index.getFirst() : lazy.metadata;
+		}
+		byte[] data = getMetadataData(c.getMetadata(), c.isSkipSslValidation());
+		return cache.getResolvedMetadata(
+			getRemoteProviderCacheKey(c),
+			data,
+			d -> resolveRemoteProvider(c, d)
+		);
+	}
+
+	private LazyRemoteProvider<RemoteMetadata> getLazyRemoteProvider(ExternalProviderConfiguration c) {
+		byte[] data = getMetadataData(c.getMetadata(), c.isSkipSslValidation());
+		return cache.getResolvedMetadata(
+			getRemoteProviderCacheKey(c),
+			data,
+			d -> indexRemoteProvider(c, d)
+		);
+	}
+
+	/**
+	 * Returns the key under which the remote provider resolved for the given configuration is cached.
+	 * Must include every configuration value that {@link #resolveRemoteProvider(ExternalProviderConfiguration, byte[])}
+	 * depends on.
+	 *
+	 * @param c the external provider configuration
+	 * @return a key with value based equality
+	 */
+	protected List<Object> getRemoteProviderCacheKey(ExternalProviderConfiguration c) {
+		return asList(
+			getClass(),
+			c.getAlias(),
+			c.getMetadata(),
+			c.isMetadataTrustCheck(),
+			c.getVerificationKeys(),
+			c.isStreamingMetadata(),
+			c.getMetadataEntityIds(),
+			c.isLazyMetadata(),
+			c.getLazyMetadataCacheSize()
+		);
+	}
+
+	/**
+	 * Parses, trust checks and completes the metadata for a remote provider.
+	 * Invoked only when the underlying metadata document has changed, the result is shared
+	 * between requests.
+	 *
+	 * @param c    the external provider configuration
+	 * @param data the raw metadata document
+	 * @return the remote provider metadata, or null if the metadata can not be trusted
+	 */
+	protected RemoteMetadata resolveRemoteProvider(ExternalProviderConfiguration c, byte[] data) {
+		if (c.isStreamingMetadata()) {
+			return streamRemoteProvider(c, data);
+		}
+		RemoteMetadata result = throwIfNull(
+			transformMetadata(new String(data, StandardCharsets.UTF_8)),
+			"metadata",
+			c.getMetadata()
+		);
 		if (c.isMetadataTrustCheck()) {
 			result = metadataTrustCheck(c, result);
 		}
 		if (result != null) {
 			addStaticKeys(c, result);
+			result.setEntityAlias(c.getAlias());
 		}
 		return result;
 	}
 
+	/*
+	 * The document signature is verified while streaming, rather than against the resolved object
+	 */
+	private RemoteMetadata streamRemoteProvider(ExternalProviderConfiguration c, byte[] data) {
+		List<SimpleKey> keys = null;
+		if (c.isMetadataTrustCheck()) {
+			if (c.getVerificationKeys().isEmpty()) {
+				logger.warn("No keys to verify metadata for "+c.getMetadata() + " with. Unable to trust.");
+				return null;
+			}
+			keys = c.getVerificationKeyData();
+		}
+		RemoteMetadata result;
+		try {
+			result = throwIfNull(
+				transformMetadata(data, keys, getMetadataFilter(c)),
+				"metadata",
+				c.getMetadata()
+			);
+		} catch (SignatureException e) {
+			logger.warn("Invalid signature for remote provider metadata "+c.getMetadata() + ". Unable to trust.", e);
+			return null;
+		}
+		if (c.isMetadataTrustCheck()) {
+			Signature signature = result.getSignature();
+			if (signature == null || !signature.isValidated() || signature.getValidatingKey() == null) {
+				logger.warn("Missing signature for "+c.getMetadata() + ". Unable to trust.");
+				return null;
+			}
+		}
+		addStaticKeys(c, result);
+		result.setEntityAlias(c.getAlias());
+		return result;
+	}
+
+	/**
+	 * Verifies the signature of the document once, and indexes the entities it contains.
+	 * Entities are resolved from the indexed document on first lookup. A document that can't
+	 * be indexed is resolved fully instead.
+	 *
+	 * @param c    the external provider configuration
+	 * @param data the raw metadata document
+	 * @return the indexed entities or the resolved metadata, or null if the metadata can not be trusted
+	 */
+	private LazyRemoteProvider<RemoteMetadata> indexRemoteProvider(ExternalProviderConfiguration c, byte[] data) {
+		Signature signature = null;
+		if (c.isMetadataTrustCheck()) {
+			if (c.getVerificationKeys().isEmpty()) {
+				logger.warn("No keys to verify metadata for "+c.getMetadata() + " with. Unable to trust.");
+				return null;
+			}
+			try {
+				signature = getTransformer().validateMetadataSignature(data, c.getVerificationKeyData());
+			} catch (SignatureException e) {
+				logger.warn("Invalid signature for remote provider metadata "+c.getMetadata() + ". Unable to trust.", e);
+				return null;
+			}
+			if (signature == null || !signature.isValidated() || signature.getValidatingKey() == null) {
+				logger.warn("Missing signature for "+c.getMetadata() + ". Unable to trust.");
+				return null;
+			}
+		}
+		Signature documentSignature = signature;
+		IndexedMetadata<RemoteMetadata> result = IndexedMetadata.index(
+			data,
+			getMetadataFilter(c),
+			c.getLazyMetadataCacheSize(),
+			(entityId, document) -> resolveIndexedEntity(c, entityId, document, documentSignature)
+		);
+		if (result == null) {
+			logger.debug("Unable to index metadata " + c.getMetadata() + ", resolving it fully.");
+			RemoteMetadata metadata = resolveRemoteProvider(c, data);
+			return metadata == null ? null : new LazyRemoteProvider<>(null, metadata);
+		}
+		return new LazyRemoteProvider<>(result, null);
+	}
+
+	private RemoteMetadata resolveIndexedEntity(ExternalProviderConfiguration c,
+												String entityId,
+												byte[] document,
+												Signature signature) {
+		RemoteMetadata result = transformMetadata(
+			document,
+			null,
+			getMetadataFilter(c).setEntityIds(singletonList(entityId))
+		);
+		if (result != null) {
+			addStaticKeys(c, result);
+			result.setEntityAlias(c.getAlias());
+			if (signature != null) {
+				result.setSignature(signature);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Selects the entities of a remote metadata document that are resolved.
+	 * Subclasses exclude entities that only have the role of the hosted provider.
+	 *
+	 * @param c the external provider configuration
+	 * @return a new filter
+	 */
+	protected MetadataFilter getMetadataFilter(ExternalProviderConfiguration c) {
+		return new MetadataFilter().setEntityIds(c.getMetadataEntityIds());
+	}
+
 	private void addStaticKeys(ExternalProviderConfiguration config, RemoteMetadata metadata) {
 		if (!config.getVerificationKeys().isEmpty() && metadata != null) {
 			for (SsoProvider provider : metadata.getSsoProviders()) {
@@ -258,10 +529,38 @@ public abstract class AbstractHostedProviderService<
 		return null;
 	}
 
+	/**
+	 * Validates the object, and then releases what the configured {@link RetentionPolicy} of its type
+	 * doesn't retain of the message it was resolved from.
+	 */
 	@Override
 	public ValidationResult validate(Saml2Object saml2Object) {
-		RemoteMetadata remote = getRemoteProvider(saml2Object);
-		List<SimpleKey> verificationKeys = getVerificationKeys(remote);
+		return validate(saml2Object, messageContext());
+	}
+
+	@Override
+	public ValidationResult validate(Saml2Object saml2Object, SamlMessageContext<RemoteMetadata> context) {
+		try {
+			return validateObject(saml2Object, context);
+		} finally {
+			retain(saml2Object);
+		}
+	}
+
+	protected void retain(Saml2Object saml2Object) {
+		if (saml2Object instanceof ImplementationHolder) {
+			((ImplementationHolder) saml2Object).retain(getConfiguration().getRetentionPolicy(saml2Object.getClass()));
+		}
+		if (saml2Object instanceof Response) {
+			RetentionPolicy policy = getConfiguration().getRetentionPolicy(Assertion.class);
+			for (Assertion assertion : ofNullable(((Response) saml2Object).getAssertions()).orElse(emptyList())) {
+				assertion.retain(policy);
+			}
+		}
+	}
+
+	private ValidationResult validateObject(Saml2Object saml2Object, SamlMessageContext<RemoteMetadata> context) {
+		List<SimpleKey> verificationKeys = context.getVerificationKeys(saml2Object);
 		try {
 			if (verificationKeys != null && !verificationKeys.isEmpty()) {
 				getValidator().validateSignature(saml2Object, verificationKeys);
@@ -272,40 +571,40 @@ public abstract class AbstractHostedProviderService<
 			);
 		}
 		try {
-			getValidator().validate(saml2Object, this);
+			getValidator().validate(saml2Object, this, context);
 		} catch (ValidationException e) {
 			return e.getErrors();
 		}
 		return new ValidationResult(saml2Object);
 	}
 
-	private List<SimpleKey> getVerificationKeys(RemoteMetadata remote) {
-		List<SimpleKey> verificationKeys = emptyList();
-		if (remote instanceof ServiceProviderMetadata) {
-			verificationKeys = ((ServiceProviderMetadata) remote).getServiceProvider().getKeys();
-		}
-		else if (remote instanceof IdentityProviderMetadata) {
-			verificationKeys = ((IdentityProviderMetadata) remote).getIdentityProvider().getKeys();
-		}
-		return verificationKeys;
-	}
-
 	public SamlValidator getValidator() {
 		return validator;
 	}
 
 	@Override
 	public <T extends Saml2Object> T fromXml(String xml, boolean encoded, boolean deflated, Class<T> type) {
+		return fromXml(xml, encoded, deflated, type, messageContext());
+	}
+
+	@Override
+	public <T extends Saml2Object> T fromXml(String xml,
+											 boolean encoded,
+											 boolean deflated,
+											 Class<T> type,
+											 SamlMessageContext<RemoteMetadata> context) {
 		List<SimpleKey> decryptionKeys = getConfiguration().getKeys().toList();
-		if (encoded) {
-			xml = getTransformer().samlDecode(xml, deflated);
-		}
-		Saml2Object result = type.cast(getTransformer().fromXml(xml, null, decryptionKeys));
+		T result = type.cast(
+			encoded ?
+				getTransformer().fromEncodedXml(xml, deflated, null, decryptionKeys) :
+				getTransformer().fromXml(xml, null, decryptionKeys)
+		);
 		//in order to add signatures, we need the verification keys from the remote provider
-		RemoteMetadata remote = getRemoteProvider(result);
-		List verificationKeys = remote.getSsoProviders().get(0).getKeys();
-		//perform transformation with verification keys
-		return type.cast(getTransformer().fromXml(xml, verificationKeys, decryptionKeys));
+		List<SimpleKey> verificationKeys = context.getVerificationKeys(result);
+		//validate the signatures of the object already parsed and decrypted
+		T verified = getTransformer().validateSignatures(result, verificationKeys, decryptionKeys);
+		context.replaceMessage(result, verified);
+		return verified;
 	}
 
 	@Override
@@ -313,6 +612,11 @@ public abstract class AbstractHostedProviderService<
 		return getTransformer().toXml(saml2Object);
 	}
 
+	@Override
+	public void toXml(Saml2Object saml2Object, OutputStream out) {
+		getTransformer().toXml(saml2Object, out);
+	}
+
 	@Override
 	public String toEncodedXml(Saml2Object saml2Object, boolean deflate) {
 		String xml = toXml(saml2Object);
@@ -371,12 +675,10 @@ public abstract class AbstractHostedProviderService<
 		return transformer;
 	}
 
-	private RemoteMetadata resolve(String metadata, boolean skipSslValidation) {
-		RemoteMetadata result;
+	private byte[] getMetadataData(String metadata, boolean skipSslValidation) {
 		if (isUri(metadata)) {
 			try {
-				byte[] data = cache.getMetadata(metadata, skipSslValidation);
-				result = transformMetadata(new String(data, StandardCharsets.UTF_8));
+				return cache.getMetadata(metadata, skipSslValidation);
 			} catch (SamlException x) {
 				throw x;
 			} catch (Exception x) {
@@ -391,17 +693,24 @@ public abstract class AbstractHostedProviderService<
 			}
 		}
 		else {
-			result = transformMetadata(metadata);
+			return metadata.getBytes(StandardCharsets.UTF_8);
 		}
-		return throwIfNull(
-			result,
-			"metadata",
-			metadata
-		);
 	}
 
 	protected abstract RemoteMetadata transformMetadata(String data);
 
+	/**
+	 * Streams a metadata document, materializing only the entities included by the filter.
+	 *
+	 * @param data             the raw metadata document
+	 * @param verificationKeys keys to verify the document signature with, null to skip verification
+	 * @param filter           the entities to include
+	 * @return the remote provider metadata, null if no entity is included
+	 */
+	protected abstract RemoteMetadata transformMetadata(byte[] data,
+														List<SimpleKey> verificationKeys,
+														MetadataFilter filter);
+
 	private boolean isUri(String uri) {
 		boolean isUri = false;
 		try {
@@ -425,4 +734,29 @@ public abstract class AbstractHostedProviderService<
 			null;
 		return getRemoteProvider(issuer);
 	}
+
+	/*
+	 * Either the index of a lazily resolved document, or the metadata of a document that can't be indexed
+	 */
+	private static class LazyRemoteProvider<T extends Metadata> {
+		private final IndexedMetadata<T> index;
+		private final T metadata;
+
+		LazyRemoteProvider(IndexedMetadata<T> index, T metadata) {
+			this.index = index;
+			this.metadata = metadata;
+		}
+	}
+
+	private static class PublishedIndex<T extends Metadata> {
+		private final RemoteProviderIndex<T> index;
+		private final long version;
+		private final long refreshAt;
+
+		PublishedIndex(RemoteProviderIndex<T> index, long version, long refreshAt) {
+			this.index = index;
+			this.version = version;
+			this.refreshAt = refreshAt;
+		}
+	}
 }
@@ -17,6 +17,7 @@
 
 package org.springframework.security.saml.provider;
 
+import java.io.OutputStream;
 import java.util.List;
 
 import org.springframework.security.saml.provider.config.ExternalProviderConfiguration;
@@ -51,14 +52,66 @@ public interface HostedProviderService<
 
 	RemoteMetadata getRemoteProvider(String entityId);
 
+	RemoteMetadata getRemoteProviderByAlias(String alias);
+
+	/**
+	 * Finds a remote provider by the SourceID of a SAML artifact, the SHA-1 hash of its entityId
+	 *
+	 * @param sourceId the 20 byte SourceID
+	 * @return the remote provider
+	 * @throws org.springframework.security.saml.SamlProviderNotFoundException if no provider matches
+	 */
+	RemoteMetadata getRemoteProviderBySourceId(byte[] sourceId);
+
 	RemoteMetadata getRemoteProvider(ExternalProviderConfiguration c);
 
 	ValidationResult validate(Saml2Object saml2Object);
 
+	/**
+	 * Verifies and validates a received object using what the context has already resolved for it
+	 *
+	 * @param saml2Object the object to validate
+	 * @param context     the context of the message the object was received in
+	 * @return the result of the validation
+	 */
+	ValidationResult validate(Saml2Object saml2Object, SamlMessageContext<RemoteMetadata> context);
+
 	<T extends Saml2Object> T fromXml(String xml, boolean encoded, boolean deflated, Class<T> type);
 
+	/**
+	 * Parses a received message, and resolves its remote provider into the context
+	 *
+	 * @param xml      the message
+	 * @param encoded  true if the message is Base64 encoded
+	 * @param deflated true if the message is deflated
+	 * @param type     the expected type of the message
+	 * @param context  the context of the message, see {@link #messageContext()}
+	 * @param <T>      the expected type of the message
+	 * @return the parsed message with its signatures verified
+	 */
+	<T extends Saml2Object> T fromXml(String xml,
+									  boolean encoded,
+									  boolean deflated,
+									  Class<T> type,
+									  SamlMessageContext<RemoteMetadata> context);
+
+	/**
+	 * @return a new context for a message received by this provider
+	 */
+	default SamlMessageContext<RemoteMetadata> messageContext() {
+		return new SamlMessageContext<>(this);
+	}
+
 	String toXml(Saml2Object saml2Object);
 
+	/**
+	 * Writes the UTF-8 encoded XML of an object to a stream, the stream is not closed.
+	 *
+	 * @param saml2Object the object to write
+	 * @param out         the stream to write to
+	 */
+	void toXml(Saml2Object saml2Object, OutputStream out);
+
 	String toEncodedXml(Saml2Object saml2Object, boolean deflate);
 
 	String toEncodedXml(String xml, boolean deflate);
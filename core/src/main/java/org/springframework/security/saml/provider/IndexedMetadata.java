@@ -0,0 +1,553 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import org.springframework.security.saml.SamlException;
+import org.springframework.security.saml.saml2.metadata.Metadata;
+import org.springframework.security.saml.saml2.metadata.MetadataFilter;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.springframework.security.saml.saml2.Namespace.NS_METADATA;
+
+/**
+ * Entities of an aggregated metadata document that are resolved only when first looked up.
+ * The document is scanned once for the byte offsets of its EntityDescriptor elements, a lookup
+ * resolves the single entity from its slice of the document. Resolved entities are kept in a
+ * bounded least recently used cache, so memory use follows the number of active partners rather
+ * than the size of the aggregate.
+ * <p>
+ * The scan is lexical. Signature validation and schema processing are left to the parser the
+ * entity slices are handed to.
+ *
+ * @param <T> the remote metadata type
+ */
+class IndexedMetadata<T extends Metadata> {
+
+	private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+	private final byte[] data;
+	private final byte[] prolog;
+	private final Map<String, Entry> entries;
+	private final Map<String, String> bySourceId;
+	private final BiFunction<String, byte[], T> resolver;
+	private final Map<String, T> resolved;
+	private volatile T first;
+
+	private IndexedMetadata(byte[] data,
+							byte[] prolog,
+							Map<String, Entry> entries,
+							BiFunction<String, byte[], T> resolver,
+							int cacheSize) {
+		this.data = data;
+		this.prolog = prolog;
+		this.entries = entries;
+		this.resolver = resolver;
+		this.bySourceId = new HashMap<>();
+		for (String entityId : entries.keySet()) {
+			bySourceId.putIfAbsent(RemoteProviderIndex.getSourceId(entityId), entityId);
+		}
+		this.resolved = Collections.synchronizedMap(
+			new LinkedHashMap<String, T>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+					return size() > cacheSize;
+				}
+			}
+		);
+	}
+
+	/**
+	 * @param data      the metadata document, must not be modified afterwards
+	 * @param filter    selects the entities to index
+	 * @param cacheSize the maximum number of resolved entities to keep
+	 * @param resolver  resolves an entity, by entityId, from a document containing only that entity
+	 * @param <T>       the remote metadata type
+	 * @return the index, or null if the document can't be scanned, such as a document in a
+	 * multibyte encoding other than UTF-8, or with nested EntitiesDescriptor elements
+	 * @throws SamlException if an entityID contains an invalid character reference
+	 */
+	static <T extends Metadata> IndexedMetadata<T> index(byte[] data,
+														 MetadataFilter filter,
+														 int cacheSize,
+														 BiFunction<String, byte[], T> resolver) {
+		Scanner scanner = new Scanner(data);
+		if (!scanner.scan()) {
+			return null;
+		}
+		Map<String, Entry> entries = new LinkedHashMap<>();
+		for (Entry entry : scanner.entries) {
+			if (filter.isIncluded(entry.entityId) && filter.isIncluded(entry.identityProvider, entry.serviceProvider)) {
+				entries.putIfAbsent(entry.entityId, entry);
+			}
+		}
+		return new IndexedMetadata<>(data, scanner.prolog, entries, resolver, Math.max(cacheSize, 1));
+	}
+
+	Set<String> getEntityIds() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	int getResolvedCount() {
+		return resolved.size();
+	}
+
+	/**
+	 * @return the first indexed entity, kept regardless of the cache size so that it is stable between calls
+	 */
+	T getFirst() {
+		T result = first;
+		if (result == null && !entries.isEmpty()) {
+			String entityId = entries.keySet().iterator().next();
+			result = first = resolve(entityId);
+		}
+		return result;
+	}
+
+	T getByEntityId(String entityId) {
+		if (entityId == null || !entries.containsKey(entityId)) {
+			return null;
+		}
+		T result = first;
+		if (result != null && entityId.equals(result.getEntityId())) {
+			return result;
+		}
+		result = resolved.get(entityId);
+		if (result == null) {
+			result = resolve(entityId);
+			if (result != null) {
+				resolved.put(entityId, result);
+			}
+		}
+		return result;
+	}
+
+	T getBySourceId(String sourceId) {
+		return sourceId == null ? null : getByEntityId(bySourceId.get(sourceId));
+	}
+
+	private T resolve(String entityId) {
+		return resolver.apply(entityId, getDocument(entityId));
+	}
+
+	/**
+	 * @return a metadata document containing the prolog, the enclosing EntitiesDescriptor elements and
+	 * the entity
+	 */
+	byte[] getDocument(String entityId) {
+		Entry entry = entries.get(entityId);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(prolog.length + entry.end - entry.start + 1024);
+		out.write(prolog, 0, prolog.length);
+		for (Tag ancestor : entry.ancestors) {
+			out.write(data, ancestor.start, ancestor.end - ancestor.start);
+		}
+		out.write(data, entry.start, entry.end - entry.start);
+		for (int i = entry.ancestors.length - 1; i >= 0; i--) {
+			byte[] end = ("</" + entry.ancestors[i].name + ">").getBytes(US_ASCII);
+			out.write(end, 0, end.length);
+		}
+		return out.toByteArray();
+	}
+
+	private static class Tag {
+		private final int start;
+		private final int end;
+		private final String name;
+		private final String namespaceURI;
+		private final Map<String, String> namespaces;
+
+		Tag(int start, int end, String name, String namespaceURI, Map<String, String> namespaces) {
+			this.start = start;
+			this.end = end;
+			this.name = name;
+			this.namespaceURI = namespaceURI;
+			this.namespaces = namespaces;
+		}
+
+		boolean is(String namespaceURI, String localName) {
+			return namespaceURI.equals(this.namespaceURI) && name.substring(name.indexOf(':') + 1).equals(localName);
+		}
+	}
+
+	private static class Entry {
+		private final String entityId;
+		private final int start;
+		private final Tag[] ancestors;
+		private int end;
+		private boolean identityProvider;
+		private boolean serviceProvider;
+
+		Entry(String entityId, int start, Tag[] ancestors) {
+			this.entityId = entityId;
+			this.start = start;
+			this.ancestors = ancestors;
+		}
+	}
+
+	/*
+	 * Finds the elements of a document, skipping comments, CDATA sections and processing instructions.
+	 * Works on the raw bytes, which is valid for UTF-8 and the single byte encodings based on ASCII.
+	 * Entities are the document element, or the direct children of a document EntitiesDescriptor,
+	 * so that only content covered by the document signature is indexed.
+	 */
+	private static class Scanner {
+		private final byte[] data;
+		private final Deque<Tag> open = new ArrayDeque<>();
+		private final Deque<Entry> entries = new ArrayDeque<>();
+		private byte[] prolog = new byte[0];
+		private Charset charset = UTF_8;
+		private Entry current;
+		private Tag[] ancestors;
+		private int pos = 0;
+
+		Scanner(byte[] data) {
+			this.data = data;
+		}
+
+		boolean scan() {
+			if (startsWith(0, UTF8_BOM)) {
+				pos = UTF8_BOM.length;
+			}
+			if (data.length < pos + 2 || data[pos] == 0 || data[pos + 1] == 0 || (data[pos] & 0xFF) >= 0xFE) {
+				//UTF-16, UTF-32 or not a document
+				return false;
+			}
+			if (startsWith(pos, "<?xml ")) {
+				int end = indexOf("?>", pos);
+				if (end < 0 || !readDeclaration(pos, end + 2)) {
+					return false;
+				}
+				prolog = new byte[end + 2 - pos];
+				System.arraycopy(data, pos, prolog, 0, prolog.length);
+				pos = end + 2;
+			}
+			while (pos < data.length) {
+				int lt = indexOf('<', pos);
+				if (lt < 0) {
+					break;
+				}
+				if (startsWith(lt, "<!--")) {
+					pos = skip(lt, "-->");
+				}
+				else if (startsWith(lt, "<![CDATA[")) {
+					pos = skip(lt, "]]>");
+				}
+				else if (startsWith(lt, "<?")) {
+					pos = skip(lt, "?>");
+				}
+				else if (startsWith(lt, "<!")) {
+					//document type declarations are not supported
+					return false;
+				}
+				else if (lt + 1 < data.length && data[lt + 1] == '/') {
+					pos = endTag(lt);
+				}
+				else {
+					pos = startTag(lt);
+				}
+				if (pos < 0) {
+					return false;
+				}
+			}
+			return open.isEmpty() && current == null;
+		}
+
+		private int startTag(int start) {
+			int i = start + 1;
+			int nameEnd = i;
+			while (nameEnd < data.length && !isNameEnd(data[nameEnd])) {
+				nameEnd++;
+			}
+			String name = new String(data, i, nameEnd - i, US_ASCII);
+			String entityId = null;
+			Map<String, String> namespaces = Collections.emptyMap();
+			i = nameEnd;
+			boolean empty = false;
+			while (true) {
+				i = skipWhitespace(i);
+				if (i >= data.length) {
+					return -1;
+				}
+				if (data[i] == '>') {
+					break;
+				}
+				if (data[i] == '/') {
+					if (i + 1 >= data.length || data[i + 1] != '>') {
+						return -1;
+					}
+					empty = true;
+					i++;
+					break;
+				}
+				int attributeStart = i;
+				while (i < data.length && data[i] != '=' && !isWhitespace(data[i])) {
+					i++;
+				}
+				String attribute = new String(data, attributeStart, i - attributeStart, US_ASCII);
+				i = skipWhitespace(i);
+				if (i >= data.length || data[i] != '=') {
+					return -1;
+				}
+				i = skipWhitespace(i + 1);
+				if (i >= data.length || (data[i] != '"' && data[i] != '\'')) {
+					return -1;
+				}
+				int valueEnd = indexOf(data[i], i + 1);
+				if (valueEnd < 0) {
+					return -1;
+				}
+				if ("entityID".equals(attribute)) {
+					entityId = unescape(new String(data, i + 1, valueEnd - i - 1, charset));
+				}
+				else if ("xmlns".equals(attribute) || attribute.startsWith("xmlns:")) {
+					if (namespaces.isEmpty()) {
+						namespaces = new HashMap<>();
+					}
+					namespaces.put(
+						attribute.substring(Math.min(attribute.length(), 6)),
+						unescape(new String(data, i + 1, valueEnd - i - 1, charset))
+					);
+				}
+				i = valueEnd + 1;
+			}
+			int end = i + 1;
+			Tag tag = new Tag(start, end, name, getNamespaceURI(name, namespaces), namespaces);
+
+			if (current != null) {
+				if (open.size() == ancestors.length + 1) {
+					current.identityProvider |= tag.is(NS_METADATA, "IDPSSODescriptor");
+					current.serviceProvider |= tag.is(NS_METADATA, "SPSSODescriptor");
+				}
+			}
+			else if (open.size() == 1 && open.peek().is(NS_METADATA, "EntitiesDescriptor") &&
+				tag.is(NS_METADATA, "EntitiesDescriptor")) {
+				//nested groups are not indexed
+				return -1;
+			}
+			else if (tag.is(NS_METADATA, "EntityDescriptor") && entityId != null && (open.isEmpty() ||
+				(open.size() == 1 && open.peek().is(NS_METADATA, "EntitiesDescriptor")))) {
+				ancestors = open.toArray(new Tag[0]);
+				reverse(ancestors);
+				current = new Entry(entityId, start, ancestors);
+				if (empty) {
+					complete(end);
+				}
+			}
+			if (!empty) {
+				open.push(tag);
+			}
+			return end;
+		}
+
+		private String getNamespaceURI(String name, Map<String, String> namespaces) {
+			String prefix = name.indexOf(':') < 0 ? "" : name.substring(0, name.indexOf(':'));
+			String result = namespaces.get(prefix);
+			for (Iterator<Tag> it = open.iterator(); result == null && it.hasNext(); ) {
+				result = it.next().namespaces.get(prefix);
+			}
+			return result == null ? "" : result;
+		}
+
+		private int endTag(int start) {
+			int end = indexOf('>', start);
+			if (end < 0 || open.isEmpty()) {
+				return -1;
+			}
+			open.pop();
+			if (current != null && open.size() == ancestors.length) {
+				complete(end + 1);
+			}
+			return end + 1;
+		}
+
+		private void complete(int end) {
+			current.end = end;
+			entries.add(current);
+			current = null;
+			ancestors = null;
+		}
+
+		private boolean readDeclaration(int start, int end) {
+			String declaration = new String(data, start, end - start, US_ASCII);
+			int i = declaration.indexOf("encoding");
+			if (i < 0) {
+				return true;
+			}
+			int quote = i;
+			while (quote < declaration.length() && declaration.charAt(quote) != '"' && declaration.charAt(quote) != '\'') {
+				quote++;
+			}
+			if (quote >= declaration.length()) {
+				return false;
+			}
+			int close = declaration.indexOf(declaration.charAt(quote), quote + 1);
+			if (close < 0) {
+				return false;
+			}
+			String encoding = declaration.substring(quote + 1, close).trim();
+			try {
+				charset = Charset.forName(encoding);
+			} catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+				return false;
+			}
+			return UTF_8.equals(charset) || US_ASCII.equals(charset) || encoding.toUpperCase().startsWith("ISO-8859-");
+		}
+
+		private int skip(int start, String terminator) {
+			int end = indexOf(terminator, start);
+			return end < 0 ? -1 : end + terminator.length();
+		}
+
+		private int skipWhitespace(int i) {
+			while (i < data.length && isWhitespace(data[i])) {
+				i++;
+			}
+			return i;
+		}
+
+		private boolean isNameEnd(byte b) {
+			return isWhitespace(b) || b == '>' || b == '/';
+		}
+
+		private boolean isWhitespace(byte b) {
+			return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+		}
+
+		private boolean startsWith(int offset, String prefix) {
+			return startsWith(offset, prefix.getBytes(US_ASCII));
+		}
+
+		private boolean startsWith(int offset, byte[] prefix) {
+			if (offset + prefix.length > data.length) {
+				return false;
+			}
+			for (int i = 0; i < prefix.length; i++) {
+				if (data[offset + i] != prefix[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private int indexOf(byte b, int from) {
+			for (int i = from; i < data.length; i++) {
+				if (data[i] == b) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private int indexOf(char c, int from) {
+			return indexOf((byte) c, from);
+		}
+
+		private int indexOf(String s, int from) {
+			byte[] b = s.getBytes(US_ASCII);
+			for (int i = indexOf(b[0], from); i >= 0; i = indexOf(b[0], i + 1)) {
+				if (startsWith(i, b)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private static void reverse(Tag[] tags) {
+			for (int i = 0, j = tags.length - 1; i < j; i++, j--) {
+				Tag t = tags[i];
+				tags[i] = tags[j];
+				tags[j] = t;
+			}
+		}
+
+		private static String unescape(String value) {
+			if (value.indexOf('&') < 0) {
+				return value;
+			}
+			StringBuilder result = new StringBuilder(value.length());
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				int end = c == '&' ? value.indexOf(';', i) : -1;
+				if (end < 0) {
+					result.append(c);
+					continue;
+				}
+				String reference = value.substring(i + 1, end);
+				switch (reference) {
+					case "amp":
+						result.append('&');
+						break;
+					case "lt":
+						result.append('<');
+						break;
+					case "gt":
+						result.append('>');
+						break;
+					case "quot":
+						result.append('"');
+						break;
+					case "apos":
+						result.append('\'');
+						break;
+					default:
+						if (reference.startsWith("#")) {
+							result.appendCodePoint(getCodePoint(reference));
+						}
+						else {
+							result.append(c);
+							continue;
+						}
+				}
+				i = end;
+			}
+			return result.toString();
+		}
+
+		private static int getCodePoint(String reference) {
+			try {
+				int codePoint = reference.startsWith("#x") ?
+					Integer.parseInt(reference.substring(2), 16) :
+					Integer.parseInt(reference.substring(1));
+				if (!Character.isValidCodePoint(codePoint)) {
+					throw new SamlException("Invalid character reference in metadata:&" + reference + ";");
+				}
+				return codePoint;
+			} catch (NumberFormatException e) {
+				throw new SamlException("Invalid character reference in metadata:&" + reference + ";", e);
+			}
+		}
+	}
+}
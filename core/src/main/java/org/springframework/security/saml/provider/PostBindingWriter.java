@@ -0,0 +1,121 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Base64;
+
+import org.springframework.security.saml.saml2.Saml2Object;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.springframework.util.StringUtils.hasText;
+import static org.springframework.web.util.HtmlUtils.htmlEscape;
+
+/**
+ * Writes the auto-submitting HTML form of the SAML 2 HTTP-POST binding.
+ * The message is marshalled and Base64 encoded straight into the output stream,
+ * without a template or an intermediate String holding the encoded message.
+ */
+public class PostBindingWriter {
+
+	private static final byte[] FORM_START = (
+		"<!DOCTYPE html>\n" +
+			"<html>\n" +
+			"    <head>\n" +
+			"        <meta charset=\"utf-8\" />\n" +
+			"    </head>\n" +
+			"    <body onload=\"document.forms[0].submit()\">\n" +
+			"        <noscript>\n" +
+			"            <p>\n" +
+			"                <strong>Note:</strong> Since your browser does not support JavaScript,\n" +
+			"                you must press the Continue button once to proceed.\n" +
+			"            </p>\n" +
+			"        </noscript>\n" +
+			"        <form action=\""
+	).getBytes(UTF_8);
+
+	private static final byte[] FORM_END = (
+		"\"/>\n" +
+			"            </div>\n" +
+			"            <noscript>\n" +
+			"                <div>\n" +
+			"                    <input type=\"submit\" value=\"Continue\"/>\n" +
+			"                </div>\n" +
+			"            </noscript>\n" +
+			"        </form>\n" +
+			"    </body>\n" +
+			"</html>\n"
+	).getBytes(UTF_8);
+
+	/**
+	 * Writes the form, the stream is flushed but not closed.
+	 *
+	 * @param out        the stream to write the UTF-8 encoded HTML to
+	 * @param action     the URL the form is posted to
+	 * @param parameter  the name of the message parameter, SAMLRequest or SAMLResponse
+	 * @param message    the message to post
+	 * @param relayState the relay state to post, nullable
+	 * @param provider   the provider that marshals the message
+	 * @throws IOException if the stream can't be written to
+	 */
+	public void write(OutputStream out,
+					  String action,
+					  String parameter,
+					  Saml2Object message,
+					  String relayState,
+					  HostedProviderService provider) throws IOException {
+		StringBuilder html = new StringBuilder()
+			.append(htmlEscape(action, UTF_8.name()))
+			.append("\" method=\"post\">\n")
+			.append("            <div>\n");
+		if (hasText(relayState)) {
+			html.append("                <input type=\"hidden\" name=\"RelayState\" value=\"")
+				.append(htmlEscape(relayState, UTF_8.name()))
+				.append("\"/>\n");
+		}
+		html.append("                <input type=\"hidden\" name=\"")
+			.append(htmlEscape(parameter, UTF_8.name()))
+			.append("\" value=\"");
+		out.write(FORM_START);
+		out.write(html.toString().getBytes(UTF_8));
+		//Base64 output needs no escaping; closing the encoder writes the final quantum
+		try (OutputStream base64 = Base64.getEncoder().wrap(new NonClosingOutputStream(out))) {
+			provider.toXml(message, base64);
+		}
+		out.write(FORM_END);
+		out.flush();
+	}
+
+	private static class NonClosingOutputStream extends FilterOutputStream {
+		NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
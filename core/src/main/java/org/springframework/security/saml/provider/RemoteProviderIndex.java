@@ -0,0 +1,157 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.security.saml.SamlException;
+import org.springframework.security.saml.saml2.metadata.Metadata;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Immutable lookup table for remote providers, including every entity of an aggregated
+ * (EntitiesDescriptor) metadata document.
+ * Entities can be found by entityId, by alias or by the SHA-1 source ID that SAML artifacts carry.
+ * When the same key appears more than once, the first provider in configuration order wins.
+ * Entities of lazily resolved aggregates are only searched when no resolved provider matches.
+ *
+ * @param <T> the remote metadata type
+ */
+class RemoteProviderIndex<T extends Metadata> {
+
+	private final List<T> providers;
+	private final List<IndexedMetadata<T>> aggregates;
+	private final Map<String, T> byEntityId = new HashMap<>();
+	private final Map<String, T> byAlias = new HashMap<>();
+	private final Map<String, T> bySourceId = new HashMap<>();
+
+	RemoteProviderIndex(List<T> providers) {
+		this(providers, emptyList());
+	}
+
+	/**
+	 * @param providers  the resolved remote providers
+	 * @param aggregates lazily resolved aggregates, searched when no resolved provider matches
+	 */
+	@SuppressWarnings("unchecked")
+	RemoteProviderIndex(List<T> providers, List<IndexedMetadata<T>> aggregates) {
+		this.providers = unmodifiableList(new ArrayList<>(providers));
+		this.aggregates = unmodifiableList(new ArrayList<>(aggregates));
+		for (T provider : providers) {
+			T m = provider;
+			while (m != null) {
+				if (m.getEntityId() != null) {
+					byEntityId.putIfAbsent(m.getEntityId(), m);
+					bySourceId.putIfAbsent(getSourceId(m.getEntityId()), m);
+				}
+				if (m.getEntityAlias() != null) {
+					byAlias.putIfAbsent(m.getEntityAlias(), m);
+				}
+				m = m.hasNext() ? (T) m.getNext() : null;
+			}
+		}
+	}
+
+	/**
+	 * @param providers the currently resolved remote providers
+	 * @return true if this index was built from the very same provider objects
+	 */
+	boolean isCurrent(List<T> providers) {
+		return isCurrent(providers, emptyList());
+	}
+
+	/**
+	 * @param providers  the currently resolved remote providers
+	 * @param aggregates the current lazily resolved aggregates
+	 * @return true if this index was built from the very same provider and aggregate objects
+	 */
+	boolean isCurrent(List<T> providers, List<IndexedMetadata<T>> aggregates) {
+		return isSame(providers, this.providers) && isSame(aggregates, this.aggregates);
+	}
+
+	private static boolean isSame(List<?> a, List<?> b) {
+		if (a.size() != b.size()) {
+			return false;
+		}
+		for (int i = 0; i < a.size(); i++) {
+			if (a.get(i) != b.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	List<T> getProviders() {
+		return providers;
+	}
+
+	T getByEntityId(String entityId) {
+		if (entityId == null) {
+			return null;
+		}
+		T result = byEntityId.get(entityId);
+		for (int i = 0; result == null && i < aggregates.size(); i++) {
+			result = aggregates.get(i).getByEntityId(entityId);
+		}
+		return result;
+	}
+
+	/*
+	 * Lazily resolved entities use their entityId as alias
+	 */
+	T getByAlias(String alias) {
+		if (alias == null) {
+			return null;
+		}
+		T result = byAlias.get(alias);
+		for (int i = 0; result == null && i < aggregates.size(); i++) {
+			result = aggregates.get(i).getByEntityId(alias);
+		}
+		return result;
+	}
+
+	T getBySourceId(byte[] sourceId) {
+		if (sourceId == null) {
+			return null;
+		}
+		String hex = new String(Hex.encode(sourceId));
+		T result = bySourceId.get(hex);
+		for (int i = 0; result == null && i < aggregates.size(); i++) {
+			result = aggregates.get(i).getBySourceId(hex);
+		}
+		return result;
+	}
+
+	static String getSourceId(String entityId) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(entityId.getBytes(UTF_8));
+			return new String(Hex.encode(digest));
+		} catch (NoSuchAlgorithmException e) {
+			throw new SamlException("Unable to create artifact source ID", e);
+		}
+	}
+}
@@ -26,6 +26,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.springframework.security.saml.SamlException;
 import org.springframework.security.saml.SamlTemplateEngine;
 import org.springframework.security.saml.provider.provisioning.SamlProviderProvisioning;
+import org.springframework.security.saml.saml2.Saml2Object;
 import org.springframework.security.saml.spi.opensaml.OpenSamlVelocityEngine;
 import org.springframework.security.web.header.HeaderWriter;
 import org.springframework.security.web.header.writers.CacheControlHeadersWriter;
@@ -44,6 +45,7 @@ public abstract class SamlFilter<T extends HostedProviderService> extends OncePe
 	private String errorTemplate = "/templates/spi/generic-error.vm";
 	private SamlTemplateEngine samlTemplateEngine = new OpenSamlVelocityEngine();
 	private HeaderWriter cacheHeaderWriter = new CacheControlHeadersWriter();
+	private PostBindingWriter postBindingWriter = new PostBindingWriter();
 
 	protected SamlFilter(SamlProviderProvisioning<T> provisioning) {
 		this.provisioning = provisioning;
@@ -87,6 +89,50 @@ public abstract class SamlFilter<T extends HostedProviderService> extends OncePe
 		}
 	}
 
+	/**
+	 * Sends a message using the HTTP-POST binding, streaming the form through the {@link PostBindingWriter}.
+	 *
+	 * @param request    the current request
+	 * @param response   the response to write the form to
+	 * @param provider   the provider sending the message
+	 * @param action     the URL the message is posted to
+	 * @param parameter  the name of the message parameter, SAMLRequest or SAMLResponse
+	 * @param message    the message
+	 * @param relayState the relay state, nullable
+	 */
+	protected void processPostBinding(HttpServletRequest request,
+									  HttpServletResponse response,
+									  HostedProviderService provider,
+									  String action,
+									  String parameter,
+									  Saml2Object message,
+									  String relayState) {
+		cacheHeaderWriter.writeHeaders(request, response);
+		response.setContentType(TEXT_HTML_VALUE);
+		response.setCharacterEncoding(UTF_8.name());
+		try {
+			getPostBindingWriter().write(
+				response.getOutputStream(),
+				action,
+				parameter,
+				message,
+				relayState,
+				provider
+			);
+		} catch (IOException e) {
+			throw new SamlException(e);
+		}
+	}
+
+	public PostBindingWriter getPostBindingWriter() {
+		return postBindingWriter;
+	}
+
+	public SamlFilter setPostBindingWriter(PostBindingWriter postBindingWriter) {
+		this.postBindingWriter = postBindingWriter;
+		return this;
+	}
+
 	public SamlTemplateEngine getSamlTemplateEngine() {
 		return samlTemplateEngine;
 	}
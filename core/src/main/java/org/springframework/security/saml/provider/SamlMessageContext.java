@@ -0,0 +1,94 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider;
+
+import java.util.List;
+
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata;
+import org.springframework.security.saml.saml2.metadata.Metadata;
+import org.springframework.security.saml.saml2.metadata.ServiceProviderMetadata;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Carries what has been resolved for a received message through parsing, signature verification,
+ * validation and authentication, so that the remote provider and its verification keys are resolved once.
+ * A context is created per message and is not thread safe.
+ *
+ * @param <RemoteMetadata> the metadata type of the remote providers
+ */
+public class SamlMessageContext<RemoteMetadata extends Metadata> {
+
+	private final HostedProviderService<?, ?, RemoteMetadata> provider;
+	private Saml2Object message;
+	private RemoteMetadata remoteProvider;
+	private List<SimpleKey> verificationKeys;
+
+	public SamlMessageContext(HostedProviderService<?, ?, RemoteMetadata> provider) {
+		this.provider = provider;
+	}
+
+	public HostedProviderService<?, ?, RemoteMetadata> getProvider() {
+		return provider;
+	}
+
+	/**
+	 * @param message the received message, or an object contained in it
+	 * @return the remote provider that issued the message, resolved once per message
+	 * @throws org.springframework.security.saml.SamlProviderNotFoundException if the provider is not configured
+	 */
+	public RemoteMetadata getRemoteProvider(Saml2Object message) {
+		if (this.message != message || remoteProvider == null) {
+			this.remoteProvider = provider.getRemoteProvider(message);
+			this.verificationKeys = null;
+			this.message = message;
+		}
+		return remoteProvider;
+	}
+
+	/*
+	 * the message is replaced when verifying its signatures creates a new object
+	 */
+	void replaceMessage(Saml2Object previous, Saml2Object message) {
+		if (this.message == previous) {
+			this.message = message;
+		}
+	}
+
+	/**
+	 * @param message the received message, or an object contained in it
+	 * @return the keys of the remote provider that signatures of the message are verified with
+	 */
+	public List<SimpleKey> getVerificationKeys(Saml2Object message) {
+		RemoteMetadata remote = getRemoteProvider(message);
+		if (verificationKeys == null) {
+			if (remote instanceof ServiceProviderMetadata) {
+				verificationKeys = ((ServiceProviderMetadata) remote).getServiceProvider().getKeys();
+			}
+			else if (remote instanceof IdentityProviderMetadata) {
+				verificationKeys = ((IdentityProviderMetadata) remote).getIdentityProvider().getKeys();
+			}
+			else {
+				verificationKeys = emptyList();
+			}
+		}
+		return verificationKeys;
+	}
+}
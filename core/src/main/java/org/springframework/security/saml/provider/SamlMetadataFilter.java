@@ -19,23 +19,46 @@ package org.springframework.security.saml.provider;
 
 import java.io.IOException;
 import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.security.saml.SamlException;
 import org.springframework.security.saml.SamlRequestMatcher;
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.provider.config.LocalProviderConfiguration;
 import org.springframework.security.saml.provider.provisioning.SamlProviderProvisioning;
 import org.springframework.security.saml.saml2.metadata.Metadata;
+import org.springframework.security.saml.util.ExpiringMap;
 import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.context.request.ServletWebRequest;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.springframework.http.HttpHeaders.CACHE_CONTROL;
 import static org.springframework.http.HttpHeaders.CONTENT_DISPOSITION;
 import static org.springframework.http.MediaType.TEXT_XML_VALUE;
 
+/**
+ * Serves the metadata of the hosted provider.
+ * The document is marshalled, and signed, once per version of the hosted provider configuration
+ * and served from memory with a strong ETag, so that conditional requests are answered with a 304.
+ */
 public class SamlMetadataFilter<ProviderType extends HostedProviderService> extends SamlFilter<ProviderType> {
 
 	private final RequestMatcher requestMatcher;
 	private final String filename;
+	private final ExpiringMap<String, RenderedMetadata> documents =
+		new ExpiringMap<String, RenderedMetadata>(Clock.systemUTC())
+			.setExpirationTimeMillis(1000 * 60 * 60)
+			.setMaximumSize(100);
+	private long maxAgeSeconds = 0;
 
 	public SamlMetadataFilter(SamlProviderProvisioning<ProviderType> provisioning) {
 		this(provisioning, "saml-metadata.xml");
@@ -63,19 +86,118 @@ public class SamlMetadataFilter<ProviderType extends HostedProviderService> exte
 		throws ServletException, IOException {
 		if (getRequestMatcher().matches(request)) {
 			ProviderType provider = getProvisioning().getHostedProvider();
-			Metadata metadata = provider.getMetadata();
-			String xml = provider.toXml(metadata);
-			getCacheHeaderWriter().writeHeaders(request, response);
+			RenderedMetadata metadata = getMetadata(provider);
+			response.setHeader(
+				CACHE_CONTROL,
+				getMaxAgeSeconds() > 0 ? "max-age=" + getMaxAgeSeconds() + ", must-revalidate" : "no-cache"
+			);
+			if (new ServletWebRequest(request, response).checkNotModified(metadata.getEtag())) {
+				return;
+			}
 			response.setContentType(TEXT_XML_VALUE);
 			String safeFilename = URLEncoder.encode(getFilename(), "ISO-8859-1");
 			response.addHeader(CONTENT_DISPOSITION, "attachment; filename=\"" + safeFilename + "\"" + ";");
-			response.getWriter().write(xml);
+			response.setContentLength(metadata.getXml().length);
+			response.getOutputStream().write(metadata.getXml());
 		}
 		else {
 			filterChain.doFilter(request, response);
 		}
 	}
 
+	/**
+	 * @param provider the hosted provider
+	 * @return the marshalled, and signed, metadata of the current version of the provider
+	 */
+	protected RenderedMetadata getMetadata(ProviderType provider) {
+		String version = getMetadataVersion(provider);
+		RenderedMetadata result = documents.get(version);
+		if (result == null) {
+			Metadata metadata = provider.getMetadata();
+			result = new RenderedMetadata(provider.toXml(metadata).getBytes(UTF_8));
+			documents.put(version, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Identifies the metadata document of a hosted provider. The document is created again
+	 * only when the version changes.
+	 *
+	 * @param provider the hosted provider
+	 * @return a digest of {@link #getMetadataVersionValues(HostedProviderService)}
+	 */
+	protected String getMetadataVersion(ProviderType provider) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (Object value : getMetadataVersionValues(provider)) {
+				if (value != null) {
+					digest.update(String.valueOf(value).getBytes(UTF_8));
+				}
+				digest.update((byte) 0);
+			}
+			return new String(Hex.encode(digest.digest()));
+		} catch (NoSuchAlgorithmException e) {
+			throw new SamlException(e);
+		}
+	}
+
+	/**
+	 * @param provider the hosted provider
+	 * @return the configuration values the metadata of the provider is created from
+	 */
+	protected List<Object> getMetadataVersionValues(ProviderType provider) {
+		LocalProviderConfiguration<?, ?> config = provider.getConfiguration();
+		List<Object> result = new ArrayList<>();
+		result.add(config.getClass().getName());
+		result.add(config.getEntityId());
+		result.add(config.getAlias());
+		result.add(config.getBasePath());
+		result.add(config.getPrefix());
+		result.add(config.getMetadata());
+		result.add(config.isSignMetadata());
+		result.add(config.isSingleLogoutEnabled());
+		result.add(config.getNameIds());
+		result.add(config.getDefaultSigningAlgorithm());
+		result.add(config.getDefaultDigest());
+		if (config.getKeys() != null) {
+			addKey(result, config.getKeys().getActive());
+			for (SimpleKey key : config.getKeys().getStandBy()) {
+				addKey(result, key);
+			}
+		}
+		return result;
+	}
+
+	private void addKey(List<Object> values, SimpleKey key) {
+		if (key != null) {
+			values.add(key.getName());
+			values.add(key.getType());
+			values.add(key.getCertificate());
+		}
+	}
+
+	/**
+	 * Removes all created metadata documents.
+	 */
+	public void clearMetadata() {
+		documents.clear();
+	}
+
+	public long getMaxAgeSeconds() {
+		return maxAgeSeconds;
+	}
+
+	/**
+	 * @param maxAgeSeconds the time clients may use the metadata without revalidating it,
+	 *                      0 to have them revalidate it on every use
+	 * @return this object
+	 */
+	public SamlMetadataFilter<ProviderType> setMaxAgeSeconds(long maxAgeSeconds) {
+		this.maxAgeSeconds = maxAgeSeconds;
+		return this;
+	}
+
 	private RequestMatcher getRequestMatcher() {
 		return requestMatcher;
 	}
@@ -84,4 +206,26 @@ public class SamlMetadataFilter<ProviderType extends HostedProviderService> exte
 		return filename;
 	}
 
+	protected static class RenderedMetadata {
+		private final byte[] xml;
+		private final String etag;
+
+		RenderedMetadata(byte[] xml) {
+			this.xml = xml;
+			try {
+				this.etag = "\"" + new String(Hex.encode(MessageDigest.getInstance("SHA-256").digest(xml))) + "\"";
+			} catch (NoSuchAlgorithmException e) {
+				throw new SamlException(e);
+			}
+		}
+
+		public byte[] getXml() {
+			return xml;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+	}
+
 }
@@ -17,16 +17,25 @@
 
 package org.springframework.security.saml.provider;
 
+import org.springframework.security.saml.SamlException;
+import org.springframework.security.saml.provider.config.ConfigurationVersions;
 import org.springframework.security.saml.provider.config.NetworkConfiguration;
 import org.springframework.security.saml.provider.identity.config.LocalIdentityProviderConfiguration;
 import org.springframework.security.saml.provider.service.config.LocalServiceProviderConfiguration;
 
+import static org.springframework.util.StringUtils.hasText;
+
 /**
  * Represents a configuration for a hosted or domain.
  * A hosted domain can have one local service provider, or one local identity provider, or both.
+ * Each configuration has a version that is shared by its clones, and that changes whenever the
+ * configuration is changed through its setters or by {@link #changed()}. The provider configurations
+ * have versions of their own, see
+ * {@link org.springframework.security.saml.provider.config.LocalProviderConfiguration#getVersion()}.
  */
 public class SamlServerConfiguration implements Cloneable {
 
+	private long version = ConfigurationVersions.next();
 	private LocalServiceProviderConfiguration serviceProvider;
 	private LocalIdentityProviderConfiguration identityProvider;
 	private NetworkConfiguration network;
@@ -37,7 +46,7 @@ public class SamlServerConfiguration implements Cloneable {
 
 	public SamlServerConfiguration setServiceProvider(LocalServiceProviderConfiguration serviceProvider) {
 		this.serviceProvider = serviceProvider;
-		return this;
+		return changed();
 	}
 
 	public LocalIdentityProviderConfiguration getIdentityProvider() {
@@ -46,7 +55,7 @@ public class SamlServerConfiguration implements Cloneable {
 
 	public SamlServerConfiguration setIdentityProvider(LocalIdentityProviderConfiguration identityProvider) {
 		this.identityProvider = identityProvider;
-		return this;
+		return changed();
 	}
 
 	public NetworkConfiguration getNetwork() {
@@ -55,6 +64,26 @@ public class SamlServerConfiguration implements Cloneable {
 
 	public SamlServerConfiguration setNetwork(NetworkConfiguration network) {
 		this.network = network;
+		return changed();
+	}
+
+	/**
+	 * @return the version of this configuration, hosted providers built from a configuration
+	 * with the same version may be reused
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Assigns a new version to this configuration. Call this after changing the configuration in a way
+	 * its setters don't see, such as modifying a list in place, so that the hosted providers built
+	 * from the previous version are not reused.
+	 *
+	 * @return this object
+	 */
+	public SamlServerConfiguration changed() {
+		this.version = ConfigurationVersions.next();
 		return this;
 	}
 
@@ -67,6 +96,29 @@ public class SamlServerConfiguration implements Cloneable {
 		return result;
 	}
 
+	/**
+	 * Creates an overlay of this configuration for a host. Provider configurations without a base path
+	 * are replaced by overlays with the base path of the host, everything else is shared with this
+	 * configuration, including its version.
+	 *
+	 * @param basePath the base path of the host
+	 * @return a shallow copy of this configuration
+	 */
+	public SamlServerConfiguration withBasePath(String basePath) {
+		try {
+			SamlServerConfiguration result = (SamlServerConfiguration) super.clone();
+			if (serviceProvider != null && !hasText(serviceProvider.getBasePath())) {
+				result.serviceProvider = serviceProvider.withBasePath(basePath);
+			}
+			if (identityProvider != null && !hasText(identityProvider.getBasePath())) {
+				result.identityProvider = identityProvider.withBasePath(basePath);
+			}
+			return result;
+		} catch (CloneNotSupportedException e) {
+			throw new SamlException(e);
+		}
+	}
+
 	public SamlServerConfiguration transfer(SamlServerConfiguration external) {
 		return this
 			.setNetwork(external.getNetwork())
@@ -19,18 +19,23 @@ package org.springframework.security.saml.provider.config;
 
 import java.time.Clock;
 import javax.servlet.Filter;
+import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.context.annotation.Bean;
+import org.springframework.security.saml.SamlMessageStore;
 import org.springframework.security.saml.SamlMetadataCache;
+import org.springframework.security.saml.SamlReplayCache;
 import org.springframework.security.saml.SamlTemplateEngine;
 import org.springframework.security.saml.SamlTransformer;
 import org.springframework.security.saml.SamlValidator;
 import org.springframework.security.saml.provider.HostedProviderService;
 import org.springframework.security.saml.provider.SamlServerConfiguration;
 import org.springframework.security.saml.provider.provisioning.SamlProviderProvisioning;
+import org.springframework.security.saml.saml2.authentication.Assertion;
+import org.springframework.security.saml.spi.ConcurrentSessionAssertionStore;
 import org.springframework.security.saml.spi.DefaultMetadataCache;
+import org.springframework.security.saml.spi.DefaultReplayCache;
 import org.springframework.security.saml.spi.DefaultSamlTransformer;
-import org.springframework.security.saml.spi.DefaultSessionAssertionStore;
 import org.springframework.security.saml.spi.DefaultValidator;
 import org.springframework.security.saml.spi.SpringSecuritySaml;
 import org.springframework.security.saml.spi.opensaml.OpenSamlImplementation;
@@ -42,13 +47,16 @@ public abstract class AbstractSamlServerBeanConfiguration<T extends HostedProvid
 	public abstract SamlProviderProvisioning<T> getSamlProvisioning();
 
 	@Bean
-	public DefaultSessionAssertionStore samlAssertionStore() {
-		return new DefaultSessionAssertionStore();
+	public SamlMessageStore<Assertion, HttpServletRequest> samlAssertionStore() {
+		return new ConcurrentSessionAssertionStore();
 	}
 
 	@Bean
 	public SamlTemplateEngine samlTemplateEngine() {
-		return new OpenSamlVelocityEngine();
+		return new OpenSamlVelocityEngine().preload(
+			"/templates/spi/generic-error.vm",
+			"/templates/spi/select-provider.vm"
+		);
 	}
 
 	@Bean
@@ -68,7 +76,13 @@ public abstract class AbstractSamlServerBeanConfiguration<T extends HostedProvid
 
 	@Bean
 	public SamlValidator samlValidator() {
-		return new DefaultValidator(samlImplementation());
+		return new DefaultValidator(samlImplementation())
+			.setReplayCache(samlReplayCache());
+	}
+
+	@Bean
+	public SamlReplayCache samlReplayCache() {
+		return new DefaultReplayCache(samlTime());
 	}
 
 	@Bean
@@ -88,35 +102,28 @@ public abstract class AbstractSamlServerBeanConfiguration<T extends HostedProvid
 
 	public SamlConfigurationRepository samlConfigurationRepository() {
 		return new ThreadLocalSamlConfigurationRepository(
-			new StaticSamlConfigurationRepository(getDefaultHostSamlServerConfiguration())
+			new SnapshotSamlConfigurationRepository(getDefaultHostSamlServerConfiguration())
 		);
 	}
 
 	protected abstract SamlServerConfiguration getDefaultHostSamlServerConfiguration();
 
-	private int getNetworkHandlerConnectTimeout() {
-		if (getDefaultHostSamlServerConfiguration() != null && getDefaultHostSamlServerConfiguration().getNetwork() != null) {
-			NetworkConfiguration networkConfiguration = getDefaultHostSamlServerConfiguration().getNetwork();
-			return networkConfiguration.getConnectTimeout();
-		}
-		return 5000;
-	}
-
-	private int getNetworkHandlerReadTimeout() {
+	private NetworkConfiguration getNetworkConfiguration() {
 		if (getDefaultHostSamlServerConfiguration() != null && getDefaultHostSamlServerConfiguration().getNetwork() != null) {
-			NetworkConfiguration networkConfiguration = getDefaultHostSamlServerConfiguration().getNetwork();
-			return networkConfiguration.getReadTimeout();
+			return getDefaultHostSamlServerConfiguration().getNetwork();
 		}
-		return 10000;
+		return new NetworkConfiguration()
+			.setConnectTimeout(5000)
+			.setReadTimeout(10000);
 	}
 
 	@Bean
 	public RestOperations samlValidatingNetworkHandler() {
-		return new Network(getNetworkHandlerConnectTimeout(), getNetworkHandlerReadTimeout()).get(false);
+		return new Network(getNetworkConfiguration()).get(false);
 	}
 
 	@Bean
 	public RestOperations samlNonValidatingNetworkHandler() {
-		return new Network(getNetworkHandlerConnectTimeout(), getNetworkHandlerReadTimeout()).get(true);
+		return new Network(getNetworkConfiguration()).get(true);
 	}
 }
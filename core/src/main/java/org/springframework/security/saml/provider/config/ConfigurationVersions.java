@@ -0,0 +1,36 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider.config;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issues the versions of configuration objects. Versions are unique and increasing, so that
+ * a configuration changed through its setters never returns to a previous version.
+ */
+public final class ConfigurationVersions {
+
+	private static final AtomicLong VERSIONS = new AtomicLong();
+
+	private ConfigurationVersions() {
+	}
+
+	public static long next() {
+		return VERSIONS.incrementAndGet();
+	}
+}
@@ -34,6 +34,11 @@ public class ExternalProviderConfiguration<T extends ExternalProviderConfigurati
 	private boolean skipSslValidation = false;
 	private boolean metadataTrustCheck = false;
 	private List<String> verificationKeys = new LinkedList<>();
+	private boolean streamingMetadata = false;
+	private List<String> metadataEntityIds = new LinkedList<>();
+	private boolean lazyMetadata = false;
+	private int lazyMetadataCacheSize = 100;
+	private long version = ConfigurationVersions.next();
 
 	public ExternalProviderConfiguration() {
 	}
@@ -44,7 +49,7 @@ public class ExternalProviderConfiguration<T extends ExternalProviderConfigurati
 
 	public T setAlias(String alias) {
 		this.alias = alias;
-		return _this();
+		return changed();
 	}
 
 	@SuppressWarnings("checked")
@@ -52,13 +57,30 @@ public class ExternalProviderConfiguration<T extends ExternalProviderConfigurati
 		return (T) this;
 	}
 
+	/**
+	 * Assigns a new version to this configuration, setters call this after changing it.
+	 *
+	 * @return this object
+	 */
+	protected T changed() {
+		this.version = ConfigurationVersions.next();
+		return _this();
+	}
+
+	/**
+	 * @return the version of this configuration, changed by its setters and shared by its clones
+	 */
+	public long getVersion() {
+		return version;
+	}
+
 	public String getMetadata() {
 		return metadata;
 	}
 
 	public T setMetadata(String metadata) {
 		this.metadata = metadata;
-		return _this();
+		return changed();
 	}
 
 	public String getLinktext() {
@@ -67,7 +89,7 @@ public class ExternalProviderConfiguration<T extends ExternalProviderConfigurati
 
 	public T setLinktext(String linktext) {
 		this.linktext = linktext;
-		return _this();
+		return changed();
 	}
 
 	public boolean isSkipSslValidation() {
@@ -76,7 +98,7 @@ public class ExternalProviderConfiguration<T extends ExternalProviderConfigurati
 
 	public T setSkipSslValidation(boolean skipSslValidation) {
 		this.skipSslValidation = skipSslValidation;
-		return _this();
+		return changed();
 	}
 
 	public boolean isMetadataTrustCheck() {
@@ -85,7 +107,7 @@ public class ExternalProviderConfiguration<T extends ExternalProviderConfigurati
 
 	public T setMetadataTrustCheck(boolean metadataTrustCheck) {
 		this.metadataTrustCheck = metadataTrustCheck;
-		return _this();
+		return changed();
 	}
 
 	public List<String> getVerificationKeys() {
@@ -94,7 +116,7 @@ public class ExternalProviderConfiguration<T extends ExternalProviderConfigurati
 
 	public T setVerificationKeys(List<String> verificationKeys) {
 		this.verificationKeys = verificationKeys;
-		return _this();
+		return changed();
 	}
 
 	public List<SimpleKey> getVerificationKeyData() {
@@ -108,6 +130,67 @@ public class ExternalProviderConfiguration<T extends ExternalProviderConfigurati
 			.collect(Collectors.toList());
 	}
 
+	public boolean isStreamingMetadata() {
+		return streamingMetadata;
+	}
+
+	/**
+	 * Streams the metadata document rather than parsing it into a DOM, and materializes only
+	 * the entities with a role relevant to the hosted provider. Intended for large aggregates.
+	 * When the metadata trust check is enabled, the signature of the document element is verified.
+	 *
+	 * @param streamingMetadata true to stream the metadata document
+	 * @return this object
+	 */
+	public T setStreamingMetadata(boolean streamingMetadata) {
+		this.streamingMetadata = streamingMetadata;
+		return changed();
+	}
+
+	public List<String> getMetadataEntityIds() {
+		return ofNullable(metadataEntityIds).orElse(Collections.emptyList());
+	}
+
+	/**
+	 * @param metadataEntityIds entityIds to materialize from streamed metadata, empty for all entities
+	 * @return this object
+	 */
+	public T setMetadataEntityIds(List<String> metadataEntityIds) {
+		this.metadataEntityIds = metadataEntityIds;
+		return changed();
+	}
+
+	public boolean isLazyMetadata() {
+		return lazyMetadata;
+	}
+
+	/**
+	 * Indexes the entities of the metadata document after its signature has been verified, and resolves
+	 * an entity only when it is first looked up by entityId. Intended for large aggregates where few of the
+	 * entities receive traffic. Only the first entity is listed by
+	 * {@link org.springframework.security.saml.provider.HostedProviderService#getRemoteProviders()}.
+	 *
+	 * @param lazyMetadata true to resolve entities on first lookup
+	 * @return this object
+	 */
+	public T setLazyMetadata(boolean lazyMetadata) {
+		this.lazyMetadata = lazyMetadata;
+		return changed();
+	}
+
+	public int getLazyMetadataCacheSize() {
+		return lazyMetadataCacheSize;
+	}
+
+	/**
+	 * @param lazyMetadataCacheSize the maximum number of lazily resolved entities kept in memory
+	 * @return this object
+	 */
+	public T setLazyMetadataCacheSize(int lazyMetadataCacheSize) {
+		this.lazyMetadataCacheSize = lazyMetadataCacheSize;
+		return changed();
+	}
+
 	@Override
 	public T clone() throws CloneNotSupportedException {
 		return (T) super.clone();
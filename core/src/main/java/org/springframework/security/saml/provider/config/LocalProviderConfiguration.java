@@ -17,10 +17,15 @@
 
 package org.springframework.security.saml.provider.config;
 
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
+import org.springframework.security.saml.SamlException;
+import org.springframework.security.saml.saml2.RetentionPolicy;
+import org.springframework.security.saml.saml2.Saml2Object;
 import org.springframework.security.saml.saml2.metadata.NameId;
 import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
 import org.springframework.security.saml.saml2.signature.DigestMethod;
@@ -43,7 +48,11 @@ public class LocalProviderConfiguration<
 	private DigestMethod defaultDigest = DigestMethod.SHA256;
 	private List<ExternalConfiguration> providers = new LinkedList<>();
 	private String basePath;
-
+	private RetentionPolicy defaultRetentionPolicy = RetentionPolicy.NONE;
+	private Map<Class<? extends Saml2Object>, RetentionPolicy> retentionPolicies = new HashMap<>();
+	private long version = ConfigurationVersions.next();
+	//derived before this configuration is copied, so that clones and overlays share it
+	private volatile DerivedVersion derivedVersion;
 
 	public LocalProviderConfiguration(String prefix) {
 		setPrefix(prefix);
@@ -64,13 +73,48 @@ public class LocalProviderConfiguration<
 		return (LocalConfiguration) this;
 	}
 
+	/**
+	 * Assigns a new version to this configuration, setters call this after changing it.
+	 *
+	 * @return this object
+	 */
+	protected LocalConfiguration changed() {
+		this.version = ConfigurationVersions.next();
+		return _this();
+	}
+
+	/**
+	 * The version changes whenever this configuration, its keys or one of its external providers
+	 * is changed through a setter. The base path is not part of the version.
+	 *
+	 * @return the version of this configuration, shared by its clones
+	 */
+	public long getVersion() {
+		List<ExternalConfiguration> providers = getProviders();
+		long keysVersion = keys == null ? 0 : keys.getVersion();
+		DerivedVersion result = derivedVersion;
+		if (result == null || !result.isDerivedFrom(version, keysVersion, providers)) {
+			//a new version, rather than a hash of the components, so that no two states share a version
+			long[] components = new long[providers.size() + 2];
+			components[0] = version;
+			components[1] = keysVersion;
+			int i = 2;
+			for (ExternalConfiguration provider : providers) {
+				components[i++] = provider.getVersion();
+			}
+			result = new DerivedVersion(components, ConfigurationVersions.next());
+			derivedVersion = result;
+		}
+		return result.version;
+	}
+
 	public String getEntityId() {
 		return entityId;
 	}
 
 	public LocalConfiguration setEntityId(String entityId) {
 		this.entityId = entityId;
-		return _this();
+		return changed();
 	}
 
 	public boolean isSignMetadata() {
@@ -79,7 +123,7 @@ public class LocalProviderConfiguration<
 
 	public LocalConfiguration setSignMetadata(boolean signMetadata) {
 		this.signMetadata = signMetadata;
-		return _this();
+		return changed();
 	}
 
 	public String getMetadata() {
@@ -88,7 +132,7 @@ public class LocalProviderConfiguration<
 
 	public LocalConfiguration setMetadata(String metadata) {
 		this.metadata = metadata;
-		return _this();
+		return changed();
 	}
 
 	public RotatingKeys getKeys() {
@@ -97,7 +141,7 @@ public class LocalProviderConfiguration<
 
 	public LocalConfiguration setKeys(RotatingKeys keys) {
 		this.keys = keys;
-		return _this();
+		return changed();
 	}
 
 	public String getAlias() {
@@ -106,7 +150,7 @@ public class LocalProviderConfiguration<
 
 	public LocalConfiguration setAlias(String alias) {
 		this.alias = alias;
-		return _this();
+		return changed();
 	}
 
 	public String getPrefix() {
@@ -117,7 +161,7 @@ public class LocalProviderConfiguration<
 		prefix = cleanPrefix(prefix);
 		this.prefix = prefix;
 
-		return _this();
+		return changed();
 	}
 
 	public boolean isSingleLogoutEnabled() {
@@ -126,7 +170,7 @@ public class LocalProviderConfiguration<
 
 	public LocalConfiguration setSingleLogoutEnabled(boolean singleLogoutEnabled) {
 		this.singleLogoutEnabled = singleLogoutEnabled;
-		return _this();
+		return changed();
 	}
 
 	public List<NameId> getNameIds() {
@@ -137,7 +181,7 @@ public class LocalProviderConfiguration<
 		this.nameIds = nameIds.stream().map(
 			n -> n instanceof String ? NameId.fromUrn((String)n) : (NameId)n).collect(Collectors.toList()
 		);
-		return _this();
+		return changed();
 	}
 
 	public AlgorithmMethod getDefaultSigningAlgorithm() {
@@ -146,7 +190,7 @@ public class LocalProviderConfiguration<
 
 	public LocalConfiguration setDefaultSigningAlgorithm(AlgorithmMethod defaultSigningAlgorithm) {
 		this.defaultSigningAlgorithm = defaultSigningAlgorithm;
-		return _this();
+		return changed();
 	}
 
 	public DigestMethod getDefaultDigest() {
@@ -155,7 +199,7 @@ public class LocalProviderConfiguration<
 
 	public LocalConfiguration setDefaultDigest(DigestMethod defaultDigest) {
 		this.defaultDigest = defaultDigest;
-		return _this();
+		return changed();
 	}
 
 	public String getBasePath() {
@@ -167,14 +211,69 @@ public class LocalProviderConfiguration<
 		return this;
 	}
 
+	/**
+	 * Creates an overlay of this configuration with another base path. The overlay shares the keys,
+	 * name ids, retention policies and external providers of this configuration, and its version.
+	 *
+	 * @param basePath the base path of the overlay
+	 * @return a shallow copy of this configuration
+	 */
+	@SuppressWarnings("unchecked")
+	public LocalConfiguration withBasePath(String basePath) {
+		try {
+			getVersion();
+			LocalConfiguration result = (LocalConfiguration) super.clone();
+			((LocalProviderConfiguration) result).basePath = basePath;
+			return result;
+		} catch (CloneNotSupportedException e) {
+			throw new SamlException(e);
+		}
+	}
+
+	public RetentionPolicy getDefaultRetentionPolicy() {
+		return defaultRetentionPolicy;
+	}
+
+	/**
+	 * @param defaultRetentionPolicy what received messages keep of their XML and DOM once validated,
+	 *                               unless a policy is configured for their type
+	 * @return this object
+	 */
+	public LocalConfiguration setDefaultRetentionPolicy(RetentionPolicy defaultRetentionPolicy) {
+		this.defaultRetentionPolicy = defaultRetentionPolicy;
+		return changed();
+	}
+
+	public Map<Class<? extends Saml2Object>, RetentionPolicy> getRetentionPolicies() {
+		return retentionPolicies;
+	}
+
+	public LocalConfiguration setRetentionPolicies(Map<Class<? extends Saml2Object>, RetentionPolicy> policies) {
+		this.retentionPolicies = policies;
+		return changed();
+	}
+
+	public LocalConfiguration setRetentionPolicy(Class<? extends Saml2Object> type, RetentionPolicy policy) {
+		this.retentionPolicies.put(type, policy);
+		return changed();
+	}
+
+	public RetentionPolicy getRetentionPolicy(Class<? extends Saml2Object> type) {
+		RetentionPolicy result = retentionPolicies.get(type);
+		return result == null ? getDefaultRetentionPolicy() : result;
+	}
+
 	@Override
 	public LocalConfiguration clone() throws CloneNotSupportedException {
+		getVersion();
 		LocalConfiguration result = (LocalConfiguration) super.clone();
+		result.setRetentionPolicies(new HashMap<>(getRetentionPolicies()));
 		LinkedList<ExternalConfiguration> newProviders = new LinkedList<>();
 		for (ExternalConfiguration externalConfiguration : getProviders()) {
 			newProviders.add(externalConfiguration.clone());
 		}
 		result.setProviders(newProviders);
+		((LocalProviderConfiguration) result).version = version;
 		return result;
 	}
 
@@ -184,6 +283,34 @@ public class LocalProviderConfiguration<
 
 	public LocalConfiguration setProviders(List<ExternalConfiguration> providers) {
 		this.providers = providers;
-		return _this();
+		return changed();
+	}
+
+	/*
+	 * The version assigned to the versions of this configuration, its keys and its providers
+	 */
+	private static final class DerivedVersion {
+		private final long[] components;
+		private final long version;
+
+		DerivedVersion(long[] components, long version) {
+			this.components = components;
+			this.version = version;
+		}
+
+		boolean isDerivedFrom(long version, long keysVersion, List<? extends ExternalProviderConfiguration> providers) {
+			if (components.length != providers.size() + 2 ||
+				components[0] != version ||
+				components[1] != keysVersion) {
+				return false;
+			}
+			int i = 2;
+			for (ExternalProviderConfiguration provider : providers) {
+				if (components[i++] != provider.getVersion()) {
+					return false;
+				}
+			}
+			return true;
+		}
 	}
 }
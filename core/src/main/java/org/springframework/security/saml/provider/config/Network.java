@@ -21,59 +21,84 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import javax.net.ssl.SSLContext;
 
-import org.springframework.http.client.ClientHttpRequestFactory;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.security.saml.SamlKeyException;
-import org.springframework.web.client.RestOperations;
-import org.springframework.web.client.RestTemplate;
 
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLContextBuilder;
 import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
-import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
+/**
+ * Creates the HTTP clients used to retrieve metadata. Each client keeps its connections alive
+ * in a bounded pool, so repeated downloads from the same host reuse the TCP connection and TLS session.
+ */
 class Network {
 
-	private final int connectTimeoutMillis;
-	private final int readTimeoutMillis;
-
-	Network(int connectTimeoutMillis, int readTimeoutMillis) {
-		this.connectTimeoutMillis = connectTimeoutMillis;
-		this.readTimeoutMillis = readTimeoutMillis;
-	}
+	private final NetworkConfiguration configuration;
 
-	public RestOperations get(boolean skipSslValidation) {
-		return new RestTemplate(createRequestFactory(skipSslValidation));
+	Network(NetworkConfiguration configuration) {
+		this.configuration = configuration;
 	}
 
-	private ClientHttpRequestFactory createRequestFactory(boolean skipSslValidation) {
-		return createRequestFactory(getClientBuilder(skipSslValidation));
+	public PooledRestTemplate get(boolean skipSslValidation) {
+		PoolingHttpClientConnectionManager connectionManager = getConnectionManager(skipSslValidation);
+		return new PooledRestTemplate(
+			getClientBuilder(connectionManager).build(),
+			connectionManager,
+			configuration.getIdleConnectionTimeout()
+		);
 	}
 
-	private ClientHttpRequestFactory createRequestFactory(HttpClientBuilder builder) {
-		return new HttpComponentsClientHttpRequestFactory(builder.build());
+	private PoolingHttpClientConnectionManager getConnectionManager(boolean skipSslValidation) {
+		SSLConnectionSocketFactory sslSocketFactory = skipSslValidation ?
+			new SSLConnectionSocketFactory(getNonValidatingSslContext()) :
+			SSLConnectionSocketFactory.getSystemSocketFactory();
+		Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+			.register("http", PlainConnectionSocketFactory.getSocketFactory())
+			.register("https", sslSocketFactory)
+			.build();
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(registry);
+		connectionManager.setDefaultMaxPerRoute(configuration.getMaxConnectionsPerRoute());
+		connectionManager.setMaxTotal(configuration.getMaxConnectionsTotal());
+		return connectionManager;
 	}
 
-	private HttpClientBuilder getClientBuilder(boolean skipSslValidation) {
+	private HttpClientBuilder getClientBuilder(PoolingHttpClientConnectionManager connectionManager) {
 		HttpClientBuilder builder = HttpClients.custom()
 			.useSystemProperties()
-			.setRedirectStrategy(new DefaultRedirectStrategy());
-		if (skipSslValidation) {
-			builder.setSslcontext(getNonValidatingSslContext());
+			.setRedirectStrategy(new DefaultRedirectStrategy())
+			.setConnectionManager(connectionManager)
+			.setKeepAliveStrategy(getKeepAliveStrategy());
+		if (!configuration.isContentCompression()) {
+			builder.disableContentCompression();
 		}
-		builder.setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE);
 		RequestConfig config = RequestConfig.custom()
-			.setConnectTimeout(connectTimeoutMillis)
-			.setConnectionRequestTimeout(connectTimeoutMillis)
-			.setSocketTimeout(readTimeoutMillis)
+			.setConnectTimeout(configuration.getConnectTimeout())
+			.setConnectionRequestTimeout(configuration.getConnectTimeout())
+			.setSocketTimeout(configuration.getReadTimeout())
 			.build();
 		builder.setDefaultRequestConfig(config);
 		return builder;
 	}
 
+	private ConnectionKeepAliveStrategy getKeepAliveStrategy() {
+		final long keepAlive = configuration.getKeepAliveTimeout();
+		return (response, context) -> {
+			long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+		};
+	}
+
 	private SSLContext getNonValidatingSslContext() {
 		try {
 			return new SSLContextBuilder().loadTrustMaterial(null, new TrustSelfSignedStrategy()).build();
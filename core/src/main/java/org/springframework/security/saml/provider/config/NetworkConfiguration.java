@@ -20,6 +20,11 @@ package org.springframework.security.saml.provider.config;
 public class NetworkConfiguration implements Cloneable {
 	private int readTimeout;
 	private int connectTimeout;
+	private int maxConnectionsPerRoute = 20;
+	private int maxConnectionsTotal = 100;
+	private int idleConnectionTimeout = 30000;
+	private int keepAliveTimeout = 30000;
+	private boolean contentCompression = true;
 
 	public int getReadTimeout() {
 		return readTimeout;
@@ -39,6 +44,60 @@ public class NetworkConfiguration implements Cloneable {
 		return this;
 	}
 
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	public NetworkConfiguration setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		return this;
+	}
+
+	public int getMaxConnectionsTotal() {
+		return maxConnectionsTotal;
+	}
+
+	public NetworkConfiguration setMaxConnectionsTotal(int maxConnectionsTotal) {
+		this.maxConnectionsTotal = maxConnectionsTotal;
+		return this;
+	}
+
+	/**
+	 * @return milliseconds a pooled connection may stay unused before it is closed
+	 */
+	public int getIdleConnectionTimeout() {
+		return idleConnectionTimeout;
+	}
+
+	public NetworkConfiguration setIdleConnectionTimeout(int idleConnectionTimeout) {
+		this.idleConnectionTimeout = idleConnectionTimeout;
+		return this;
+	}
+
+	/**
+	 * @return milliseconds a connection is kept alive when the server doesn't send a Keep-Alive timeout
+	 */
+	public int getKeepAliveTimeout() {
+		return keepAliveTimeout;
+	}
+
+	public NetworkConfiguration setKeepAliveTimeout(int keepAliveTimeout) {
+		this.keepAliveTimeout = keepAliveTimeout;
+		return this;
+	}
+
+	/**
+	 * @return true if gzip and deflate compressed responses are requested
+	 */
+	public boolean isContentCompression() {
+		return contentCompression;
+	}
+
+	public NetworkConfiguration setContentCompression(boolean contentCompression) {
+		this.contentCompression = contentCompression;
+		return this;
+	}
+
 	@Override
 	public NetworkConfiguration clone() throws CloneNotSupportedException {
 		return (NetworkConfiguration) super.clone();
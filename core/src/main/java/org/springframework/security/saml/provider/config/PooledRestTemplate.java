@@ -0,0 +1,75 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.springframework.security.saml.provider.config;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.client.RestTemplate;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * A {@link RestTemplate} backed by a pooled HTTP client. Expired and idle connections
+ * are closed by a background thread. The pool is shut down when the bean is destroyed.
+ */
+public class PooledRestTemplate extends RestTemplate implements DisposableBean {
+
+	private final CloseableHttpClient client;
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final ScheduledThreadPoolExecutor evictor;
+
+	PooledRestTemplate(CloseableHttpClient client,
+					   PoolingHttpClientConnectionManager connectionManager,
+					   long idleConnectionTimeoutMillis) {
+		super(new HttpComponentsClientHttpRequestFactory(client));
+		this.client = client;
+		this.connectionManager = connectionManager;
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("saml-network-evictor-");
+		threadFactory.setDaemon(true);
+		this.evictor = new ScheduledThreadPoolExecutor(1, threadFactory);
+		long interval = Math.max(1000, idleConnectionTimeoutMillis / 2);
+		evictor.scheduleWithFixedDelay(
+			() -> {
+				connectionManager.closeExpiredConnections();
+				connectionManager.closeIdleConnections(idleConnectionTimeoutMillis, TimeUnit.MILLISECONDS);
+			},
+			interval,
+			interval,
+			TimeUnit.MILLISECONDS
+		);
+	}
+
+	/**
+	 * @return leased, pending and available connection counts of the pool
+	 */
+	public PoolStats getPoolStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	@Override
+	public void destroy() throws IOException {
+		evictor.shutdownNow();
+		client.close();
+	}
+}
@@ -27,6 +27,7 @@ import static org.springframework.util.StringUtils.hasText;
 public class RotatingKeys {
 	private SimpleKey active = null;
 	private List<SimpleKey> standBy = new LinkedList<>();
+	private long version = ConfigurationVersions.next();
 
 	public List<SimpleKey> toList() {
 		LinkedList<SimpleKey> result = new LinkedList<>();
@@ -44,7 +45,7 @@ public class RotatingKeys {
 		if (!hasText(active.getName())) {
 			active.setName("active-signing-key");
 		}
-		return this;
+		return changed();
 	}
 
 	public List<SimpleKey> getStandBy() {
@@ -53,6 +54,18 @@ public class RotatingKeys {
 
 	public RotatingKeys setStandBy(List<SimpleKey> standBy) {
 		this.standBy = standBy;
+		return changed();
+	}
+
+	/**
+	 * @return the version of the keys, changed by the setters
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	private RotatingKeys changed() {
+		this.version = ConfigurationVersions.next();
 		return this;
 	}
 }
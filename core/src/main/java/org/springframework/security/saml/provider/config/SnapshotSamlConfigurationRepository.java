@@ -0,0 +1,145 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider.config;
+
+import java.time.Clock;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.springframework.security.saml.SamlException;
+import org.springframework.security.saml.provider.SamlServerConfiguration;
+import org.springframework.security.saml.util.ExpiringMap;
+
+/**
+ * Holds the server configuration as a snapshot that is shared by all requests and never changed in place.
+ * Updates are applied to a copy of the current snapshot, which then replaces it atomically.
+ * Hosts get overlays of the snapshot that only replace the base path, see
+ * {@link SamlServerConfiguration#withBasePath(String)}, and that are reused for as long as
+ * the snapshot and its version are current.
+ */
+public class SnapshotSamlConfigurationRepository implements SamlConfigurationRepository {
+
+	private final AtomicReference<SamlServerConfiguration> snapshot;
+	private final ExpiringMap<String, Overlay> overlays =
+		new ExpiringMap<String, Overlay>(Clock.systemUTC())
+			.setExpirationTimeMillis(1000 * 60 * 60)
+			.setMaximumSize(1000);
+
+	public SnapshotSamlConfigurationRepository(SamlServerConfiguration configuration) {
+		this.snapshot = new AtomicReference<>(configuration);
+	}
+
+	/**
+	 * @return the current snapshot, which must not be changed
+	 */
+	@Override
+	public SamlServerConfiguration getServerConfiguration() {
+		return snapshot.get();
+	}
+
+	/**
+	 * @param basePath the base path of the host
+	 * @return the overlay of the current snapshot for the host, which must not be changed
+	 */
+	public SamlServerConfiguration getServerConfiguration(String basePath) {
+		SamlServerConfiguration current = snapshot.get();
+		Overlay overlay = overlays.get(basePath);
+		if (overlay == null || !overlay.isOverlayOf(current)) {
+			overlay = new Overlay(current, current.withBasePath(basePath));
+			overlays.put(basePath, overlay);
+		}
+		return overlay.configuration;
+	}
+
+	/**
+	 * Applies a change to a copy of the current snapshot, and replaces the snapshot with the copy.
+	 * The change is applied again if another update replaced the snapshot in the meantime.
+	 *
+	 * @param change the change to apply
+	 * @return the new snapshot
+	 */
+	public SamlServerConfiguration update(Consumer<SamlServerConfiguration> change) {
+		while (true) {
+			SamlServerConfiguration current = snapshot.get();
+			SamlServerConfiguration next;
+			try {
+				next = current.clone();
+			} catch (CloneNotSupportedException e) {
+				throw new SamlException(e);
+			}
+			change.accept(next);
+			next.changed();
+			if (snapshot.compareAndSet(current, next)) {
+				overlays.clear();
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Replaces the snapshot.
+	 *
+	 * @param configuration the new snapshot, which must not be changed afterwards
+	 */
+	public void setServerConfiguration(SamlServerConfiguration configuration) {
+		snapshot.set(configuration);
+		overlays.clear();
+	}
+
+	private static class Overlay {
+		private final SamlServerConfiguration source;
+		private final long serverVersion;
+		private final long serviceProviderVersion;
+		private final long identityProviderVersion;
+		private final String serviceProviderBasePath;
+		private final String identityProviderBasePath;
+		private final SamlServerConfiguration configuration;
+
+		Overlay(SamlServerConfiguration source, SamlServerConfiguration configuration) {
+			this.source = source;
+			this.serverVersion = source.getVersion();
+			this.serviceProviderVersion = getVersion(source.getServiceProvider());
+			this.identityProviderVersion = getVersion(source.getIdentityProvider());
+			this.serviceProviderBasePath = getBasePath(source.getServiceProvider());
+			this.identityProviderBasePath = getBasePath(source.getIdentityProvider());
+			this.configuration = configuration;
+		}
+
+		/*
+		 * the versions and base paths detect changes made in place to a snapshot
+		 * that was not updated through the repository
+		 */
+		boolean isOverlayOf(SamlServerConfiguration snapshot) {
+			return source == snapshot &&
+				serverVersion == snapshot.getVersion() &&
+				serviceProviderVersion == getVersion(snapshot.getServiceProvider()) &&
+				identityProviderVersion == getVersion(snapshot.getIdentityProvider()) &&
+				Objects.equals(serviceProviderBasePath, getBasePath(snapshot.getServiceProvider())) &&
+				Objects.equals(identityProviderBasePath, getBasePath(snapshot.getIdentityProvider()));
+		}
+
+		private static long getVersion(LocalProviderConfiguration configuration) {
+			return configuration == null ? 0 : configuration.getVersion();
+		}
+
+		private static String getBasePath(LocalProviderConfiguration configuration) {
+			return configuration == null ? null : configuration.getBasePath();
+		}
+	}
+}
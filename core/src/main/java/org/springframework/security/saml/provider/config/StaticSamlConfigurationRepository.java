@@ -31,4 +31,11 @@ public class StaticSamlConfigurationRepository implements SamlConfigurationRepos
 	public SamlServerConfiguration getServerConfiguration() {
 		return configuration;
 	}
+
+	/**
+	 * Reports a change of the configuration, so that the hosted providers built from it are created again.
+	 */
+	public void configurationChanged() {
+		configuration.changed();
+	}
 }
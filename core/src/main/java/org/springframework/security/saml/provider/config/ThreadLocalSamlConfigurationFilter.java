@@ -46,7 +46,7 @@ public class ThreadLocalSamlConfigurationFilter extends OncePerRequestFilter {
 	}
 
 	protected SamlServerConfiguration getConfiguration(HttpServletRequest request) {
-		return repository.getServerConfiguration();
+		return repository.getServerConfiguration(getBasePath(request));
 	}
 
 	protected String getBasePath(HttpServletRequest request) {
@@ -5,6 +5,9 @@ import java.time.Clock;
 import org.springframework.security.saml.SamlException;
 import org.springframework.security.saml.provider.SamlServerConfiguration;
 
+import static java.util.Arrays.asList;
+import static org.springframework.util.StringUtils.hasText;
+
 public class ThreadLocalSamlConfigurationRepository implements SamlConfigurationRepository {
 
 	private static InheritableThreadLocal<ExpiringEntry> threadLocal = new InheritableThreadLocal<>();
@@ -33,15 +36,46 @@ public class ThreadLocalSamlConfigurationRepository implements SamlConfiguration
 			}
 		}
 		if (result == null) {
-			try {
-				result = initialValueProvider.getServerConfiguration().clone();
-			} catch (CloneNotSupportedException e) {
-				throw new SamlException(e);
+			if (initialValueProvider instanceof SnapshotSamlConfigurationRepository) {
+				//snapshots are never changed in place, they are shared rather than cloned
+				result = initialValueProvider.getServerConfiguration();
+			}
+			else {
+				result = cloneInitialValue();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the configuration for a host, with the base path of the host set on the
+	 * provider configurations that don't have one.
+	 * Snapshot repositories provide shared overlays, other configurations are cloned.
+	 *
+	 * @param basePath the base path of the host
+	 * @return the configuration of the host
+	 */
+	public SamlServerConfiguration getServerConfiguration(String basePath) {
+		if (initialValueProvider instanceof SnapshotSamlConfigurationRepository) {
+			return ((SnapshotSamlConfigurationRepository) initialValueProvider).getServerConfiguration(basePath);
+		}
+		SamlServerConfiguration result = cloneInitialValue();
+		for (LocalProviderConfiguration config : asList(result.getIdentityProvider(), result.getServiceProvider())) {
+			if (config != null && !hasText(config.getBasePath())) {
+				config.setBasePath(basePath);
 			}
 		}
 		return result;
 	}
 
+	private SamlServerConfiguration cloneInitialValue() {
+		try {
+			return initialValueProvider.getServerConfiguration().clone();
+		} catch (CloneNotSupportedException e) {
+			throw new SamlException(e);
+		}
+	}
+
 	protected void setServerConfiguration(SamlServerConfiguration configuration) {
 		if (configuration == null) {
 			reset();
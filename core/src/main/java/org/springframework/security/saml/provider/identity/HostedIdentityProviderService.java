@@ -28,6 +28,7 @@ import org.springframework.security.saml.SamlTransformer;
 import org.springframework.security.saml.SamlValidator;
 import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.provider.AbstractHostedProviderService;
+import org.springframework.security.saml.provider.config.ExternalProviderConfiguration;
 import org.springframework.security.saml.provider.identity.config.LocalIdentityProviderConfiguration;
 import org.springframework.security.saml.saml2.Saml2Object;
 import org.springframework.security.saml.saml2.authentication.Assertion;
@@ -49,6 +50,7 @@ import org.springframework.security.saml.saml2.authentication.SubjectConfirmatio
 import org.springframework.security.saml.saml2.metadata.Endpoint;
 import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata;
 import org.springframework.security.saml.saml2.metadata.Metadata;
+import org.springframework.security.saml.saml2.metadata.MetadataFilter;
 import org.springframework.security.saml.saml2.metadata.NameId;
 import org.springframework.security.saml.saml2.metadata.ServiceProvider;
 import org.springframework.security.saml.saml2.metadata.ServiceProviderMetadata;
@@ -76,7 +78,25 @@ public class HostedIdentityProviderService extends AbstractHostedProviderService
 
 	@Override
 	protected ServiceProviderMetadata transformMetadata(String data) {
-		Metadata metadata = (Metadata)getTransformer().fromXml(data, null, null);
+		return toServiceProvider((Metadata)getTransformer().fromXml(data, null, null));
+	}
+
+	@Override
+	protected MetadataFilter getMetadataFilter(ExternalProviderConfiguration c) {
+		return super.getMetadataFilter(c).setIdentityProviders(false);
+	}
+
+	@Override
+	protected ServiceProviderMetadata transformMetadata(byte[] data, List<SimpleKey> keys, MetadataFilter filter) {
+		return toServiceProvider(
+			getTransformer().fromMetadataXml(data, keys, filter)
+		);
+	}
+
+	private ServiceProviderMetadata toServiceProvider(Metadata metadata) {
+		if (metadata == null) {
+			return null;
+		}
 		ServiceProviderMetadata result;
 		if (metadata instanceof ServiceProviderMetadata) {
 			result =  (ServiceProviderMetadata)metadata;
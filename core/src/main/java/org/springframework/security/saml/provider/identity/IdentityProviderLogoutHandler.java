@@ -30,6 +30,7 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.saml.SamlException;
 import org.springframework.security.saml.SamlMessageStore;
 import org.springframework.security.saml.provider.SamlLogoutSuccessHandler;
+import org.springframework.security.saml.provider.SamlMessageContext;
 import org.springframework.security.saml.provider.provisioning.SamlProviderProvisioning;
 import org.springframework.security.saml.saml2.Saml2Object;
 import org.springframework.security.saml.saml2.authentication.Assertion;
@@ -48,7 +49,6 @@ import org.apache.commons.logging.LogFactory;
 
 import static java.lang.Boolean.TRUE;
 import static java.lang.String.format;
-import static java.util.stream.Collectors.toList;
 import static org.springframework.security.saml.provider.SamlLogoutSuccessHandler.RUN_SUCCESS;
 import static org.springframework.util.StringUtils.hasText;
 
@@ -66,14 +66,17 @@ public class IdentityProviderLogoutHandler implements LogoutHandler {
 		this.assertionStore = assertionStore;
 	}
 
+	/*
+	 * The assertions were issued by this identity provider, the sender is their audience
+	 */
 	private void removeAssertionFromStore(HttpServletRequest request, LogoutRequest logoutRequest) {
-		List<Assertion> messages = getAssertionStore().getMessages(request);
 		String issuer = logoutRequest.getIssuer().getValue();
-		List<Assertion> assertion = messages.stream().filter(
-			a -> issuer.equals(a.getIssuer().getValue())
-		)
-			.collect(toList());
-		assertion.stream().forEach(a -> getAssertionStore().removeMessage(request, a.getId()));
+		getAssertionStore().removeMessages(
+			request,
+			a -> a.getSubject() != null && a.getSubject().getPrincipal() != null &&
+				issuer.equals(a.getSubject().getPrincipal().getSpNameQualifier()),
+			Assertion::getId
+		);
 	}
 
 	private boolean idpHasOtherSessions(HttpServletRequest request, LogoutRequest lr) {
@@ -138,13 +141,15 @@ public class IdentityProviderLogoutHandler implements LogoutHandler {
 										 Authentication authentication,
 										 String logoutRequestValue) throws IOException {
 		IdentityProviderService provider = provisioning.getHostedProvider();
+		SamlMessageContext<ServiceProviderMetadata> context = provider.messageContext();
 		LogoutRequest logoutRequest = provider.fromXml(
 			logoutRequestValue,
 			true,
 			HttpMethod.GET.name().equalsIgnoreCase(request.getMethod()),
-			LogoutRequest.class
+			LogoutRequest.class,
+			context
 		);
-		ValidationResult validate = provider.validate(logoutRequest);
+		ValidationResult validate = provider.validate(logoutRequest, context);
 		if (validate.hasErrors()) {
 			throw new SamlException(validate.toString());
 		}
@@ -165,7 +170,7 @@ public class IdentityProviderLogoutHandler implements LogoutHandler {
 		}
 		else {
 			logger.debug("No SP sessions found, returning logout response");
-			ServiceProviderMetadata sp = provider.getRemoteProvider(logoutRequest);
+			ServiceProviderMetadata sp = context.getRemoteProvider(logoutRequest);
 			LogoutResponse lr = provider.logoutResponse(logoutRequest, sp);
 			String url = getRedirectUrl(request, provider, lr, lr.getDestination(), "SAMLResponse");
 			request.setAttribute(RUN_SUCCESS, SamlLogoutSuccessHandler.LogoutStatus.REDIRECT);
@@ -178,13 +183,15 @@ public class IdentityProviderLogoutHandler implements LogoutHandler {
 										  Authentication authentication,
 										  String logoutResponseValue) throws IOException {
 		IdentityProviderService provider = getProvisioning().getHostedProvider();
+		SamlMessageContext<ServiceProviderMetadata> context = provider.messageContext();
 		LogoutResponse logoutResponse = provider.fromXml(
 			logoutResponseValue,
 			true,
 			HttpMethod.GET.name().equalsIgnoreCase(request.getMethod()),
-			LogoutResponse.class
+			LogoutResponse.class,
+			context
 		);
-		ValidationResult validate = provider.validate(logoutResponse);
+		ValidationResult validate = provider.validate(logoutResponse, context);
 		//TODO what do we do with the validation result, we don't really care
 
 		if (getAssertionStore().hasMessages(request)) {
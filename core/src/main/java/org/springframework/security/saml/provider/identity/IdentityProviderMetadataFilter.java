@@ -17,6 +17,8 @@
 
 package org.springframework.security.saml.provider.identity;
 
+import java.util.List;
+
 import org.springframework.security.saml.provider.SamlMetadataFilter;
 import org.springframework.security.saml.provider.provisioning.SamlProviderProvisioning;
 import org.springframework.security.web.util.matcher.RequestMatcher;
@@ -36,4 +38,11 @@ public class IdentityProviderMetadataFilter extends SamlMetadataFilter<IdentityP
 										  String filename) {
 		super(provisioning, requestMatcher, filename);
 	}
+
+	@Override
+	protected List<Object> getMetadataVersionValues(IdentityProviderService provider) {
+		List<Object> result = super.getMetadataVersionValues(provider);
+		result.add(provider.getConfiguration().isWantRequestsSigned());
+		return result;
+	}
 }
@@ -22,6 +22,7 @@ import javax.servlet.http.HttpServletRequest;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.saml.SamlMessageStore;
 import org.springframework.security.saml.SamlRequestMatcher;
+import org.springframework.security.saml.provider.SamlMessageContext;
 import org.springframework.security.saml.provider.provisioning.SamlProviderProvisioning;
 import org.springframework.security.saml.saml2.authentication.Assertion;
 import org.springframework.security.saml.saml2.authentication.AuthenticationRequest;
@@ -29,6 +30,11 @@ import org.springframework.security.saml.saml2.metadata.ServiceProviderMetadata;
 
 public class IdpAuthenticationRequestFilter extends IdpInitiatedLoginFilter {
 
+	private static final String AUTHENTICATION_REQUEST_ATTRIBUTE =
+		IdpAuthenticationRequestFilter.class.getName() + ".AUTHENTICATION_REQUEST";
+	private static final String MESSAGE_CONTEXT_ATTRIBUTE =
+		IdpAuthenticationRequestFilter.class.getName() + ".MESSAGE_CONTEXT";
+
 	public IdpAuthenticationRequestFilter(SamlProviderProvisioning<IdentityProviderService> provisioning,
 										  SamlMessageStore<Assertion, HttpServletRequest> assertionStore) {
 		this(
@@ -48,20 +54,41 @@ public class IdpAuthenticationRequestFilter extends IdpInitiatedLoginFilter {
 	protected ServiceProviderMetadata getTargetProvider(HttpServletRequest request) {
 		IdentityProviderService provider = getProvisioning().getHostedProvider();
 		AuthenticationRequest authn = getAuthenticationRequest(request);
-		provider.validate(authn);
-		return provider.getRemoteProvider(authn);
+		SamlMessageContext<ServiceProviderMetadata> context = getMessageContext(request, provider);
+		provider.validate(authn, context);
+		return context.getRemoteProvider(authn);
 	}
 
+	/**
+	 * The request is parsed once, and kept with its message context for the rest of the request.
+	 */
 	@Override
 	protected AuthenticationRequest getAuthenticationRequest(HttpServletRequest request) {
-		IdentityProviderService provider = getProvisioning().getHostedProvider();
-		String param = request.getParameter("SAMLRequest");
-		return
-			provider.fromXml(
+		AuthenticationRequest result = (AuthenticationRequest) request.getAttribute(AUTHENTICATION_REQUEST_ATTRIBUTE);
+		if (result == null) {
+			IdentityProviderService provider = getProvisioning().getHostedProvider();
+			String param = request.getParameter("SAMLRequest");
+			result = provider.fromXml(
 				param,
 				true,
 				HttpMethod.GET.name().equalsIgnoreCase(request.getMethod()),
-				AuthenticationRequest.class
+				AuthenticationRequest.class,
+				getMessageContext(request, provider)
 			);
+			request.setAttribute(AUTHENTICATION_REQUEST_ATTRIBUTE, result);
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private SamlMessageContext<ServiceProviderMetadata> getMessageContext(HttpServletRequest request,
+																		  IdentityProviderService provider) {
+		SamlMessageContext<ServiceProviderMetadata> context =
+			(SamlMessageContext<ServiceProviderMetadata>) request.getAttribute(MESSAGE_CONTEXT_ATTRIBUTE);
+		if (context == null || context.getProvider() != provider) {
+			context = provider.messageContext();
+			request.setAttribute(MESSAGE_CONTEXT_ATTRIBUTE, context);
+		}
+		return context;
 	}
 }
@@ -55,7 +55,7 @@ public class IdpInitiatedLoginFilter extends SamlFilter<IdentityProviderService>
 
 	private final SamlRequestMatcher requestMatcher;
 	private final SamlMessageStore<Assertion, HttpServletRequest> assertionStore;
-	private String postBindingTemplate = "/templates/saml2-post-binding.vm";
+	private String postBindingTemplate;
 
 	public IdpInitiatedLoginFilter(SamlProviderProvisioning<IdentityProviderService> provisioning,
 								   SamlMessageStore<Assertion, HttpServletRequest> assertionStore) {
@@ -113,6 +113,9 @@ public class IdpInitiatedLoginFilter extends SamlFilter<IdentityProviderService>
 				String redirect = url.build(true).toUriString();
 				response.sendRedirect(redirect);
 			}
+			else if (acsUrl.getBinding() == Binding.POST && !hasText(getPostBindingTemplate())) {
+				processPostBinding(request, response, provider, acsUrl.getLocation(), "SAMLResponse", r, relayState);
+			}
 			else if (acsUrl.getBinding() == Binding.POST) {
 				String encoded = provider.toEncodedXml(r, false);
 				Map<String, Object> model = new HashMap<>();
@@ -147,6 +150,10 @@ public class IdpInitiatedLoginFilter extends SamlFilter<IdentityProviderService>
 		return provider.assertion(recipient, authentication.getName(), NameId.PERSISTENT);
 	}
 
+	/**
+	 * @return the template rendering the HTTP-POST form, or null if the form is written
+	 * by the {@link org.springframework.security.saml.provider.PostBindingWriter}
+	 */
 	public String getPostBindingTemplate() {
 		return postBindingTemplate;
 	}
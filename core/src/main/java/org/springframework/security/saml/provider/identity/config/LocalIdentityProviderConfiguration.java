@@ -43,7 +43,7 @@ public class LocalIdentityProviderConfiguration extends
 
 	public LocalIdentityProviderConfiguration setWantRequestsSigned(boolean wantRequestsSigned) {
 		this.wantRequestsSigned = wantRequestsSigned;
-		return this;
+		return changed();
 	}
 
 	public boolean isSignAssertions() {
@@ -52,7 +52,7 @@ public class LocalIdentityProviderConfiguration extends
 
 	public LocalIdentityProviderConfiguration setSignAssertions(boolean signAssertions) {
 		this.signAssertions = signAssertions;
-		return this;
+		return changed();
 	}
 
 	public long getNotOnOrAfter() {
@@ -61,7 +61,7 @@ public class LocalIdentityProviderConfiguration extends
 
 	public LocalIdentityProviderConfiguration setNotOnOrAfter(long notOnOrAfter) {
 		this.notOnOrAfter = notOnOrAfter;
-		return this;
+		return changed();
 	}
 
 	public long getNotBefore() {
@@ -70,7 +70,7 @@ public class LocalIdentityProviderConfiguration extends
 
 	public LocalIdentityProviderConfiguration setNotBefore(long notBefore) {
 		this.notBefore = notBefore;
-		return this;
+		return changed();
 	}
 
 	public long getSessionNotOnOrAfter() {
@@ -79,7 +79,7 @@ public class LocalIdentityProviderConfiguration extends
 
 	public LocalIdentityProviderConfiguration setSessionNotOnOrAfter(long sessionNotOnOrAfter) {
 		this.sessionNotOnOrAfter = sessionNotOnOrAfter;
-		return this;
+		return changed();
 	}
 
 	public boolean isEncryptAssertions() {
@@ -88,7 +88,7 @@ public class LocalIdentityProviderConfiguration extends
 
 	public LocalIdentityProviderConfiguration setEncryptAssertions(boolean encryptAssertions) {
 		this.encryptAssertions = encryptAssertions;
-		return this;
+		return changed();
 	}
 
 	public KeyEncryptionMethod getKeyEncryptionAlgorithm() {
@@ -97,7 +97,7 @@ public class LocalIdentityProviderConfiguration extends
 
 	public LocalIdentityProviderConfiguration setKeyEncryptionAlgorithm(KeyEncryptionMethod keyEncryptionAlgorithm) {
 		this.keyEncryptionAlgorithm = keyEncryptionAlgorithm;
-		return this;
+		return changed();
 	}
 
 	public DataEncryptionMethod getDataEncryptionAlgorithm() {
@@ -106,6 +106,6 @@ public class LocalIdentityProviderConfiguration extends
 
 	public LocalIdentityProviderConfiguration setDataEncryptionAlgorithm(DataEncryptionMethod dataEncryptionAlgorithm) {
 		this.dataEncryptionAlgorithm = dataEncryptionAlgorithm;
-		return this;
+		return changed();
 	}
 }
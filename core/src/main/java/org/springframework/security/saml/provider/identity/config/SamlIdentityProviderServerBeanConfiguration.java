@@ -53,11 +53,13 @@ public abstract class SamlIdentityProviderServerBeanConfiguration
 	}
 
 	public Filter idpInitatedLoginFilter() {
-		return new IdpInitiatedLoginFilter(getSamlProvisioning(), samlAssertionStore());
+		return new IdpInitiatedLoginFilter(getSamlProvisioning(), samlAssertionStore())
+			.setSamlTemplateEngine(samlTemplateEngine());
 	}
 
 	public Filter idpAuthnRequestFilter() {
-		return new IdpAuthenticationRequestFilter(getSamlProvisioning(), samlAssertionStore());
+		return new IdpAuthenticationRequestFilter(getSamlProvisioning(), samlAssertionStore())
+			.setSamlTemplateEngine(samlTemplateEngine());
 	}
 
 	public Filter idpLogoutFilter() {
@@ -70,7 +72,8 @@ public abstract class SamlIdentityProviderServerBeanConfiguration
 	}
 
 	public Filter idpSelectServiceProviderFilter() {
-		return new SelectServiceProviderFilter(getSamlProvisioning());
+		return new SelectServiceProviderFilter(getSamlProvisioning())
+			.setSamlTemplateEngine(samlTemplateEngine());
 	}
 
 	@Override
@@ -19,10 +19,12 @@ package org.springframework.security.saml.provider.provisioning;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
+import java.time.Clock;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Function;
 
 import org.springframework.security.saml.SamlException;
 import org.springframework.security.saml.SamlMetadataCache;
@@ -30,6 +32,8 @@ import org.springframework.security.saml.SamlTransformer;
 import org.springframework.security.saml.SamlValidator;
 import org.springframework.security.saml.key.KeyType;
 import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.provider.HostedProviderService;
+import org.springframework.security.saml.provider.SamlServerConfiguration;
 import org.springframework.security.saml.provider.config.LocalProviderConfiguration;
 import org.springframework.security.saml.provider.config.SamlConfigurationRepository;
 import org.springframework.security.saml.provider.identity.HostedIdentityProviderService;
@@ -45,6 +49,7 @@ import org.springframework.security.saml.saml2.metadata.NameId;
 import org.springframework.security.saml.saml2.metadata.ServiceProviderMetadata;
 import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
 import org.springframework.security.saml.saml2.signature.DigestMethod;
+import org.springframework.security.saml.util.ExpiringMap;
 import org.springframework.web.util.UriComponentsBuilder;
 import org.springframework.web.util.UriUtils;
 
@@ -58,6 +63,10 @@ public abstract class AbstractHostbasedSamlProviderProvisioning {
 	private final SamlTransformer transformer;
 	private final SamlValidator validator;
 	private final SamlMetadataCache cache;
+	private final ExpiringMap<List<Object>, HostedProviderService> hostedProviders =
+		new ExpiringMap<List<Object>, HostedProviderService>(Clock.systemUTC())
+			.setExpirationTimeMillis(1000 * 60 * 60)
+			.setMaximumSize(1000);
 
 	public AbstractHostbasedSamlProviderProvisioning(SamlConfigurationRepository configuration,
 													 SamlTransformer transformer,
@@ -73,6 +82,39 @@ public abstract class AbstractHostbasedSamlProviderProvisioning {
 		return configuration;
 	}
 
+	/**
+	 * Returns the hosted provider built from a configuration, building it only once for each
+	 * version of the server and provider configurations, and base path.
+	 *
+	 * @param server  the server configuration holding the provider configuration
+	 * @param config  the provider configuration
+	 * @param factory builds the hosted provider
+	 * @param <C>     the type of the provider configuration
+	 * @param <P>     the type of the hosted provider
+	 * @return the hosted provider
+	 */
+	@SuppressWarnings("unchecked")
+	protected <C extends LocalProviderConfiguration, P extends HostedProviderService> P getHostedProvider(
+		SamlServerConfiguration server,
+		C config,
+		Function<C, P> factory
+	) {
+		List<Object> key = asList(config.getClass(), server.getVersion(), config.getVersion(), config.getBasePath());
+		P result = (P) hostedProviders.get(key);
+		if (result == null) {
+			result = factory.apply(config);
+			hostedProviders.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Removes all hosted providers, so that they are built again from the current configuration.
+	 */
+	public void clearHostedProviders() {
+		hostedProviders.clear();
+	}
+
 	protected IdentityProviderService getHostedIdentityProvider(LocalIdentityProviderConfiguration idpConfig) {
 		String basePath = idpConfig.getBasePath();
 		List<SimpleKey> keys = new LinkedList<>();
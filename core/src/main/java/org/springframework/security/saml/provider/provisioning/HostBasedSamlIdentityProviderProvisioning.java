@@ -20,6 +20,7 @@ package org.springframework.security.saml.provider.provisioning;
 import org.springframework.security.saml.SamlMetadataCache;
 import org.springframework.security.saml.SamlTransformer;
 import org.springframework.security.saml.SamlValidator;
+import org.springframework.security.saml.provider.SamlServerConfiguration;
 import org.springframework.security.saml.provider.config.SamlConfigurationRepository;
 import org.springframework.security.saml.provider.identity.IdentityProviderService;
 import org.springframework.security.saml.provider.identity.config.LocalIdentityProviderConfiguration;
@@ -39,9 +40,9 @@ public class HostBasedSamlIdentityProviderProvisioning
 
 	@Override
 	public IdentityProviderService getHostedProvider() {
-		LocalIdentityProviderConfiguration config =
-			getConfigurationRepository().getServerConfiguration().getIdentityProvider();
-		return getHostedIdentityProvider(config);
+		SamlServerConfiguration server = getConfigurationRepository().getServerConfiguration();
+		LocalIdentityProviderConfiguration config = server.getIdentityProvider();
+		return getHostedProvider(server, config, this::getHostedIdentityProvider);
 	}
 
 
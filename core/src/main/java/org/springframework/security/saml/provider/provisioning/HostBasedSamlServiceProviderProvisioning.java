@@ -20,6 +20,7 @@ package org.springframework.security.saml.provider.provisioning;
 import org.springframework.security.saml.SamlMetadataCache;
 import org.springframework.security.saml.SamlTransformer;
 import org.springframework.security.saml.SamlValidator;
+import org.springframework.security.saml.provider.SamlServerConfiguration;
 import org.springframework.security.saml.provider.config.SamlConfigurationRepository;
 import org.springframework.security.saml.provider.service.ServiceProviderService;
 import org.springframework.security.saml.provider.service.config.LocalServiceProviderConfiguration;
@@ -38,8 +39,8 @@ public class HostBasedSamlServiceProviderProvisioning
 
 	@Override
 	public ServiceProviderService getHostedProvider() {
-		LocalServiceProviderConfiguration config =
-			getConfigurationRepository().getServerConfiguration().getServiceProvider();
-		return getHostedServiceProvider(config);
+		SamlServerConfiguration server = getConfigurationRepository().getServerConfiguration();
+		LocalServiceProviderConfiguration config = server.getServiceProvider();
+		return getHostedProvider(server, config, this::getHostedServiceProvider);
 	}
 }
@@ -17,6 +17,7 @@
 
 package org.springframework.security.saml.provider.service;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -24,6 +25,7 @@ import java.util.stream.Collectors;
 import org.springframework.security.saml.SamlMetadataCache;
 import org.springframework.security.saml.SamlTransformer;
 import org.springframework.security.saml.SamlValidator;
+import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.provider.AbstractHostedProviderService;
 import org.springframework.security.saml.provider.config.ExternalProviderConfiguration;
 import org.springframework.security.saml.provider.service.config.ExternalIdentityProviderConfiguration;
@@ -41,6 +43,7 @@ import org.springframework.security.saml.saml2.metadata.Endpoint;
 import org.springframework.security.saml.saml2.metadata.IdentityProvider;
 import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata;
 import org.springframework.security.saml.saml2.metadata.Metadata;
+import org.springframework.security.saml.saml2.metadata.MetadataFilter;
 import org.springframework.security.saml.saml2.metadata.ServiceProviderMetadata;
 import org.springframework.security.saml.saml2.metadata.SsoProvider;
 
@@ -61,8 +64,17 @@ public class HostedServiceProviderService extends AbstractHostedProviderService<
 	}
 
 	@Override
-	public IdentityProviderMetadata getRemoteProvider(ExternalProviderConfiguration c) {
-		IdentityProviderMetadata metadata = super.getRemoteProvider(c);
+	protected List<Object> getRemoteProviderCacheKey(ExternalProviderConfiguration c) {
+		List<Object> result = new ArrayList<>(super.getRemoteProviderCacheKey(c));
+		if (c instanceof ExternalIdentityProviderConfiguration) {
+			result.add(((ExternalIdentityProviderConfiguration) c).getNameId());
+		}
+		return result;
+	}
+
+	@Override
+	protected IdentityProviderMetadata resolveRemoteProvider(ExternalProviderConfiguration c, byte[] data) {
+		IdentityProviderMetadata metadata = super.resolveRemoteProvider(c, data);
 		if (metadata != null && c instanceof ExternalIdentityProviderConfiguration) {
 			ExternalIdentityProviderConfiguration ec = (ExternalIdentityProviderConfiguration)c;
 			if (ec.getNameId() != null) {
@@ -74,7 +86,25 @@ public class HostedServiceProviderService extends AbstractHostedProviderService<
 
 	@Override
 	protected IdentityProviderMetadata transformMetadata(String data) {
-		Metadata metadata = (Metadata)getTransformer().fromXml(data, null, null);
+		return toIdentityProvider((Metadata)getTransformer().fromXml(data, null, null));
+	}
+
+	@Override
+	protected MetadataFilter getMetadataFilter(ExternalProviderConfiguration c) {
+		return super.getMetadataFilter(c).setServiceProviders(false);
+	}
+
+	@Override
+	protected IdentityProviderMetadata transformMetadata(byte[] data, List<SimpleKey> keys, MetadataFilter filter) {
+		return toIdentityProvider(
+			getTransformer().fromMetadataXml(data, keys, filter)
+		);
+	}
+
+	private IdentityProviderMetadata toIdentityProvider(Metadata metadata) {
+		if (metadata == null) {
+			return null;
+		}
 		IdentityProviderMetadata result;
 		if (metadata instanceof IdentityProviderMetadata) {
 			result =  (IdentityProviderMetadata)metadata;
@@ -33,9 +33,6 @@ public class SamlAuthenticationRequestByIdpAliasFilter extends SamlAuthenticatio
 
 	@Override
 	protected IdentityProviderMetadata getIdentityProvider(ServiceProviderService provider, String idpIdentifier) {
-		return provider.getRemoteProviders().stream()
-			.filter(p -> idpIdentifier.equals(p.getEntityAlias()))
-			.findFirst()
-			.orElse(null);
+		return provider.getRemoteProviderByAlias(idpIdentifier);
 	}
 }
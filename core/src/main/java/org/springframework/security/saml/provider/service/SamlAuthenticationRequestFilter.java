@@ -49,7 +49,7 @@ public class SamlAuthenticationRequestFilter extends SamlFilter<ServiceProviderS
 	private final SamlProviderProvisioning<ServiceProviderService> provisioning;
 	private final RequestMatcher requestMatcher;
 	private HeaderWriter cacheHeaderWriter = new CacheControlHeadersWriter();
-	private String postTemplate = "/templates/saml2-post-binding.vm";
+	private String postTemplate;
 
 	public SamlAuthenticationRequestFilter(SamlProviderProvisioning<ServiceProviderService> provisioning) {
 		this(provisioning, new SamlRequestMatcher(provisioning, "discovery", false));
@@ -119,6 +119,17 @@ public class SamlAuthenticationRequestFilter extends SamlFilter<ServiceProviderS
 			String redirect = url.build(true).toUriString();
 			response.sendRedirect(redirect);
 		}
+		else if (location.getBinding().equals(Binding.POST) && !hasText(getPostTemplate())) {
+			processPostBinding(
+				request,
+				response,
+				provider,
+				location.getLocation(),
+				"SAMLRequest",
+				authenticationRequest,
+				relayState
+			);
+		}
 		else if (location.getBinding().equals(Binding.POST)) {
 			String encoded = provider.toEncodedXml(authenticationRequest, false);
 			Map<String, Object> model = new HashMap<>();
@@ -148,6 +159,10 @@ public class SamlAuthenticationRequestFilter extends SamlFilter<ServiceProviderS
 		return null;
 	}
 
+	/**
+	 * @return the template rendering the HTTP-POST form, or null if the form is written
+	 * by the {@link org.springframework.security.saml.provider.PostBindingWriter}
+	 */
 	public String getPostTemplate() {
 		return postTemplate;
 	}
@@ -17,6 +17,8 @@
 
 package org.springframework.security.saml.provider.service;
 
+import java.util.List;
+
 import org.springframework.security.saml.provider.SamlMetadataFilter;
 import org.springframework.security.saml.provider.provisioning.SamlProviderProvisioning;
 import org.springframework.security.web.util.matcher.RequestMatcher;
@@ -36,4 +38,12 @@ public class ServiceProviderMetadataFilter extends SamlMetadataFilter<ServicePro
 										 String filename) {
 		super(provisioning, requestMatcher, filename);
 	}
+
+	@Override
+	protected List<Object> getMetadataVersionValues(ServiceProviderService provider) {
+		List<Object> result = super.getMetadataVersionValues(provider);
+		result.add(provider.getConfiguration().isSignRequests());
+		result.add(provider.getConfiguration().isWantAssertionsSigned());
+		return result;
+	}
 }
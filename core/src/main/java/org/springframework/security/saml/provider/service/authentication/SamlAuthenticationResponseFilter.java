@@ -27,6 +27,7 @@ import org.springframework.security.authentication.InsufficientAuthenticationExc
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.saml.SamlRequestMatcher;
+import org.springframework.security.saml.provider.SamlMessageContext;
 import org.springframework.security.saml.provider.provisioning.SamlProviderProvisioning;
 import org.springframework.security.saml.provider.service.ServiceProviderService;
 import org.springframework.security.saml.saml2.authentication.Response;
@@ -80,13 +81,14 @@ public class SamlAuthenticationResponseFilter extends AbstractAuthenticationProc
 
 		ServiceProviderService provider = getProvisioning().getHostedProvider();
 
-		Response r = provider.fromXml(responseData, true, GET.matches(request.getMethod()), Response.class);
+		SamlMessageContext<IdentityProviderMetadata> context = provider.messageContext();
+		Response r = provider.fromXml(responseData, true, GET.matches(request.getMethod()), Response.class, context);
 		if (logger.isTraceEnabled()) {
 			logger.trace("Received SAMLResponse XML:" + r.getOriginalXML());
 		}
-		IdentityProviderMetadata remote = provider.getRemoteProvider(r);
+		IdentityProviderMetadata remote = context.getRemoteProvider(r);
 
-		ValidationResult validationResult = provider.validate(r);
+		ValidationResult validationResult = provider.validate(r, context);
 		if (validationResult.hasErrors()) {
 			throw new InsufficientAuthenticationException(
 				validationResult.toString()
@@ -28,6 +28,7 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.saml.SamlAuthentication;
 import org.springframework.security.saml.SamlException;
 import org.springframework.security.saml.provider.SamlLogoutSuccessHandler;
+import org.springframework.security.saml.provider.SamlMessageContext;
 import org.springframework.security.saml.provider.provisioning.SamlProviderProvisioning;
 import org.springframework.security.saml.provider.service.ServiceProviderService;
 import org.springframework.security.saml.saml2.Saml2Object;
@@ -82,18 +83,20 @@ public class ServiceProviderLogoutHandler implements LogoutHandler {
 										 Authentication authentication,
 										 String logoutRequest) throws IOException {
 		ServiceProviderService provider = provisioning.getHostedProvider();
+		SamlMessageContext<IdentityProviderMetadata> context = provider.messageContext();
 		LogoutRequest lr = provider.fromXml(
 			logoutRequest,
 			true,
 			HttpMethod.GET.name().equalsIgnoreCase(request.getMethod()),
-			LogoutRequest.class
+			LogoutRequest.class,
+			context
 		);
-		ValidationResult validate = provider.validate(lr);
+		ValidationResult validate = provider.validate(lr, context);
 		if (validate.hasErrors()) {
 			throw new SamlException(validate.toString());
 		}
 
-		IdentityProviderMetadata idp = provider.getRemoteProvider(lr);
+		IdentityProviderMetadata idp = context.getRemoteProvider(lr);
 		LogoutResponse logoutResponse = provider.logoutResponse(lr, idp);
 		String url = getRedirectUrl(
 			provider,
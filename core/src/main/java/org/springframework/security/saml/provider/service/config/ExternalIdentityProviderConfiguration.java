@@ -45,7 +45,7 @@ public class ExternalIdentityProviderConfiguration extends
 			throw new SamlException("Unknown NameId type:"+nameId.getClass().getName());
 		}
 
-		return this;
+		return changed();
 	}
 
 	public int getAssertionConsumerServiceIndex() {
@@ -54,6 +54,6 @@ public class ExternalIdentityProviderConfiguration extends
 
 	public ExternalIdentityProviderConfiguration setAssertionConsumerServiceIndex(int assertionConsumerServiceIndex) {
 		this.assertionConsumerServiceIndex = assertionConsumerServiceIndex;
-		return this;
+		return changed();
 	}
 }
@@ -35,7 +35,7 @@ public class LocalServiceProviderConfiguration extends
 
 	public LocalServiceProviderConfiguration setSignRequests(boolean signRequests) {
 		this.signRequests = signRequests;
-		return this;
+		return changed();
 	}
 
 	public boolean isWantAssertionsSigned() {
@@ -44,7 +44,7 @@ public class LocalServiceProviderConfiguration extends
 
 	public LocalServiceProviderConfiguration setWantAssertionsSigned(boolean wantAssertionsSigned) {
 		this.wantAssertionsSigned = wantAssertionsSigned;
-		return this;
+		return changed();
 	}
 
 }
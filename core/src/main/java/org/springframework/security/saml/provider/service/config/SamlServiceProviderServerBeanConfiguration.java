@@ -56,7 +56,8 @@ public abstract class SamlServiceProviderServerBeanConfiguration
 	}
 
 	public Filter spAuthenticationRequestFilter() {
-		return new SamlAuthenticationRequestFilter(getSamlProvisioning());
+		return new SamlAuthenticationRequestFilter(getSamlProvisioning())
+			.setSamlTemplateEngine(samlTemplateEngine());
 	}
 
 	public Filter spAuthenticationResponseFilter() {
@@ -64,7 +65,9 @@ public abstract class SamlServiceProviderServerBeanConfiguration
 			new SamlAuthenticationResponseFilter(getSamlProvisioning());
 		authenticationFilter.setAuthenticationManager(new SimpleAuthenticationManager());
 		authenticationFilter.setAuthenticationSuccessHandler(new SavedRequestAwareAuthenticationSuccessHandler());
-		authenticationFilter.setAuthenticationFailureHandler(new GenericErrorAuthenticationFailureHandler());
+		authenticationFilter.setAuthenticationFailureHandler(
+			new GenericErrorAuthenticationFailureHandler(samlTemplateEngine(), "/templates/spi/generic-error.vm")
+		);
 		return authenticationFilter;
 	}
 
@@ -78,7 +81,8 @@ public abstract class SamlServiceProviderServerBeanConfiguration
 	}
 
 	public Filter spSelectIdentityProviderFilter() {
-		return new SelectIdentityProviderFilter(getSamlProvisioning());
+		return new SelectIdentityProviderFilter(getSamlProvisioning())
+			.setSamlTemplateEngine(samlTemplateEngine());
 	}
 
 	@Override
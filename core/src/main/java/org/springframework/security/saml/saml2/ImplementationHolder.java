@@ -17,10 +17,12 @@
 
 package org.springframework.security.saml.saml2;
 
+import java.util.function.Supplier;
+
 public abstract class ImplementationHolder implements Saml2Object {
 
 	private Object implementation;
-	private String originalXML;
+	private Supplier<String> originalXML;
 
 	public Object getImplementation() {
 		return implementation;
@@ -33,11 +35,43 @@ public abstract class ImplementationHolder implements Saml2Object {
 
 	@Override
 	public String getOriginalXML() {
-		return originalXML;
+		return originalXML == null ? null : originalXML.get();
 	}
 
 	public ImplementationHolder setOriginalXML(String originalXML) {
+		this.originalXML = originalXML == null ? null : () -> originalXML;
+		return this;
+	}
+
+	/**
+	 * @param originalXML creates the original XML when it is requested, so that messages that are
+	 *                    never logged or converted again don't hold a copy of it
+	 * @return this object
+	 */
+	public ImplementationHolder setOriginalXMLSupplier(Supplier<String> originalXML) {
 		this.originalXML = originalXML;
 		return this;
 	}
+
+	/**
+	 * Releases what the policy doesn't retain. The original XML is created before the
+	 * implementation is released, since it may be created from it.
+	 *
+	 * @param policy what to retain
+	 * @return this object
+	 */
+	public ImplementationHolder retain(RetentionPolicy policy) {
+		if (policy.isXmlRetained()) {
+			if (!policy.isImplementationRetained()) {
+				setOriginalXML(getOriginalXML());
+			}
+		}
+		else {
+			this.originalXML = null;
+		}
+		if (!policy.isImplementationRetained()) {
+			this.implementation = null;
+		}
+		return this;
+	}
 }
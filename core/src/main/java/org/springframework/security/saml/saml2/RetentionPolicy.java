@@ -0,0 +1,52 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.saml2;
+
+/**
+ * What a received object keeps of the message it was resolved from once it has been validated.
+ */
+public enum RetentionPolicy {
+
+	/**
+	 * Only the domain object is kept.
+	 */
+	NONE,
+
+	/**
+	 * The original XML is kept, the underlying implementation object is released.
+	 */
+	XML,
+
+	/**
+	 * The underlying implementation object, and its DOM, is kept, the original XML is released.
+	 */
+	DOM,
+
+	/**
+	 * Both the original XML and the underlying implementation object are kept.
+	 */
+	FULL;
+
+	public boolean isXmlRetained() {
+		return this == XML || this == FULL;
+	}
+
+	public boolean isImplementationRetained() {
+		return this == DOM || this == FULL;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.saml2.metadata;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Selects the entities of a metadata document that should be materialized.
+ * An entity is included if it has one of the included SSO roles and,
+ * when an entityId allow-list is configured, its entityId is on the list.
+ */
+public class MetadataFilter {
+
+	private boolean identityProviders = true;
+	private boolean serviceProviders = true;
+	private Set<String> entityIds = Collections.emptySet();
+
+	public boolean isIdentityProviders() {
+		return identityProviders;
+	}
+
+	public MetadataFilter setIdentityProviders(boolean identityProviders) {
+		this.identityProviders = identityProviders;
+		return this;
+	}
+
+	public boolean isServiceProviders() {
+		return serviceProviders;
+	}
+
+	public MetadataFilter setServiceProviders(boolean serviceProviders) {
+		this.serviceProviders = serviceProviders;
+		return this;
+	}
+
+	public Set<String> getEntityIds() {
+		return entityIds;
+	}
+
+	/**
+	 * @param entityIds the entityIds to include, an empty collection includes all entities
+	 * @return this object
+	 */
+	public MetadataFilter setEntityIds(Collection<String> entityIds) {
+		this.entityIds = entityIds == null ?
+			Collections.emptySet() :
+			Collections.unmodifiableSet(new HashSet<>(entityIds));
+		return this;
+	}
+
+	public boolean isIncluded(String entityId) {
+		return entityIds.isEmpty() || entityIds.contains(entityId);
+	}
+
+	public boolean isIncluded(boolean identityProvider, boolean serviceProvider) {
+		return (identityProvider && identityProviders) || (serviceProvider && serviceProviders);
+	}
+
+	public boolean isIncluded(Metadata metadata) {
+		if (!isIncluded(metadata.getEntityId())) {
+			return false;
+		}
+		boolean idp = false, sp = false;
+		for (Object provider : metadata.getSsoProviders()) {
+			idp = idp || provider instanceof IdentityProvider;
+			sp = sp || provider instanceof ServiceProvider;
+		}
+		return isIncluded(idp, sp);
+	}
+
+	/**
+	 * Removes the entities that are not included from a chain of metadata.
+	 *
+	 * @param metadata the first entity of the chain
+	 * @return the first included entity, or null if none is included
+	 */
+	@SuppressWarnings("unchecked")
+	public Metadata filter(Metadata metadata) {
+		Metadata head = null, tail = null;
+		for (Metadata m = metadata; m != null; ) {
+			Metadata next = m.hasNext() ? (Metadata) m.getNext() : null;
+			if (isIncluded(m)) {
+				m.setNext(null);
+				if (head == null) {
+					head = m;
+				}
+				else {
+					tail.setNext(m);
+				}
+				tail = m;
+			}
+			m = next;
+		}
+		return head;
+	}
+}
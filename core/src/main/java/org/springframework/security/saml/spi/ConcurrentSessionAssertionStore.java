@@ -0,0 +1,288 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.springframework.security.saml.SamlMessageStore;
+import org.springframework.security.saml.saml2.authentication.Assertion;
+import org.springframework.security.saml.saml2.authentication.AuthenticationStatement;
+import org.springframework.security.saml.saml2.authentication.Issuer;
+import org.springframework.security.saml.saml2.authentication.NameIdPrincipal;
+import org.springframework.security.saml.saml2.authentication.Subject;
+import org.springframework.security.saml.saml2.metadata.NameId;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+/**
+ * Tracks the service provider sessions of a principal's identity provider session, for Single Logout.
+ * Instead of the issued assertions, the store keeps a compact record of each, the assertion ID,
+ * the issuer, the subject NameID and the session index, and returns assertions holding only those values.
+ * <p>
+ * The records are indexed per HTTP session by assertion ID. Adding, removing and removing the
+ * first record take amortized constant time, and don't lock the store or the session, records
+ * are returned in the order they were added.
+ */
+public class ConcurrentSessionAssertionStore implements SamlMessageStore<Assertion, HttpServletRequest> {
+
+	private final String ATTRIBUTE_NAME = getClass().getName() + ".sessions";
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<Assertion> getMessages(HttpServletRequest request) {
+		SessionIndex index = getIndex(request, false);
+		if (index == null) {
+			return emptyList();
+		}
+		List<Assertion> result = new ArrayList<>(index.byId.size());
+		for (SessionRecord record : index.order) {
+			if (index.isCurrent(record)) {
+				result.add(record.toAssertion());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean hasMessages(HttpServletRequest request) {
+		return size(request) > 0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Assertion getMessage(HttpServletRequest request, String id) {
+		SessionIndex index = getIndex(request, false);
+		SessionRecord record = index == null ? null : index.byId.get(id);
+		return record == null ? null : record.toAssertion();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Assertion removeMessage(HttpServletRequest request, String id) {
+		SessionIndex index = getIndex(request, false);
+		SessionRecord record = index == null ? null : index.byId.remove(id);
+		if (record == null) {
+			return null;
+		}
+		index.removed();
+		return record.toAssertion();
+	}
+
+	/**
+	 * Tests each record of the session and removes the matching records directly,
+	 * the identifiers are those the records were added with.
+	 */
+	@Override
+	public List<Assertion> removeMessages(HttpServletRequest request,
+										  Predicate<Assertion> filter,
+										  Function<Assertion, String> ids) {
+		SessionIndex index = getIndex(request, false);
+		if (index == null) {
+			return emptyList();
+		}
+		List<Assertion> result = new ArrayList<>();
+		for (SessionRecord record : index.byId.values()) {
+			Assertion assertion = record.toAssertion();
+			if (filter.test(assertion) && index.byId.remove(record.id, record)) {
+				index.removed();
+				result.add(assertion);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Assertion addMessage(HttpServletRequest request,
+								String id,
+								Assertion assertion) {
+		SessionIndex index = getIndex(request, true);
+		SessionRecord record = new SessionRecord(id, assertion);
+		SessionRecord previous = index.byId.put(id, record);
+		if (previous != null) {
+			index.removed();
+		}
+		index.order.add(record);
+		return previous == null ? null : previous.toAssertion();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Assertion removeFirst(HttpServletRequest request) {
+		SessionIndex index = getIndex(request, false);
+		if (index == null) {
+			return null;
+		}
+		SessionRecord record;
+		while ((record = index.order.poll()) != null) {
+			if (index.byId.remove(record.id, record)) {
+				return record.toAssertion();
+			}
+			index.polled();
+		}
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size(HttpServletRequest request) {
+		SessionIndex index = getIndex(request, false);
+		return index == null ? 0 : index.byId.size();
+	}
+
+	protected SessionIndex getIndex(HttpServletRequest request, boolean createSession) {
+		HttpSession session = request.getSession(createSession);
+		if (session == null) {
+			return null;
+		}
+		SessionIndex index = (SessionIndex) session.getAttribute(ATTRIBUTE_NAME);
+		if (index == null && createSession) {
+			synchronized (session) {
+				index = (SessionIndex) session.getAttribute(ATTRIBUTE_NAME);
+				if (index == null) {
+					index = new SessionIndex();
+					session.setAttribute(ATTRIBUTE_NAME, index);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * The records of one session. The queue keeps the order records were added in.
+	 * Records removed other than from its head are counted, and purged from the queue
+	 * once they outnumber the current records, so the queue stays within twice the size of the session.
+	 */
+	protected static class SessionIndex implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final Map<String, SessionRecord> byId = new ConcurrentHashMap<>();
+		private final Queue<SessionRecord> order = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger removed = new AtomicInteger();
+
+		private boolean isCurrent(SessionRecord record) {
+			return byId.get(record.id) == record;
+		}
+
+		/*
+		 * The record was removed from the ID index, but is still queued
+		 */
+		private void removed() {
+			if (removed.incrementAndGet() > byId.size()) {
+				purge();
+			}
+		}
+
+		/*
+		 * A removed record was taken from the head of the queue
+		 */
+		private void polled() {
+			removed.updateAndGet(count -> Math.max(0, count - 1));
+		}
+
+		private void purge() {
+			int purged = 0;
+			for (Iterator<SessionRecord> it = order.iterator(); it.hasNext(); ) {
+				if (!isCurrent(it.next())) {
+					it.remove();
+					purged++;
+				}
+			}
+			int count = purged;
+			removed.updateAndGet(c -> Math.max(0, c - count));
+		}
+
+		int getQueueLength() {
+			return order.size();
+		}
+	}
+
+	protected static class SessionRecord implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String id;
+		private final String issuer;
+		private final String spEntityId;
+		private final String nameId;
+		private final String nameIdFormat;
+		private final String nameQualifier;
+		private final String sessionIndex;
+
+		SessionRecord(String id, Assertion assertion) {
+			this.id = id;
+			this.issuer = assertion.getIssuer() == null ? null : assertion.getIssuer().getValue();
+			NameIdPrincipal principal = assertion.getSubject() == null ? null : assertion.getSubject().getPrincipal();
+			this.spEntityId = principal == null ? null : principal.getSpNameQualifier();
+			this.nameId = principal == null ? null : principal.getValue();
+			this.nameIdFormat = principal == null || principal.getFormat() == null ?
+				null :
+				principal.getFormat().toString();
+			this.nameQualifier = principal == null ? null : principal.getNameQualifier();
+			List<AuthenticationStatement> statements = assertion.getAuthenticationStatements();
+			this.sessionIndex = statements == null || statements.isEmpty() ?
+				null :
+				statements.get(0).getSessionIndex();
+		}
+
+		Assertion toAssertion() {
+			return new Assertion()
+				.setId(id)
+				.setIssuer(new Issuer().setValue(issuer))
+				.setSubject(
+					new Subject().setPrincipal(
+						new NameIdPrincipal()
+							.setSpNameQualifier(spEntityId)
+							.setNameQualifier(nameQualifier)
+							.setFormat(NameId.fromUrn(nameIdFormat))
+							.setValue(nameId)
+					)
+				)
+				.setAuthenticationStatements(
+					singletonList(new AuthenticationStatement().setSessionIndex(sessionIndex))
+				);
+		}
+	}
+}
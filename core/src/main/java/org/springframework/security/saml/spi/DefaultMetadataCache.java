@@ -17,57 +17,236 @@
 package org.springframework.security.saml.spi;
 
 import java.time.Clock;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.security.saml.SamlMetadataCache;
+import org.springframework.security.saml.SamlMetadataException;
 import org.springframework.security.saml.SamlProviderNotFoundException;
+import org.springframework.security.saml.util.ExpiringMap;
 import org.springframework.web.client.RestOperations;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import static java.lang.String.format;
 import static java.util.Objects.nonNull;
+import static org.springframework.util.StringUtils.hasText;
 
 /**
  * Caches metadata that has been retrieved over the network
  *
+ * By default an entry is downloaded again, inside the calling thread, once the cache hit duration
+ * has passed. With {@link #setBackgroundRefresh(boolean) background refresh} enabled the cache hit
+ * duration becomes a soft limit: the last downloaded copy is served until the hard duration has passed,
+ * while a small dedicated thread pool downloads a fresh copy, starting the refresh ahead window
+ * before the soft limit is reached.
+ *
+ * Stale entries are revalidated with a conditional request, using the ETag and Last-Modified
+ * validators of the previous response. A 304 response extends the lifetime of the cached copy,
+ * and since the same byte array is returned, metadata resolved from it is reused as well.
+ *
+ * When a document publishes cacheDuration or validUntil on its root element, those determine the
+ * lifetime of the entry instead of the cache hit duration, clamped by the minimum and maximum cache
+ * durations. Documents past their validUntil are rejected.
+ *
  * @author fhanik
  */
-public class DefaultMetadataCache implements SamlMetadataCache {
+public class DefaultMetadataCache implements SamlMetadataCache, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(DefaultMetadataCache.class);
 
+	private final Clock time;
 	private final RestOperations validatingNetwork;
 	private final RestOperations nonValidatingNetwork;
 
-	private TimebasedMap<String, byte[]> cache;
-	private TimebasedMap<String, SamlProviderNotFoundException> misses;
+	private long cacheHitDurationMillis = 1000 * 60 * 10; //10 minutes default for hits
+	private long cacheHardDurationMillis = 1000 * 60 * 60 * 24; //stale copies are served for at most a day
+	private long minCacheDurationMillis = 1000 * 60;
+	private long maxCacheDurationMillis = 1000 * 60 * 60 * 12;
+	private long refreshAheadMillis = 1000 * 60;
+	private boolean backgroundRefresh = false;
+	private int refreshThreads = 2;
+	private ScheduledExecutorService refreshExecutor;
+	private boolean ownsRefreshExecutor = false;
+	private final AtomicLong downloadCount = new AtomicLong();
+	private final AtomicLong notModifiedCount = new AtomicLong();
+
+	private ExpiringMap<String, CachedMetadata> cache;
+	private ExpiringMap<String, SamlProviderNotFoundException> misses;
+	private ExpiringMap<Object, ResolvedMetadata> resolved;
+	private ExpiringMap<Object, Object> derived;
+	private final ConcurrentMap<String, CompletableFuture<CachedMetadata>> loading = new ConcurrentHashMap<>();
 
 	public DefaultMetadataCache(Clock time,
 								RestOperations validatingNetwork,
 								RestOperations nonValidatingNetwork) {
-		cache = new TimebasedMap<>(time);
-		cache.setFrequencyIntervalMills(1000 * 60 * 2);
-		cache.setExpirationTimeMills(1000 * 60 * 10); //10 minutes default for hits
-		misses = new TimebasedMap<>(time);
-		misses.setFrequencyIntervalMills(1000 * 60 * 2);
-		misses.setExpirationTimeMills(1000 * 60 * 5); //5 minutes default for misses
+		this.time = time;
+		cache = new ExpiringMap<>(time);
+		cache.setExpirationTimeMillis(cacheHardDurationMillis); //stale entries are kept for revalidation
+		misses = new ExpiringMap<>(time);
+		misses.setExpirationTimeMillis(1000 * 60 * 5); //5 minutes default for misses
+		resolved = new ExpiringMap<>(time);
+		resolved.setExpirationTimeMillis(1000 * 60 * 10); //unused resolutions are dropped with the hits
+		derived = new ExpiringMap<>(time);
+		derived.setExpirationTimeMillis(1000 * 60 * 10);
 		this.validatingNetwork = validatingNetwork;
 		this.nonValidatingNetwork = nonValidatingNetwork;
 	}
 
 	public long getCacheHitDurationMillis() {
-		return cache.getExpirationTimeMills();
+		return cacheHitDurationMillis;
 	}
 
 	public DefaultMetadataCache setCacheHitDurationMillis(long cacheHitDurationMillis) {
-		cache.setExpirationTimeMills(cacheHitDurationMillis);
-		cache.setFrequencyIntervalMills(Math.round((double)cacheHitDurationMillis / 2.0d));
+		this.cacheHitDurationMillis = cacheHitDurationMillis;
+		configureHitExpiration();
+		resolved.setExpirationTimeMillis(cacheHitDurationMillis);
+		derived.setExpirationTimeMillis(cacheHitDurationMillis);
+		return this;
+	}
+
+	public long getCacheHardDurationMillis() {
+		return cacheHardDurationMillis;
+	}
+
+	/**
+	 * How long a downloaded copy is retained for revalidation. With background refresh this is
+	 * also the maximum age of a copy that is served before the request thread has to fetch it again.
+	 *
+	 * @param cacheHardDurationMillis maximum age of a cached entry in milliseconds
+	 * @return this object
+	 */
+	public DefaultMetadataCache setCacheHardDurationMillis(long cacheHardDurationMillis) {
+		this.cacheHardDurationMillis = cacheHardDurationMillis;
+		configureHitExpiration();
+		return this;
+	}
+
+	public long getMinCacheDurationMillis() {
+		return minCacheDurationMillis;
+	}
+
+	/**
+	 * @param minCacheDurationMillis lower bound for a lifetime derived from cacheDuration or validUntil
+	 * @return this object
+	 */
+	public DefaultMetadataCache setMinCacheDurationMillis(long minCacheDurationMillis) {
+		this.minCacheDurationMillis = minCacheDurationMillis;
+		return this;
+	}
+
+	public long getMaxCacheDurationMillis() {
+		return maxCacheDurationMillis;
+	}
+
+	/**
+	 * @param maxCacheDurationMillis upper bound for a lifetime derived from cacheDuration or validUntil
+	 * @return this object
+	 */
+	public DefaultMetadataCache setMaxCacheDurationMillis(long maxCacheDurationMillis) {
+		this.maxCacheDurationMillis = maxCacheDurationMillis;
+		configureHitExpiration();
+		return this;
+	}
+
+	public long getRefreshAheadMillis() {
+		return refreshAheadMillis;
+	}
+
+	/**
+	 * Only used with background refresh. How long before the cache hit duration expires
+	 * the background download of an entry is started.
+	 *
+	 * @param refreshAheadMillis refresh ahead window in milliseconds
+	 * @return this object
+	 */
+	public DefaultMetadataCache setRefreshAheadMillis(long refreshAheadMillis) {
+		this.refreshAheadMillis = refreshAheadMillis;
+		return this;
+	}
+
+	public boolean isBackgroundRefresh() {
+		return backgroundRefresh;
+	}
+
+	public DefaultMetadataCache setBackgroundRefresh(boolean backgroundRefresh) {
+		this.backgroundRefresh = backgroundRefresh;
+		configureHitExpiration();
+		return this;
+	}
+
+	public int getRefreshThreads() {
+		return refreshThreads;
+	}
+
+	/**
+	 * @param refreshThreads size of the thread pool created for background refresh,
+	 *                       unless an executor has been provided
+	 * @return this object
+	 */
+	public DefaultMetadataCache setRefreshThreads(int refreshThreads) {
+		this.refreshThreads = refreshThreads;
+		return this;
+	}
+
+	/**
+	 * @param refreshExecutor executor that runs background refresh tasks. It will not be shut down by this cache.
+	 * @return this object
+	 */
+	public DefaultMetadataCache setRefreshExecutor(ScheduledExecutorService refreshExecutor) {
+		this.refreshExecutor = refreshExecutor;
+		this.ownsRefreshExecutor = false;
+		return this;
+	}
+
+	private void configureHitExpiration() {
+		cache.setExpirationTimeMillis(
+			Math.max(cacheHitDurationMillis, Math.max(cacheHardDurationMillis, maxCacheDurationMillis))
+		);
+	}
+
+	public int getMaxCachedDocuments() {
+		return cache.getMaximumSize();
+	}
+
+	/**
+	 * Limits the number of metadata documents kept. When the limit is reached, a rarely requested
+	 * document is dropped. The same limit applies to the objects resolved from documents.
+	 *
+	 * @param maxCachedDocuments the maximum number of documents, zero or less for no limit
+	 * @return this object
+	 */
+	public DefaultMetadataCache setMaxCachedDocuments(int maxCachedDocuments) {
+		cache.setMaximumSize(maxCachedDocuments);
+		resolved.setMaximumSize(maxCachedDocuments);
 		return this;
 	}
 
 	public long getCacheMissDurationMillis() {
-		return misses.getExpirationTimeMills();
+		return misses.getExpirationTimeMillis();
 	}
 
 	public DefaultMetadataCache setCacheMissDurationMillis(long cacheMissDurationMillis) {
-		misses.setExpirationTimeMills(cacheMissDurationMillis);
-		misses.setFrequencyIntervalMills(Math.round((double)cacheMissDurationMillis / 2.0d));
+		misses.setExpirationTimeMillis(cacheMissDurationMillis);
 		return this;
 	}
 
@@ -76,36 +255,358 @@ public class DefaultMetadataCache implements SamlMetadataCache {
 		if (nonNull(hasMiss)) {
 			throw hasMiss;
 		}
-		byte[] data = cache.get(uri);
-		if (data == null) {
-			try {
-				if (skipSslValidation) {
-					data = nonValidatingNetwork.getForObject(uri, byte[].class);
-				}
-				else {
-					data = validatingNetwork.getForObject(uri, byte[].class);
-				}
-				cache.put(uri, data);
-			} catch (Exception x) {
-				SamlProviderNotFoundException ex = new SamlProviderNotFoundException(
-					format("Unable to download SAML metadata[%s]", uri),
-					x
+		CachedMetadata entry = cache.get(uri);
+		if (isUsable(uri, skipSslValidation, entry)) {
+			return entry.getData();
+		}
+		return load(uri, skipSslValidation, entry).getData();
+	}
+
+	private boolean isUsable(String uri, boolean skipSslValidation, CachedMetadata entry) {
+		long now = time.millis();
+		if (entry == null || entry.getLifetime().isExpired(now)) {
+			return false;
+		}
+		long age = entry.getAge(now);
+		long ttl = entry.getTimeToLive();
+		if (age > (backgroundRefresh ? Math.max(ttl, cacheHardDurationMillis) : ttl)) {
+			return false;
+		}
+		if (backgroundRefresh) {
+			entry.setAccessed();
+			if (age > (ttl - refreshAheadMillis)) {
+				scheduleRefresh(uri, skipSslValidation, entry, 0);
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Only one thread downloads a given URI at a time. Other threads receive the stale copy
+	 * if there is a valid one, or wait for the result of the download, including its failure.
+	 */
+	private CachedMetadata load(String uri, boolean skipSslValidation, CachedMetadata stale) {
+		CompletableFuture<CachedMetadata> loader = new CompletableFuture<>();
+		CompletableFuture<CachedMetadata> inProgress = loading.putIfAbsent(uri, loader);
+		if (inProgress != null) {
+			if (stale != null && !stale.getLifetime().isExpired(time.millis())) {
+				return stale;
+			}
+			return await(inProgress);
+		}
+		try {
+			CachedMetadata result = doLoad(uri, skipSslValidation, stale);
+			loader.complete(result);
+			return result;
+		} catch (Throwable x) {
+			//waiting threads receive any failure, they would otherwise wait forever
+			loader.completeExceptionally(x);
+			throw x;
+		} finally {
+			loading.remove(uri, loader);
+		}
+	}
+
+	private CachedMetadata doLoad(String uri, boolean skipSslValidation, CachedMetadata stale) {
+		//another thread may have completed the download before this one started
+		final SamlProviderNotFoundException hasMiss = misses.get(uri);
+		if (nonNull(hasMiss)) {
+			throw hasMiss;
+		}
+		CachedMetadata entry = cache.get(uri);
+		if (entry != stale && isUsable(uri, skipSslValidation, entry)) {
+			return entry;
+		}
+		//missing or stale, a stale entry is revalidated
+		try {
+			entry = fetch(uri, skipSslValidation, entry);
+			cache.put(uri, entry);
+		} catch (Exception x) {
+			SamlProviderNotFoundException ex = new SamlProviderNotFoundException(
+				format("Unable to download SAML metadata[%s]", uri),
+				x
+			);
+			misses.put(uri, ex);
+			throw ex;
+		}
+		if (backgroundRefresh) {
+			scheduleRefresh(uri, skipSslValidation, entry, entry.getTimeToLive() - refreshAheadMillis);
+		}
+		return entry;
+	}
+
+	private CachedMetadata await(CompletableFuture<CachedMetadata> inProgress) {
+		try {
+			return inProgress.join();
+		} catch (CompletionException x) {
+			if (x.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) x.getCause();
+			}
+			if (x.getCause() instanceof Error) {
+				throw (Error) x.getCause();
+			}
+			throw x;
+		}
+	}
+
+	/**
+	 * @return number of downloads that returned a full metadata document
+	 */
+	public long getDownloadCount() {
+		return downloadCount.get();
+	}
+
+	/**
+	 * @return number of conditional requests answered with 304 Not Modified
+	 */
+	public long getNotModifiedCount() {
+		return notModifiedCount.get();
+	}
+
+	private CachedMetadata fetch(String uri, boolean skipSslValidation, CachedMetadata previous) {
+		HttpHeaders headers = new HttpHeaders();
+		if (previous != null) {
+			if (hasText(previous.getEtag())) {
+				headers.setIfNoneMatch(previous.getEtag());
+			}
+			if (previous.getLastModified() > 0) {
+				headers.setIfModifiedSince(previous.getLastModified());
+			}
+		}
+		ResponseEntity<byte[]> response = download(uri, skipSslValidation, headers);
+		long now = time.millis();
+		byte[] data;
+		MetadataLifetime lifetime;
+		String etag;
+		long lastModified;
+		if (previous != null && response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+			notModifiedCount.incrementAndGet();
+			data = previous.getData();
+			lifetime = previous.getLifetime();
+			etag = previous.getEtag();
+			lastModified = previous.getLastModified();
+		}
+		else {
+			downloadCount.incrementAndGet();
+			data = response.getBody();
+			lifetime = MetadataLifetime.read(data);
+			etag = response.getHeaders().getETag();
+			lastModified = response.getHeaders().getLastModified();
+		}
+		if (lifetime.isExpired(now)) {
+			throw new SamlMetadataException(format("SAML metadata[%s] is no longer valid.", uri));
+		}
+		return new CachedMetadata(data, now, getTimeToLive(lifetime, now), lifetime, etag, lastModified);
+	}
+
+	private long getTimeToLive(MetadataLifetime lifetime, long now) {
+		if (lifetime.getCacheDuration() < 0 && lifetime.getValidUntil() < 0) {
+			return cacheHitDurationMillis;
+		}
+		long ttl = lifetime.getCacheDuration() >= 0 ? lifetime.getCacheDuration() : cacheHitDurationMillis;
+		if (lifetime.getValidUntil() >= 0) {
+			ttl = Math.min(ttl, lifetime.getValidUntil() - now);
+		}
+		return Math.min(Math.max(ttl, minCacheDurationMillis), maxCacheDurationMillis);
+	}
+
+	protected ResponseEntity<byte[]> download(String uri, boolean skipSslValidation, HttpHeaders headers) {
+		RestOperations network = skipSslValidation ? nonValidatingNetwork : validatingNetwork;
+		return network.exchange(uri, HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+	}
+
+	private void scheduleRefresh(String uri, boolean skipSslValidation, CachedMetadata entry, long delayMillis) {
+		if (entry.startRefresh()) {
+			getRefreshExecutor().schedule(
+				() -> refresh(uri, skipSslValidation, entry),
+				Math.max(0, delayMillis),
+				TimeUnit.MILLISECONDS
+			);
+		}
+	}
+
+	private void refresh(String uri, boolean skipSslValidation, CachedMetadata entry) {
+		if (!entry.isAccessed()) {
+			//nobody used this entry since it was downloaded, stop refreshing it
+			entry.stopRefresh();
+			return;
+		}
+		try {
+			CachedMetadata fresh = fetch(uri, skipSslValidation, entry);
+			cache.put(uri, fresh);
+			scheduleRefresh(uri, skipSslValidation, fresh, fresh.getTimeToLive() - refreshAheadMillis);
+		} catch (Exception x) {
+			if (logger.isDebugEnabled()) {
+				logger.debug(format("Unable to refresh SAML metadata[%s], serving cached copy.", uri), x);
+			}
+			else {
+				logger.info(format("Unable to refresh SAML metadata[%s], serving cached copy.", uri));
+			}
+			if (entry.getAge(time.millis()) < cacheHardDurationMillis) {
+				getRefreshExecutor().schedule(
+					() -> refresh(uri, skipSslValidation, entry),
+					Math.max(1000, refreshAheadMillis),
+					TimeUnit.MILLISECONDS
 				);
-				misses.put(uri, ex);
-				throw ex;
+			}
+			else {
+				entry.stopRefresh();
 			}
 		}
-		return data;
+	}
+
+	private synchronized ScheduledExecutorService getRefreshExecutor() {
+		if (refreshExecutor == null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("saml-metadata-refresh-");
+			threadFactory.setDaemon(true);
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(refreshThreads, threadFactory);
+			executor.setRemoveOnCancelPolicy(true);
+			refreshExecutor = executor;
+			ownsRefreshExecutor = true;
+		}
+		return refreshExecutor;
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (refreshExecutor != null && ownsRefreshExecutor) {
+			refreshExecutor.shutdownNow();
+			refreshExecutor = null;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T getResolvedMetadata(Object key, byte[] data, Function<byte[], T> resolver) {
+		ResolvedMetadata entry = resolved.get(key);
+		if (entry != null && entry.getData() == data) {
+			//same cached document, nothing has changed
+			return (T) entry.getValue();
+		}
+		byte[] digest = EncodingUtils.digest("SHA-256", data);
+		if (entry != null && Arrays.equals(entry.getDigest(), digest)) {
+			//document was downloaded again, but the content is the same
+			resolved.put(key, new ResolvedMetadata(data, digest, entry.getValue()));
+			return (T) entry.getValue();
+		}
+		T value = resolver.apply(data);
+		resolved.put(key, new ResolvedMetadata(data, digest, value));
+		return value;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T getDerivedMetadata(Object key, Predicate<T> isCurrent, Supplier<T> builder) {
+		T value = (T) derived.get(key);
+		if (value == null || !isCurrent.test(value)) {
+			value = builder.get();
+			derived.put(key, value);
+		}
+		return value;
 	}
 
 	public void clear() {
 		misses.clear();
 		cache.clear();
+		resolved.clear();
+		derived.clear();
 	}
 
 	@Override
 	public byte[] remove(String uri) {
 		misses.remove(uri);
-		return cache.remove(uri);
+		CachedMetadata entry = cache.remove(uri);
+		return entry != null ? entry.getData() : null;
+	}
+
+	private static class CachedMetadata {
+		private final byte[] data;
+		private final long downloaded;
+		private final long timeToLive;
+		private final MetadataLifetime lifetime;
+		private final String etag;
+		private final long lastModified;
+		private final AtomicBoolean refreshing = new AtomicBoolean(false);
+		private volatile boolean accessed = false;
+
+		private CachedMetadata(byte[] data,
+							   long downloaded,
+							   long timeToLive,
+							   MetadataLifetime lifetime,
+							   String etag,
+							   long lastModified) {
+			this.data = data;
+			this.downloaded = downloaded;
+			this.timeToLive = timeToLive;
+			this.lifetime = lifetime;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		byte[] getData() {
+			return data;
+		}
+
+		long getTimeToLive() {
+			return timeToLive;
+		}
+
+		MetadataLifetime getLifetime() {
+			return lifetime;
+		}
+
+		String getEtag() {
+			return etag;
+		}
+
+		long getLastModified() {
+			return lastModified;
+		}
+
+		long getAge(long now) {
+			return now - downloaded;
+		}
+
+		boolean isAccessed() {
+			return accessed;
+		}
+
+		void setAccessed() {
+			if (!accessed) {
+				accessed = true;
+			}
+		}
+
+		boolean startRefresh() {
+			return refreshing.compareAndSet(false, true);
+		}
+
+		void stopRefresh() {
+			refreshing.set(false);
+		}
+	}
+
+	private static class ResolvedMetadata {
+		private final byte[] data;
+		private final byte[] digest;
+		private final Object value;
+
+		private ResolvedMetadata(byte[] data, byte[] digest, Object value) {
+			this.data = data;
+			this.digest = digest;
+			this.value = value;
+		}
+
+		byte[] getData() {
+			return data;
+		}
+
+		byte[] getDigest() {
+			return digest;
+		}
+
+		Object getValue() {
+			return value;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.springframework.security.saml.SamlReplayCache;
+
+/**
+ * Keeps used IDs in memory, in a single map from ID to expiration time.
+ * Expiration is batched: IDs are also listed in buckets by expiration time, and each bucket is
+ * dropped as a whole once it ends, removing its IDs from the map. IDs are never scanned to expire them.
+ */
+public class DefaultReplayCache implements SamlReplayCache {
+
+	private final Clock clock;
+	private final ConcurrentHashMap<String, Long> expirations = new ConcurrentHashMap<>();
+	private final ConcurrentSkipListMap<Long, Queue<String>> buckets = new ConcurrentSkipListMap<>();
+	private long bucketMillis = 1000 * 60;
+
+	public DefaultReplayCache(Clock clock) {
+		this.clock = clock;
+	}
+
+	@Override
+	public boolean checkAndRecord(String issuer, String id, long expires) {
+		long now = clock.millis();
+		dropExpired(now);
+		if (expires <= now) {
+			return true;
+		}
+		String key = key(issuer, id);
+		Long previous = expirations.putIfAbsent(key, expires);
+		if (previous != null && (previous > now || !expirations.replace(key, previous, expires))) {
+			return false;
+		}
+		long index = Math.floorDiv(expires, bucketMillis);
+		Queue<String> bucket = buckets.computeIfAbsent(index, i -> new ConcurrentLinkedQueue<>());
+		bucket.add(key);
+		if (buckets.get(index) != bucket) {
+			//the bucket was dropped meanwhile
+			expire(key, clock.millis());
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of IDs currently held
+	 */
+	public int size() {
+		dropExpired(clock.millis());
+		return expirations.size();
+	}
+
+	private void dropExpired(long now) {
+		Map.Entry<Long, Queue<String>> first;
+		while ((first = buckets.firstEntry()) != null && (first.getKey() + 1) * bucketMillis <= now) {
+			if (buckets.remove(first.getKey(), first.getValue())) {
+				for (String key : first.getValue()) {
+					expire(key, now);
+				}
+			}
+		}
+	}
+
+	private void expire(String key, long now) {
+		//the ID may have been recorded again since, with a later expiration
+		expirations.computeIfPresent(key, (k, expires) -> expires <= now ? null : expires);
+	}
+
+	static String key(String issuer, String id) {
+		//an xsd:ID contains no spaces
+		return issuer + " " + id;
+	}
+
+	public long getBucketMillis() {
+		return bucketMillis;
+	}
+
+	/**
+	 * Sets the time span each expiration bucket covers, must be set before the cache is used.
+	 *
+	 * @param bucketMillis the span in milliseconds, one minute by default
+	 * @return this object
+	 */
+	public DefaultReplayCache setBucketMillis(long bucketMillis) {
+		this.bucketMillis = bucketMillis;
+		return this;
+	}
+}
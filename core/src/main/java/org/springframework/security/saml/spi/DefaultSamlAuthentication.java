@@ -17,17 +17,51 @@
 
 package org.springframework.security.saml.spi;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.saml.SamlAuthentication;
+import org.springframework.security.saml.saml2.attribute.Attribute;
+import org.springframework.security.saml.saml2.attribute.AttributeNameFormat;
 import org.springframework.security.saml.saml2.authentication.Assertion;
+import org.springframework.security.saml.saml2.authentication.AuthenticationStatement;
+import org.springframework.security.saml.saml2.authentication.Issuer;
+import org.springframework.security.saml.saml2.authentication.NameIdPrincipal;
+import org.springframework.security.saml.saml2.authentication.Subject;
 import org.springframework.security.saml.saml2.authentication.SubjectPrincipal;
+import org.springframework.security.saml.saml2.metadata.NameId;
 
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The authentication created from a SAML assertion.
+ * <p>
+ * When serialized, for example into a replicated HTTP session, only a compact, versioned form of the
+ * assertion is written: its ID, issuer, NameID, session index, authentication instant and attributes.
+ * The implementation object, the original XML and the signature are not kept.
+ * After deserialization the principal is available right away,
+ * the assertion is rebuilt from the compact form when {@link #getAssertion()} is first called.
+ */
 public class DefaultSamlAuthentication implements SamlAuthentication {
+
+	private static final long serialVersionUID = 1L;
+	private static final int SESSION_FORM_VERSION = 1;
+
 	private boolean authenticated;
-	private Assertion assertion;
+	private transient volatile Assertion assertion;
+	private transient SessionForm sessionForm;
 	private String assertingEntityId;
 	private String holdingEntityId;
 	private String relayState;
@@ -56,17 +90,26 @@ public class DefaultSamlAuthentication implements SamlAuthentication {
 
 	@Override
 	public SubjectPrincipal<? extends SubjectPrincipal> getSamlPrincipal() {
-		return assertion.getSubject().getPrincipal();
+		Assertion a = this.assertion;
+		if (a == null && sessionForm != null) {
+			return sessionForm.principal;
+		}
+		return a.getSubject().getPrincipal();
 	}
 
 	public Assertion getAssertion() {
-		return assertion;
+		Assertion a = this.assertion;
+		if (a == null && sessionForm != null) {
+			a = sessionForm.toAssertion();
+			this.assertion = a;
+		}
+		return a;
 	}
 
 	protected void setAssertion(Assertion assertion) {
 		this.assertion = assertion;
+		this.sessionForm = null;
 	}
-
 	@Override
 	public String getRelayState() {
 		return relayState;
@@ -120,4 +163,213 @@ public class DefaultSamlAuthentication implements SamlAuthentication {
 	public String getName() {
 		return getSamlPrincipal().getValue();
 	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		SessionForm form = this.sessionForm;
+		if (form == null) {
+			form = new SessionForm(assertion);
+		}
+		out.writeInt(SESSION_FORM_VERSION);
+		form.write(out);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int version = in.readInt();
+		if (version != SESSION_FORM_VERSION) {
+			throw new InvalidObjectException("Unsupported SAML authentication session form version:" + version);
+		}
+		this.sessionForm = new SessionForm(in);
+	}
+
+	/*
+	 * Strings are written as their UTF-8 length and bytes, -1 for null,
+	 * attribute values are written with a type tag.
+	 */
+	private static class SessionForm {
+		private static final byte NULL_VALUE = 0;
+		private static final byte STRING_VALUE = 1;
+		private static final byte URI_VALUE = 2;
+		private static final byte BOOLEAN_VALUE = 3;
+		private static final byte DATE_TIME_VALUE = 4;
+		private static final byte INTEGER_VALUE = 5;
+		private static final byte LONG_VALUE = 6;
+
+		private final String id;
+		private final String issuer;
+		private final NameIdPrincipal principal;
+		private final String sessionIndex;
+		private final long authInstant;
+		private final List<Attribute> attributes;
+
+		SessionForm(Assertion assertion) {
+			this.id = assertion.getId();
+			this.issuer = assertion.getIssuer() == null ? null : assertion.getIssuer().getValue();
+			this.principal = assertion.getSubject() == null ? null : assertion.getSubject().getPrincipal();
+			List<AuthenticationStatement> statements = assertion.getAuthenticationStatements();
+			AuthenticationStatement statement = statements == null || statements.isEmpty() ? null : statements.get(0);
+			this.sessionIndex = statement == null ? null : statement.getSessionIndex();
+			this.authInstant = statement == null || statement.getAuthInstant() == null ?
+				-1 :
+				statement.getAuthInstant().getMillis();
+			this.attributes = assertion.getAttributes() == null ? Collections.emptyList() : assertion.getAttributes();
+		}
+
+		SessionForm(ObjectInputStream in) throws IOException {
+			this.id = readString(in);
+			this.issuer = readString(in);
+			if (in.readBoolean()) {
+				this.principal = new NameIdPrincipal()
+					.setValue(readString(in))
+					.setFormat(NameId.fromUrn(readString(in)))
+					.setNameQualifier(readString(in))
+					.setSpNameQualifier(readString(in))
+					.setSpProvidedId(readString(in));
+			}
+			else {
+				this.principal = null;
+			}
+			this.sessionIndex = readString(in);
+			this.authInstant = in.readLong();
+			int count = in.readInt();
+			this.attributes = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				Attribute attribute = new Attribute()
+					.setName(readString(in))
+					.setFriendlyName(readString(in))
+					.setNameFormat(AttributeNameFormat.fromUrn(readString(in)))
+					.setRequired(in.readBoolean());
+				int values = in.readInt();
+				List<Object> list = new ArrayList<>(values);
+				for (int j = 0; j < values; j++) {
+					list.add(readValue(in));
+				}
+				attributes.add(attribute.setValues(list));
+			}
+		}
+
+		void write(ObjectOutputStream out) throws IOException {
+			writeString(out, id);
+			writeString(out, issuer);
+			out.writeBoolean(principal != null);
+			if (principal != null) {
+				writeString(out, principal.getValue());
+				writeString(out, principal.getFormat() == null ? null : principal.getFormat().toString());
+				writeString(out, principal.getNameQualifier());
+				writeString(out, principal.getSpNameQualifier());
+				writeString(out, principal.getSpProvidedId());
+			}
+			writeString(out, sessionIndex);
+			out.writeLong(authInstant);
+			out.writeInt(attributes.size());
+			for (Attribute attribute : attributes) {
+				writeString(out, attribute.getName());
+				writeString(out, attribute.getFriendlyName());
+				writeString(out, attribute.getNameFormat() == null ? null : attribute.getNameFormat().toString());
+				out.writeBoolean(attribute.isRequired());
+				List<Object> values = attribute.getValues() == null ? Collections.emptyList() : attribute.getValues();
+				out.writeInt(values.size());
+				for (Object value : values) {
+					writeValue(out, value);
+				}
+			}
+		}
+
+		Assertion toAssertion() {
+			List<AuthenticationStatement> statements = new ArrayList<>();
+			if (sessionIndex != null || authInstant >= 0) {
+				statements.add(
+					new AuthenticationStatement()
+						.setSessionIndex(sessionIndex)
+						.setAuthInstant(authInstant < 0 ? null : new DateTime(authInstant, DateTimeZone.UTC))
+				);
+			}
+			return new Assertion()
+				.setId(id)
+				.setIssuer(issuer == null ? null : new Issuer().setValue(issuer))
+				.setSubject(new Subject().setPrincipal(principal))
+				.setAuthenticationStatements(statements)
+				.setAttributes(new ArrayList<>(attributes));
+		}
+
+		private static void writeValue(ObjectOutputStream out, Object value) throws IOException {
+			if (value == null) {
+				out.writeByte(NULL_VALUE);
+			}
+			else if (value instanceof URI) {
+				out.writeByte(URI_VALUE);
+				writeString(out, value.toString());
+			}
+			else if (value instanceof Boolean) {
+				out.writeByte(BOOLEAN_VALUE);
+				out.writeBoolean((Boolean) value);
+			}
+			else if (value instanceof DateTime) {
+				out.writeByte(DATE_TIME_VALUE);
+				out.writeLong(((DateTime) value).getMillis());
+			}
+			else if (value instanceof Integer) {
+				out.writeByte(INTEGER_VALUE);
+				out.writeInt((Integer) value);
+			}
+			else if (value instanceof Long) {
+				out.writeByte(LONG_VALUE);
+				out.writeLong((Long) value);
+			}
+			else {
+				//strings, and values of unknown types as their text
+				out.writeByte(STRING_VALUE);
+				writeString(out, value.toString());
+			}
+		}
+
+		private static Object readValue(ObjectInputStream in) throws IOException {
+			byte type = in.readByte();
+			switch (type) {
+				case NULL_VALUE:
+					return null;
+				case STRING_VALUE:
+					return readString(in);
+				case URI_VALUE:
+					String uri = readString(in);
+					try {
+						return new URI(uri);
+					} catch (URISyntaxException e) {
+						return uri;
+					}
+				case BOOLEAN_VALUE:
+					return in.readBoolean();
+				case DATE_TIME_VALUE:
+					return new DateTime(in.readLong(), DateTimeZone.UTC);
+				case INTEGER_VALUE:
+					return in.readInt();
+				case LONG_VALUE:
+					return in.readLong();
+				default:
+					throw new InvalidObjectException("Unknown attribute value type:" + type);
+			}
+		}
+
+		private static void writeString(ObjectOutputStream out, String value) throws IOException {
+			if (value == null) {
+				out.writeInt(-1);
+			}
+			else {
+				byte[] bytes = value.getBytes(UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+
+		private static String readString(ObjectInputStream in) throws IOException {
+			int length = in.readInt();
+			if (length < 0) {
+				return null;
+			}
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			return new String(bytes, UTF_8);
+		}
+	}
 }
@@ -17,12 +17,20 @@
 
 package org.springframework.security.saml.spi;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.saml.SamlException;
 import org.springframework.security.saml.SamlTransformer;
 import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.metadata.Metadata;
+import org.springframework.security.saml.saml2.metadata.MetadataFilter;
+import org.springframework.security.saml.saml2.signature.Signature;
+import org.springframework.util.StreamUtils;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -55,6 +63,14 @@ public class DefaultSamlTransformer implements SamlTransformer, InitializingBean
 		return implementation.toXml(saml2Object);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void toXml(Saml2Object saml2Object, OutputStream out) {
+		implementation.toXml(saml2Object, out);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -63,6 +79,33 @@ public class DefaultSamlTransformer implements SamlTransformer, InitializingBean
 		return implementation.resolve(xml, verificationKeys, localKeys);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Metadata fromMetadataXml(byte[] xml, List<SimpleKey> verificationKeys, MetadataFilter filter) {
+		return implementation.resolveMetadata(xml, verificationKeys, filter);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Signature validateMetadataSignature(byte[] xml, List<SimpleKey> verificationKeys) {
+		return implementation.validateMetadataSignature(xml, verificationKeys);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T extends Saml2Object> T validateSignatures(T object,
+														List<SimpleKey> verificationKeys,
+														List<SimpleKey> localKeys) {
+		return (T) implementation.validateSignatures(object, verificationKeys, localKeys);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -83,12 +126,26 @@ public class DefaultSamlTransformer implements SamlTransformer, InitializingBean
 	 */
 	@Override
 	public String samlDecode(String s, boolean inflate) {
-		byte[] b = implementation.decode(s);
-		if (inflate) {
-			return implementation.inflate(b);
+		try (InputStream in = implementation.decodingStream(s, inflate)) {
+			return StreamUtils.copyToString(in, UTF_8);
+		} catch (IOException e) {
+			throw new SamlException("Unable to decode message", e);
 		}
-		else {
-			return new String(b, UTF_8);
+	}
+
+	/**
+	 * Streams the message through the decoder, and the inflater, into the parser.
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Saml2Object fromEncodedXml(String s,
+									  boolean inflate,
+									  List<SimpleKey> verificationKeys,
+									  List<SimpleKey> localKeys) {
+		try (InputStream in = implementation.decodingStream(s, inflate)) {
+			return implementation.resolve(in, verificationKeys, localKeys);
+		} catch (IOException e) {
+			throw new SamlException("Unable to decode message", e);
 		}
 	}
 
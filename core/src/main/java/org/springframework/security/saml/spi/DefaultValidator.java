@@ -23,9 +23,11 @@ import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.springframework.security.saml.SamlReplayCache;
 import org.springframework.security.saml.SamlValidator;
 import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.provider.HostedProviderService;
+import org.springframework.security.saml.provider.SamlMessageContext;
 import org.springframework.security.saml.saml2.Saml2Object;
 import org.springframework.security.saml.saml2.authentication.Assertion;
 import org.springframework.security.saml.saml2.authentication.AssertionCondition;
@@ -36,6 +38,7 @@ import org.springframework.security.saml.saml2.authentication.Conditions;
 import org.springframework.security.saml.saml2.authentication.Issuer;
 import org.springframework.security.saml.saml2.authentication.LogoutRequest;
 import org.springframework.security.saml.saml2.authentication.LogoutResponse;
+import org.springframework.security.saml.saml2.authentication.OneTimeUse;
 import org.springframework.security.saml.saml2.authentication.Response;
 import org.springframework.security.saml.saml2.authentication.StatusCode;
 import org.springframework.security.saml.saml2.authentication.SubjectConfirmation;
@@ -68,6 +71,9 @@ public class DefaultValidator implements SamlValidator {
 	private boolean allowUnsolicitedResponses = true;
 	private int maxAuthenticationAgeMillis = 1000 * 60 * 60 * 24; //24 hours
 	private Clock time = Clock.systemUTC();
+	private SamlReplayCache replayCache = new DefaultReplayCache(time);
+	private boolean defaultReplayCache = true;
+	private boolean rejectReplayedAssertions = true;
 
 	public DefaultValidator(SpringSecuritySaml implementation) {
 		setImplementation(implementation);
@@ -77,8 +83,15 @@ public class DefaultValidator implements SamlValidator {
 		this.implementation = implementation;
 	}
 
+	/**
+	 * @param time the clock, also used by the default replay cache
+	 * @return this object
+	 */
 	public DefaultValidator setTime(Clock time) {
 		this.time = time;
+		if (defaultReplayCache) {
+			replayCache = new DefaultReplayCache(time());
+		}
 		return this;
 	}
 
@@ -99,6 +112,12 @@ public class DefaultValidator implements SamlValidator {
 
 	@Override
 	public void validate(Saml2Object saml2Object, HostedProviderService provider)
+		throws ValidationException {
+		validate(saml2Object, provider, provider.messageContext());
+	}
+
+	@Override
+	public void validate(Saml2Object saml2Object, HostedProviderService provider, SamlMessageContext context)
 		throws ValidationException {
 		if (saml2Object == null) {
 			throw new NullPointerException("Object to be validated cannot be null");
@@ -122,13 +141,13 @@ public class DefaultValidator implements SamlValidator {
 		else if (saml2Object instanceof Response) {
 			Response r = (Response) saml2Object;
 			ServiceProviderMetadata requester = (ServiceProviderMetadata) provider.getMetadata();
-			IdentityProviderMetadata responder = (IdentityProviderMetadata) provider.getRemoteProvider(r);
+			IdentityProviderMetadata responder = (IdentityProviderMetadata) context.getRemoteProvider(r);
 			result = validate(r, null, requester, responder);
 		}
 		else if (saml2Object instanceof Assertion) {
 			Assertion a = (Assertion) saml2Object;
 			ServiceProviderMetadata requester = (ServiceProviderMetadata) provider.getMetadata();
-			IdentityProviderMetadata responder = (IdentityProviderMetadata) provider.getRemoteProvider(a);
+			IdentityProviderMetadata responder = (IdentityProviderMetadata) context.getRemoteProvider(a);
 			result = validate(a, null, requester, responder, requester.getServiceProvider().isWantAssertionsSigned());
 		}
 		else {
@@ -442,11 +461,64 @@ public class DefaultValidator implements SamlValidator {
 			}
 		}
 
+		//recorded last, so that an assertion in a response that fails validation is not used up
+		if (isReplayed(validAssertion, responder)) {
+			return new ValidationResult(response)
+				.addError(format("Assertion with ID '%s' has already been used", validAssertion.getId()));
+		}
+
 		//the only assertion that we validated - may not be the first one
 		response.setAssertions(Arrays.asList(validAssertion));
 		return new ValidationResult(response);
 	}
 
+	/**
+	 * Records the ID of an accepted assertion in the replay cache, until it is no longer valid.
+	 * Assertions with a OneTimeUse condition are always recorded, others if replayed assertions are rejected.
+	 *
+	 * @param assertion the validated assertion
+	 * @param responder the identity provider that issued the assertion
+	 * @return true if the assertion has been used before
+	 */
+	protected boolean isReplayed(Assertion assertion, IdentityProviderMetadata responder) {
+		if (getReplayCache() == null || !(isRejectReplayedAssertions() || isOneTimeUse(assertion))) {
+			return false;
+		}
+		return !getReplayCache().checkAndRecord(responder.getEntityId(), assertion.getId(), getExpiration(assertion));
+	}
+
+	protected boolean isOneTimeUse(Assertion assertion) {
+		Conditions conditions = assertion.getConditions();
+		if (conditions == null || conditions.getCriteria() == null) {
+			return false;
+		}
+		return conditions.getCriteria().stream().anyMatch(c -> c instanceof OneTimeUse);
+	}
+
+	/*
+	 * the latest time the assertion is accepted at, the assertion can be forgotten afterwards
+	 */
+	private long getExpiration(Assertion assertion) {
+		DateTime result = null;
+		for (SubjectConfirmation conf : ofNullable(assertion.getSubject().getConfirmations()).orElse(emptyList())) {
+			DateTime notOnOrAfter = conf.getConfirmationData() == null ?
+				null :
+				conf.getConfirmationData().getNotOnOrAfter();
+			if (notOnOrAfter != null && (result == null || notOnOrAfter.isAfter(result))) {
+				result = notOnOrAfter;
+			}
+		}
+		Conditions conditions = assertion.getConditions();
+		if (conditions != null && conditions.getNotOnOrAfter() != null &&
+			(result == null || conditions.getNotOnOrAfter().isAfter(result))) {
+			result = conditions.getNotOnOrAfter();
+		}
+		if (result == null) {
+			return time().millis() + getMaxAuthenticationAgeMillis();
+		}
+		return result.getMillis() + getResponseSkewTimeMillis();
+	}
+
 	protected boolean isDateTimeSkewValid(int skewMillis, int forwardMillis, DateTime time) {
 		if (time == null) {
 			return false;
@@ -549,5 +621,32 @@ public class DefaultValidator implements SamlValidator {
 		this.maxAuthenticationAgeMillis = maxAuthenticationAgeMillis;
 	}
 
+	public SamlReplayCache getReplayCache() {
+		return replayCache;
+	}
+
+	/**
+	 * @param replayCache the cache accepted assertion IDs are recorded in, null to accept replayed assertions
+	 * @return this object
+	 */
+	public DefaultValidator setReplayCache(SamlReplayCache replayCache) {
+		this.replayCache = replayCache;
+		this.defaultReplayCache = false;
+		return this;
+	}
+
+	public boolean isRejectReplayedAssertions() {
+		return rejectReplayedAssertions;
+	}
+
+	/**
+	 * @param rejectReplayedAssertions false to only reject replayed assertions with a OneTimeUse condition
+	 * @return this object
+	 */
+	public DefaultValidator setRejectReplayedAssertions(boolean rejectReplayedAssertions) {
+		this.rejectReplayedAssertions = rejectReplayedAssertions;
+		return this;
+	}
+
 
 }
@@ -18,15 +18,21 @@
 package org.springframework.security.saml.spi;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.InflaterOutputStream;
 
 import org.springframework.security.saml.SamlException;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64InputStream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.zip.Deflater.DEFLATED;
@@ -42,6 +48,14 @@ class EncodingUtils {
 		return UNCHUNKED_ENCODER.decode(s);
 	}
 
+	static byte[] digest(String algorithm, byte[] b) {
+		try {
+			return MessageDigest.getInstance(algorithm).digest(b);
+		} catch (NoSuchAlgorithmException e) {
+			throw new SamlException("Unable to create digest", e);
+		}
+	}
+
 	static byte[] deflate(String s) {
 		try {
 			ByteArrayOutputStream b = new ByteArrayOutputStream();
@@ -54,6 +68,35 @@ class EncodingUtils {
 		}
 	}
 
+	/**
+	 * Decodes, and optionally inflates, an encoded message while it is being read.
+	 * The encoded characters are not copied, and neither the decoded nor the inflated
+	 * message is ever held in memory as a whole.
+	 *
+	 * @param s                 the Base64 encoded message
+	 * @param inflate           true if the decoded message has to be inflated
+	 * @param maxCompressedSize the maximum number of decoded bytes of a deflated message
+	 * @param maxMessageSize    the maximum number of bytes of the message
+	 * @return the stream of the message, it throws a {@link SamlException} once a limit is exceeded
+	 */
+	static InputStream decodingStream(CharSequence s, boolean inflate, long maxCompressedSize, long maxMessageSize) {
+		InputStream result = new Base64InputStream(new CharSequenceInputStream(s));
+		if (inflate) {
+			result = new LimitedInputStream(result, maxCompressedSize, "Compressed message");
+			result = new InflaterInputStream(result, new Inflater(true)) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						inf.end();
+					}
+				}
+			};
+		}
+		return new LimitedInputStream(result, maxMessageSize, "Message");
+	}
+
 	static String inflate(byte[] b) {
 		try {
 			ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -65,4 +108,92 @@ class EncodingUtils {
 			throw new SamlException("Unable to inflate string", e);
 		}
 	}
+
+	/*
+	 * Base64 is ASCII, other characters are passed on as bytes the decoder ignores
+	 */
+	private static class CharSequenceInputStream extends InputStream {
+		private final CharSequence s;
+		private int position = 0;
+
+		CharSequenceInputStream(CharSequence s) {
+			this.s = s;
+		}
+
+		@Override
+		public int read() {
+			if (position >= s.length()) {
+				return -1;
+			}
+			return toByte(s.charAt(position++)) & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			int count = Math.min(len, s.length() - position);
+			if (count <= 0) {
+				return -1;
+			}
+			for (int i = 0; i < count; i++) {
+				b[off + i] = toByte(s.charAt(position++));
+			}
+			return count;
+		}
+
+		private static byte toByte(char c) {
+			return c < 0x80 ? (byte) c : (byte) 0x80;
+		}
+	}
+
+	private static class LimitedInputStream extends FilterInputStream {
+		private final long maximum;
+		private final String description;
+		private long count = 0;
+
+		LimitedInputStream(InputStream in, long maximum, String description) {
+			super(in);
+			this.maximum = maximum;
+			this.description = description;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if (result >= 0) {
+				count(1);
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int result = super.read(b, off, len);
+			if (result > 0) {
+				count(result);
+			}
+			return result;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long result = super.skip(n);
+			count(result);
+			return result;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private void count(long bytes) {
+			count += bytes;
+			if (count > maximum) {
+				throw new SamlException(description + " exceeds the maximum size of " + maximum + " bytes.");
+			}
+		}
+	}
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.security.saml.SamlException;
+import org.springframework.security.saml.SamlReplayCache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps used IDs in a database table that is shared by all nodes of a cluster,
+ * so that an ID is accepted once across the cluster.
+ * IDs are first checked against a local cache, replays received by the same node are rejected
+ * without a database round trip.
+ * <p>
+ * An ID is recorded by inserting the SHA-256 hash of the issuer and ID as the primary key,
+ * a duplicate key means the ID has been used, unless the existing row has expired.
+ * Expired rows are deleted periodically. Connections are expected to be in auto-commit mode.
+ * See {@link #createTable()} for the table definition.
+ */
+public class JdbcReplayCache implements SamlReplayCache {
+
+	private final DataSource dataSource;
+	private final Clock clock;
+	private final AtomicLong nextCleanup = new AtomicLong();
+	private SamlReplayCache localCache;
+	private String tableName = "saml_replay_cache";
+	private long cleanupIntervalMillis = 1000 * 60 * 5;
+
+	public JdbcReplayCache(DataSource dataSource, Clock clock) {
+		this.dataSource = dataSource;
+		this.clock = clock;
+		this.localCache = new DefaultReplayCache(clock);
+	}
+
+	@Override
+	public boolean checkAndRecord(String issuer, String id, long expires) {
+		if (localCache != null && !localCache.checkAndRecord(issuer, id, expires)) {
+			return false;
+		}
+		long now = clock.millis();
+		if (expires <= now) {
+			return true;
+		}
+		String key = hash(DefaultReplayCache.key(issuer, id));
+		try (Connection connection = dataSource.getConnection()) {
+			deleteExpired(connection, now);
+			try (PreparedStatement insert = connection.prepareStatement(
+				"INSERT INTO " + tableName + " (message_key, expires) VALUES (?, ?)"
+			)) {
+				insert.setString(1, key);
+				insert.setLong(2, expires);
+				insert.executeUpdate();
+				return true;
+			} catch (SQLException x) {
+				if (!isDuplicateKey(x)) {
+					throw x;
+				}
+			}
+			//the row of an expired ID may not have been deleted yet
+			try (PreparedStatement update = connection.prepareStatement(
+				"UPDATE " + tableName + " SET expires = ? WHERE message_key = ? AND expires <= ?"
+			)) {
+				update.setLong(1, expires);
+				update.setString(2, key);
+				update.setLong(3, now);
+				return update.executeUpdate() == 1;
+			}
+		} catch (SQLException x) {
+			throw new SamlException("Unable to record ID in replay cache table " + tableName, x);
+		}
+	}
+
+	/**
+	 * Creates the table, for example in an embedded database.
+	 */
+	public void createTable() {
+		try (Connection connection = dataSource.getConnection();
+			 Statement statement = connection.createStatement()) {
+			statement.executeUpdate(
+				"CREATE TABLE " + tableName + " (" +
+					"message_key CHAR(64) NOT NULL PRIMARY KEY, " +
+					"expires BIGINT NOT NULL" +
+					")"
+			);
+		} catch (SQLException x) {
+			throw new SamlException("Unable to create replay cache table " + tableName, x);
+		}
+	}
+
+	private void deleteExpired(Connection connection, long now) throws SQLException {
+		long next = nextCleanup.get();
+		if (now < next || !nextCleanup.compareAndSet(next, now + cleanupIntervalMillis)) {
+			return;
+		}
+		try (PreparedStatement delete = connection.prepareStatement(
+			"DELETE FROM " + tableName + " WHERE expires <= ?"
+		)) {
+			delete.setLong(1, now);
+			delete.executeUpdate();
+		}
+	}
+
+	private boolean isDuplicateKey(SQLException x) {
+		return x instanceof SQLIntegrityConstraintViolationException ||
+			(x.getSQLState() != null && x.getSQLState().startsWith("23"));
+	}
+
+	private String hash(String key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return new String(Hex.encode(digest.digest(key.getBytes(UTF_8))));
+		} catch (NoSuchAlgorithmException e) {
+			throw new SamlException(e);
+		}
+	}
+
+	public SamlReplayCache getLocalCache() {
+		return localCache;
+	}
+
+	/**
+	 * @param localCache the cache checked before the table, null to always check the table
+	 * @return this object
+	 */
+	public JdbcReplayCache setLocalCache(SamlReplayCache localCache) {
+		this.localCache = localCache;
+		return this;
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public JdbcReplayCache setTableName(String tableName) {
+		this.tableName = tableName;
+		return this;
+	}
+
+	public long getCleanupIntervalMillis() {
+		return cleanupIntervalMillis;
+	}
+
+	public JdbcReplayCache setCleanupIntervalMillis(long cleanupIntervalMillis) {
+		this.cleanupIntervalMillis = cleanupIntervalMillis;
+		return this;
+	}
+}
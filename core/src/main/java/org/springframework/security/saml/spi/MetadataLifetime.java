@@ -0,0 +1,138 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi;
+
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.springframework.security.saml.SamlException;
+
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * The validUntil and cacheDuration attributes of the root element of a metadata document.
+ * Only the root element is read, so this is cheap even for large aggregates.
+ */
+final class MetadataLifetime {
+
+	static final MetadataLifetime UNKNOWN = new MetadataLifetime(-1, -1);
+
+	private static final XMLInputFactory inputFactory = createInputFactory();
+	private static final DatatypeFactory datatypeFactory = createDatatypeFactory();
+
+	private final long validUntil;
+	private final long cacheDuration;
+
+	private MetadataLifetime(long validUntil, long cacheDuration) {
+		this.validUntil = validUntil;
+		this.cacheDuration = cacheDuration;
+	}
+
+	/**
+	 * @return expiration time in epoch milliseconds, or -1 if not present
+	 */
+	long getValidUntil() {
+		return validUntil;
+	}
+
+	/**
+	 * @return cache duration in milliseconds, or -1 if not present
+	 */
+	long getCacheDuration() {
+		return cacheDuration;
+	}
+
+	boolean isExpired(long now) {
+		return validUntil >= 0 && now > validUntil;
+	}
+
+	/**
+	 * Documents that can't be parsed, or have no lifetime attributes, yield {@link #UNKNOWN}.
+	 * Parse errors are reported when the metadata is resolved.
+	 *
+	 * @param data the metadata document
+	 * @return the lifetime published by the document
+	 */
+	static MetadataLifetime read(byte[] data) {
+		if (data == null || data.length == 0) {
+			return UNKNOWN;
+		}
+		XMLStreamReader reader = null;
+		try {
+			reader = inputFactory.createXMLStreamReader(new ByteArrayInputStream(data));
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+					return fromAttributes(
+						reader.getAttributeValue(null, "validUntil"),
+						reader.getAttributeValue(null, "cacheDuration")
+					);
+				}
+			}
+			return UNKNOWN;
+		} catch (XMLStreamException | IllegalArgumentException e) {
+			return UNKNOWN;
+		} finally {
+			close(reader);
+		}
+	}
+
+	private static MetadataLifetime fromAttributes(String validUntil, String cacheDuration) {
+		long until = -1;
+		long duration = -1;
+		if (hasText(validUntil)) {
+			until = datatypeFactory.newXMLGregorianCalendar(validUntil.trim())
+				.toGregorianCalendar()
+				.getTimeInMillis();
+		}
+		if (hasText(cacheDuration)) {
+			duration = datatypeFactory.newDuration(cacheDuration.trim()).getTimeInMillis(new Date(0));
+		}
+		return new MetadataLifetime(until, duration);
+	}
+
+	private static void close(XMLStreamReader reader) {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (XMLStreamException ignore) {
+			}
+		}
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		return factory;
+	}
+
+	private static DatatypeFactory createDatatypeFactory() {
+		try {
+			return DatatypeFactory.newInstance();
+		} catch (DatatypeConfigurationException e) {
+			throw new SamlException(e);
+		}
+	}
+}
@@ -17,14 +17,23 @@
 
 package org.springframework.security.saml.spi;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.time.Clock;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.xml.datatype.Duration;
 
+import org.springframework.security.saml.SamlException;
 import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.saml2.Saml2Object;
+import org.springframework.security.saml.saml2.metadata.Metadata;
+import org.springframework.security.saml.saml2.metadata.MetadataFilter;
 import org.springframework.security.saml.saml2.signature.Signature;
+import org.springframework.util.StreamUtils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Static utility class that serves as the delimiter between Spring Security SAML and underlying implementation.
@@ -35,6 +44,8 @@ public abstract class SpringSecuritySaml<T extends SpringSecuritySaml> {
 
 	private final AtomicBoolean hasInitCompleted = new AtomicBoolean(false);
 	private Clock time;
+	private long maxCompressedMessageSize = 1024 * 1024;
+	private long maxMessageSize = 10 * 1024 * 1024;
 
 	public SpringSecuritySaml(Clock time) {
 		this.time = time;
@@ -44,6 +55,34 @@ public abstract class SpringSecuritySaml<T extends SpringSecuritySaml> {
 		return time;
 	}
 
+	public long getMaxCompressedMessageSize() {
+		return maxCompressedMessageSize;
+	}
+
+	/**
+	 * @param maxCompressedMessageSize the maximum size in bytes of a deflated message before it is inflated
+	 * @return this object
+	 */
+	@SuppressWarnings("unchecked")
+	public T setMaxCompressedMessageSize(long maxCompressedMessageSize) {
+		this.maxCompressedMessageSize = maxCompressedMessageSize;
+		return (T) this;
+	}
+
+	public long getMaxMessageSize() {
+		return maxMessageSize;
+	}
+
+	/**
+	 * @param maxMessageSize the maximum size in bytes of a decoded, and inflated, message
+	 * @return this object
+	 */
+	@SuppressWarnings("unchecked")
+	public T setMaxMessageSize(long maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+		return (T) this;
+	}
+
 
 	@SuppressWarnings("checked")
 	public T init() {
@@ -70,6 +109,21 @@ public abstract class SpringSecuritySaml<T extends SpringSecuritySaml> {
 
 	public abstract String toXml(Saml2Object saml2Object);
 
+	/**
+	 * Writes the UTF-8 encoded XML of an object to a stream, the stream is not closed.
+	 * This implementation converts the object into a String first.
+	 *
+	 * @param saml2Object the object to convert
+	 * @param out         the stream to write to
+	 */
+	public void toXml(Saml2Object saml2Object, OutputStream out) {
+		try {
+			StreamUtils.copy(toXml(saml2Object), UTF_8, out);
+		} catch (IOException e) {
+			throw new SamlException(e);
+		}
+	}
+
 	public abstract Saml2Object resolve(
 		String xml, List<SimpleKey> verificationKeys, List<SimpleKey>
 		localKeys
@@ -77,8 +131,75 @@ public abstract class SpringSecuritySaml<T extends SpringSecuritySaml> {
 
 	public abstract Saml2Object resolve(byte[] xml, List<SimpleKey> trustedKeys, List<SimpleKey> localKeys);
 
+	/**
+	 * Resolves a message read from a stream, the stream is not closed.
+	 * This implementation reads the complete message into memory first.
+	 *
+	 * @param xml              the message
+	 * @param verificationKeys keys to validate the signatures with, nullable
+	 * @param localKeys        keys to decrypt the message with, nullable
+	 * @return the resolved message
+	 */
+	public Saml2Object resolve(InputStream xml, List<SimpleKey> verificationKeys, List<SimpleKey> localKeys) {
+		try {
+			return resolve(StreamUtils.copyToByteArray(xml), verificationKeys, localKeys);
+		} catch (IOException e) {
+			throw new SamlException(e);
+		}
+	}
+
 	public abstract Signature validateSignature(Saml2Object saml2Object, List<SimpleKey> trustedKeys);
 
+	/**
+	 * Resolves a metadata document into the chain of entities included by the filter.
+	 * This implementation resolves the complete document and removes the entities that are not included.
+	 *
+	 * @param xml              the metadata document
+	 * @param verificationKeys keys to validate the document signature with, nullable
+	 * @param filter           selects the entities to be returned
+	 * @return the first included entity, or null if none is included
+	 */
+	public Metadata resolveMetadata(byte[] xml, List<SimpleKey> verificationKeys, MetadataFilter filter) {
+		Saml2Object result = resolve(xml, verificationKeys, null);
+		if (!(result instanceof Metadata)) {
+			throw new SamlException("Not a metadata document:" + (result == null ? null : result.getClass()));
+		}
+		return filter.filter((Metadata) result);
+	}
+
+	/**
+	 * Validates the signature of a metadata document.
+	 * This implementation resolves the complete document.
+	 *
+	 * @param xml              the metadata document
+	 * @param verificationKeys keys to validate the document signature with
+	 * @return the validated signature, or null if the document is not signed
+	 */
+	public Signature validateMetadataSignature(byte[] xml, List<SimpleKey> verificationKeys) {
+		Metadata metadata = resolveMetadata(xml, verificationKeys, new MetadataFilter());
+		return metadata == null ? null : metadata.getSignature();
+	}
+
+	/**
+	 * Validates the signatures of an object resolved without verification keys.
+	 * This implementation resolves the original XML again.
+	 *
+	 * @param object           the resolved object
+	 * @param verificationKeys keys to validate the signatures with
+	 * @param localKeys        the decryption keys the object was resolved with
+	 * @param <O>              the type of the object
+	 * @return the object holding the validated signatures
+	 */
+	@SuppressWarnings("unchecked")
+	public <O extends Saml2Object> O validateSignatures(O object,
+														List<SimpleKey> verificationKeys,
+														List<SimpleKey> localKeys) {
+		if (object.getOriginalXML() == null) {
+			throw new SamlException("No original XML to validate signatures against.");
+		}
+		return (O) resolve(object.getOriginalXML(), verificationKeys, localKeys);
+	}
+
 	public String encode(byte[] b) {
 		return EncodingUtils.encode(b);
 	}
@@ -95,5 +216,17 @@ public abstract class SpringSecuritySaml<T extends SpringSecuritySaml> {
 		return EncodingUtils.inflate(b);
 	}
 
+	/**
+	 * Decodes, and optionally inflates, a message while it is read, enforcing
+	 * the maximum compressed and message sizes.
+	 *
+	 * @param s       the Base64 encoded message
+	 * @param inflate true if the message is deflated
+	 * @return the stream of the decoded message
+	 */
+	public InputStream decodingStream(String s, boolean inflate) {
+		return EncodingUtils.decodingStream(s, inflate, getMaxCompressedMessageSize(), getMaxMessageSize());
+	}
+
 
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Exclusive XML canonicalization, without comments, of an element subtree that is fed one
+ * event at a time. Used to verify enveloped signatures without holding the document in memory.
+ *
+ * @see <a href="https://www.w3.org/TR/xml-exc-c14n/">Exclusive XML Canonicalization</a>
+ */
+class ExclusiveCanonicalizer {
+
+	static final String ALGORITHM = "http://www.w3.org/2001/10/xml-exc-c14n#";
+
+	private static final Comparator<StreamedElement.Attribute> ATTRIBUTE_ORDER =
+		Comparator.comparing((StreamedElement.Attribute a) -> a.getNamespaceURI())
+			.thenComparing(StreamedElement.Attribute::getLocalName);
+
+	private final Writer out;
+	private final Set<String> inclusivePrefixes;
+	private final Deque<Map<String, String>> rendered = new ArrayDeque<>();
+	private final Deque<String> names = new ArrayDeque<>();
+
+	/**
+	 * @param out               receives the UTF-8 encoded canonical form
+	 * @param inclusivePrefixes the InclusiveNamespaces PrefixList, "#default" stands for the default namespace
+	 */
+	ExclusiveCanonicalizer(OutputStream out, Collection<String> inclusivePrefixes) {
+		this.out = new BufferedWriter(new OutputStreamWriter(out, UTF_8), 8192);
+		this.inclusivePrefixes = new LinkedHashSet<>();
+		for (String prefix : inclusivePrefixes) {
+			this.inclusivePrefixes.add("#default".equals(prefix) ? "" : prefix);
+		}
+		rendered.push(new HashMap<>());
+	}
+
+	/**
+	 * @param element the element
+	 * @param scope   resolves a prefix to the namespace URI in scope for the element, null if not declared
+	 */
+	void startElement(StreamedElement element, Function<String, String> scope) {
+		Set<String> utilized = new LinkedHashSet<>();
+		utilized.add(element.getPrefix());
+		for (StreamedElement.Attribute a : element.getAttributes()) {
+			if (!a.getPrefix().isEmpty()) {
+				utilized.add(a.getPrefix());
+			}
+		}
+		utilized.addAll(inclusivePrefixes);
+
+		Map<String, String> parent = rendered.peek();
+		TreeMap<String, String> declarations = new TreeMap<>();
+		for (String prefix : utilized) {
+			if ("xml".equals(prefix)) {
+				continue;
+			}
+			String uri = scope.apply(prefix);
+			if (prefix.isEmpty()) {
+				uri = uri == null ? "" : uri;
+				if (!uri.equals(parent.getOrDefault("", ""))) {
+					declarations.put(prefix, uri);
+				}
+			}
+			else if (uri != null && !uri.equals(parent.get(prefix))) {
+				declarations.put(prefix, uri);
+			}
+		}
+
+		List<StreamedElement.Attribute> attributes = new ArrayList<>(element.getAttributes());
+		attributes.sort(ATTRIBUTE_ORDER);
+
+		write("<");
+		write(element.getQName());
+		for (Map.Entry<String, String> declaration : declarations.entrySet()) {
+			write(declaration.getKey().isEmpty() ? " xmlns=\"" : " xmlns:" + declaration.getKey() + "=\"");
+			writeAttributeValue(declaration.getValue());
+			write("\"");
+		}
+		for (StreamedElement.Attribute a : attributes) {
+			write(" ");
+			write(a.getQName());
+			write("=\"");
+			writeAttributeValue(a.getValue());
+			write("\"");
+		}
+		write(">");
+
+		if (declarations.isEmpty()) {
+			rendered.push(parent);
+		}
+		else {
+			Map<String, String> current = new HashMap<>(parent);
+			current.putAll(declarations);
+			rendered.push(current);
+		}
+		names.push(element.getQName());
+	}
+
+	void endElement() {
+		write("</");
+		write(names.pop());
+		write(">");
+		rendered.pop();
+	}
+
+	void characters(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '&':
+					write("&amp;");
+					break;
+				case '<':
+					write("&lt;");
+					break;
+				case '>':
+					write("&gt;");
+					break;
+				case '\r':
+					write("&#xD;");
+					break;
+				default:
+					write(c);
+			}
+		}
+	}
+
+	void processingInstruction(String target, String data) {
+		write("<?");
+		write(target);
+		if (data != null && !data.isEmpty()) {
+			write(" ");
+			write(data);
+		}
+		write("?>");
+	}
+
+	void flush() {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void writeAttributeValue(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '&':
+					write("&amp;");
+					break;
+				case '<':
+					write("&lt;");
+					break;
+				case '"':
+					write("&quot;");
+					break;
+				case '\t':
+					write("&#x9;");
+					break;
+				case '\n':
+					write("&#xA;");
+					break;
+				case '\r':
+					write("&#xD;");
+					break;
+				default:
+					write(c);
+			}
+		}
+	}
+
+	private void write(String s) {
+		try {
+			out.write(s);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void write(char c) {
+		try {
+			out.write(c);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.math.BigInteger;
+import java.security.KeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import javax.security.auth.x500.X500Principal;
+
+import org.springframework.security.saml.SamlKeyException;
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.util.ExpiringMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.x509.X509Credential;
+import org.opensaml.xmlsec.keyinfo.KeyInfoSupport;
+import org.opensaml.xmlsec.signature.KeyInfo;
+import org.opensaml.xmlsec.signature.KeyName;
+import org.opensaml.xmlsec.signature.X509Data;
+import org.opensaml.xmlsec.signature.X509IssuerSerial;
+
+/**
+ * Selects, from a list of keys, the keys identified by a KeyInfo.
+ * A key is identified by the digest of its X509 certificate, the issuer and serial number of
+ * its certificate, its name, the subject of its certificate, or its public key.
+ * The identities of the keys are derived from their credentials once, and cached.
+ */
+class KeyInfoKeySelector {
+
+	private static final Log logger = LogFactory.getLog(KeyInfoKeySelector.class);
+
+	private final Function<SimpleKey, String> ids;
+	private final Function<SimpleKey, Credential> credentials;
+	private final ExpiringMap<String, KeyIdentity> identities;
+
+	KeyInfoKeySelector(Function<SimpleKey, String> ids,
+					   Function<SimpleKey, Credential> credentials,
+					   ExpiringMap<String, KeyIdentity> identities) {
+		this.ids = ids;
+		this.credentials = credentials;
+		this.identities = identities;
+	}
+
+	void clear() {
+		identities.clear();
+	}
+
+	/**
+	 * @param keyInfos the KeyInfo elements identifying the key
+	 * @param keys     the keys to select from
+	 * @return the identified keys in their original order, empty if no key is identified,
+	 * or null if the KeyInfo elements identify no key at all
+	 */
+	List<SimpleKey> select(List<KeyInfo> keyInfos, List<SimpleKey> keys) {
+		Hints hints = new Hints();
+		for (KeyInfo keyInfo : keyInfos) {
+			hints.add(keyInfo);
+		}
+		if (hints.isEmpty()) {
+			return null;
+		}
+		List<SimpleKey> result = new LinkedList<>();
+		for (SimpleKey key : keys) {
+			KeyIdentity identity = getIdentity(key);
+			if (identity != null && hints.matches(identity)) {
+				result.add(key);
+			}
+		}
+		return result;
+	}
+
+	private KeyIdentity getIdentity(SimpleKey key) {
+		String id = ids.apply(key);
+		KeyIdentity result = identities.get(id);
+		if (result == null) {
+			Credential credential = credentials.apply(key);
+			if (credential == null) {
+				return null;
+			}
+			result = new KeyIdentity(key.getName(), credential);
+			identities.put(id, result);
+		}
+		return result;
+	}
+
+	static String fingerprint(byte[] der) {
+		try {
+			return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(der));
+		} catch (NoSuchAlgorithmException e) {
+			throw new SamlKeyException(e);
+		}
+	}
+
+	static class KeyIdentity {
+		private final String name;
+		private final String fingerprint;
+		private final X500Principal issuer;
+		private final BigInteger serial;
+		private final X500Principal subject;
+		private final PublicKey publicKey;
+
+		KeyIdentity(String name, Credential credential) {
+			this.name = name;
+			this.publicKey = credential.getPublicKey();
+			X509Certificate certificate = credential instanceof X509Credential ?
+				((X509Credential) credential).getEntityCertificate() :
+				null;
+			if (certificate != null) {
+				String digest = null;
+				try {
+					digest = fingerprint(certificate.getEncoded());
+				} catch (CertificateEncodingException e) {
+					logger.debug("Unable to encode certificate of key:" + name, e);
+				}
+				this.fingerprint = digest;
+				this.issuer = certificate.getIssuerX500Principal();
+				this.serial = certificate.getSerialNumber();
+				this.subject = certificate.getSubjectX500Principal();
+			}
+			else {
+				this.fingerprint = null;
+				this.issuer = null;
+				this.serial = null;
+				this.subject = null;
+			}
+		}
+	}
+
+	private static class Hints {
+		private final Set<String> fingerprints = new HashSet<>();
+		private final List<X500Principal> issuers = new ArrayList<>();
+		private final List<BigInteger> serials = new ArrayList<>();
+		private final Set<String> names = new HashSet<>();
+		private final List<PublicKey> publicKeys = new ArrayList<>();
+
+		void add(KeyInfo keyInfo) {
+			for (X509Data data : keyInfo.getX509Datas()) {
+				for (org.opensaml.xmlsec.signature.X509Certificate certificate : data.getX509Certificates()) {
+					if (certificate.getValue() != null) {
+						try {
+							fingerprints.add(fingerprint(Base64.getMimeDecoder().decode(certificate.getValue())));
+						} catch (IllegalArgumentException e) {
+							logger.debug("Ignoring invalid X509Certificate in KeyInfo", e);
+						}
+					}
+				}
+				for (X509IssuerSerial issuerSerial : data.getX509IssuerSerials()) {
+					if (issuerSerial.getX509IssuerName() != null &&
+						issuerSerial.getX509IssuerName().getValue() != null &&
+						issuerSerial.getX509SerialNumber() != null &&
+						issuerSerial.getX509SerialNumber().getValue() != null) {
+						try {
+							issuers.add(new X500Principal(issuerSerial.getX509IssuerName().getValue()));
+							serials.add(issuerSerial.getX509SerialNumber().getValue());
+						} catch (IllegalArgumentException e) {
+							logger.debug("Ignoring invalid X509IssuerName in KeyInfo", e);
+						}
+					}
+				}
+			}
+			for (KeyName name : keyInfo.getKeyNames()) {
+				if (name.getValue() != null) {
+					names.add(name.getValue().trim());
+				}
+			}
+			if (!keyInfo.getKeyValues().isEmpty() || !keyInfo.getDEREncodedKeyValues().isEmpty()) {
+				try {
+					publicKeys.addAll(KeyInfoSupport.getPublicKeys(keyInfo));
+				} catch (KeyException e) {
+					logger.debug("Ignoring invalid KeyValue in KeyInfo", e);
+				}
+			}
+		}
+
+		boolean isEmpty() {
+			return fingerprints.isEmpty() && issuers.isEmpty() && names.isEmpty() && publicKeys.isEmpty();
+		}
+
+		boolean matches(KeyIdentity identity) {
+			if (identity.fingerprint != null && fingerprints.contains(identity.fingerprint)) {
+				return true;
+			}
+			for (int i = 0; i < issuers.size(); i++) {
+				if (issuers.get(i).equals(identity.issuer) && serials.get(i).equals(identity.serial)) {
+					return true;
+				}
+			}
+			if (names.contains(identity.name)) {
+				return true;
+			}
+			if (identity.subject != null) {
+				for (String name : names) {
+					try {
+						if (identity.subject.equals(new X500Principal(name))) {
+							return true;
+						}
+					} catch (IllegalArgumentException e) {
+						//not a distinguished name
+					}
+				}
+			}
+			return identity.publicKey != null && publicKeys.contains(identity.publicKey);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how the keys used to validate signatures, or to decrypt elements, were selected.
+ */
+public class KeySelectionMetrics {
+
+	private final AtomicLong directed = new AtomicLong();
+	private final AtomicLong undirected = new AtomicLong();
+	private final AtomicLong fallbacks = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @return the number of times the keys were selected by the KeyInfo
+	 */
+	public long getDirected() {
+		return directed.get();
+	}
+
+	/**
+	 * @return the number of times there was no KeyInfo to select by, and more than one key was tried
+	 */
+	public long getUndirected() {
+		return undirected.get();
+	}
+
+	/**
+	 * @return the number of times no key matched the KeyInfo, and all keys were tried
+	 */
+	public long getFallbacks() {
+		return fallbacks.get();
+	}
+
+	/**
+	 * @return the number of times no key matched the KeyInfo, and no key was tried
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public void reset() {
+		directed.set(0);
+		undirected.set(0);
+		fallbacks.set(0);
+		rejected.set(0);
+	}
+
+	void directed() {
+		directed.incrementAndGet();
+	}
+
+	void undirected() {
+		undirected.incrementAndGet();
+	}
+
+	void fallback() {
+		fallbacks.incrementAndGet();
+	}
+
+	void rejected() {
+		rejected.incrementAndGet();
+	}
+
+	@Override
+	public String toString() {
+		return "KeySelectionMetrics{" +
+			"directed=" + directed +
+			", undirected=" + undirected +
+			", fallbacks=" + fallbacks +
+			", rejected=" + rejected +
+			'}';
+	}
+}
@@ -18,11 +18,14 @@
 package org.springframework.security.saml.spi.opensaml;
 
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.time.Clock;
@@ -33,11 +36,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.crypto.SecretKey;
 import javax.xml.datatype.Duration;
 import javax.xml.namespace.QName;
 
+import org.springframework.security.crypto.codec.Hex;
 import org.springframework.security.saml.SamlException;
 import org.springframework.security.saml.SamlKeyException;
 import org.springframework.security.saml.key.KeyType;
@@ -76,6 +81,7 @@ import org.springframework.security.saml.saml2.metadata.Endpoint;
 import org.springframework.security.saml.saml2.metadata.IdentityProvider;
 import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata;
 import org.springframework.security.saml.saml2.metadata.Metadata;
+import org.springframework.security.saml.saml2.metadata.MetadataFilter;
 import org.springframework.security.saml.saml2.metadata.NameId;
 import org.springframework.security.saml.saml2.metadata.Provider;
 import org.springframework.security.saml.saml2.metadata.ServiceProvider;
@@ -87,6 +93,7 @@ import org.springframework.security.saml.saml2.signature.DigestMethod;
 import org.springframework.security.saml.saml2.signature.Signature;
 import org.springframework.security.saml.spi.SamlKeyStoreProvider;
 import org.springframework.security.saml.spi.SpringSecuritySaml;
+import org.springframework.security.saml.util.ExpiringMap;
 import org.springframework.util.CollectionUtils;
 
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
@@ -181,6 +188,8 @@ import org.opensaml.security.credential.UsageType;
 import org.opensaml.security.credential.impl.KeyStoreCredentialResolver;
 import org.opensaml.xmlsec.SignatureSigningParameters;
 import org.opensaml.xmlsec.config.DefaultSecurityConfigurationBootstrap;
+import org.opensaml.xmlsec.encryption.EncryptedData;
+import org.opensaml.xmlsec.encryption.EncryptedKey;
 import org.opensaml.xmlsec.encryption.support.ChainingEncryptedKeyResolver;
 import org.opensaml.xmlsec.encryption.support.DataEncryptionParameters;
 import org.opensaml.xmlsec.encryption.support.DecryptionException;
@@ -203,6 +212,7 @@ import org.opensaml.xmlsec.signature.support.SignatureValidator;
 import org.opensaml.xmlsec.signature.support.Signer;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.ls.LSException;
 
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
@@ -223,10 +233,50 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 	private BasicParserPool parserPool;
 	private ChainingEncryptedKeyResolver encryptedKeyResolver;
 	private SamlKeyStoreProvider samlKeyStoreProvider = new SamlKeyStoreProvider() {};
+	private final ExpiringMap<String, Credential> credentials;
+	private final KeyInfoKeySelector keySelector;
+	private final KeySelectionMetrics signatureKeyMetrics = new KeySelectionMetrics();
+	private final KeySelectionMetrics decryptionKeyMetrics = new KeySelectionMetrics();
+	private boolean keyTrialFallback = false;
 
 	public OpenSamlImplementation(Clock time) {
 		super(time);
 		this.parserPool = new BasicParserPool();
+		this.credentials = new ExpiringMap<String, Credential>(time)
+			.setExpirationTimeMillis(1000 * 60 * 60)
+			.setMaximumSize(1000);
+		this.keySelector = new KeyInfoKeySelector(
+			this::getCredentialId,
+			this::getCredential,
+			new ExpiringMap<String, KeyInfoKeySelector.KeyIdentity>(time)
+				.setExpirationTimeMillis(1000 * 60 * 60)
+				.setMaximumSize(1000)
+		);
+	}
+
+	public boolean isKeyTrialFallback() {
+		return keyTrialFallback;
+	}
+
+	/**
+	 * Keys are selected by the KeyInfo of a signature, or of an encrypted element.
+	 * All keys are tried only if there is no KeyInfo to select by, or if this fallback is enabled
+	 * and no key matches the KeyInfo.
+	 *
+	 * @param keyTrialFallback true if all keys should be tried when no key matches the KeyInfo
+	 * @return this object
+	 */
+	public OpenSamlImplementation setKeyTrialFallback(boolean keyTrialFallback) {
+		this.keyTrialFallback = keyTrialFallback;
+		return this;
+	}
+
+	public KeySelectionMetrics getSignatureKeyMetrics() {
+		return signatureKeyMetrics;
+	}
+
+	public KeySelectionMetrics getDecryptionKeyMetrics() {
+		return decryptionKeyMetrics;
 	}
 
 	public SamlKeyStoreProvider getSamlKeyStoreProvider() {
@@ -235,9 +285,23 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 
 	public OpenSamlImplementation setSamlKeyStoreProvider(SamlKeyStoreProvider samlKeyStoreProvider) {
 		this.samlKeyStoreProvider = samlKeyStoreProvider;
+		clearCredentials();
 		return this;
 	}
 
+	/**
+	 * @return the cache of resolved credentials, keyed by a digest of the key they were resolved from.
+	 * Entries that haven't been used for an hour expire.
+	 */
+	public ExpiringMap<String, Credential> getCredentials() {
+		return credentials;
+	}
+
+	public void clearCredentials() {
+		credentials.clear();
+		keySelector.clear();
+	}
+
 	public BasicParserPool getParserPool() {
 		return parserPool;
 	}
@@ -372,6 +436,19 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 
 	@Override
 	public String toXml(Saml2Object saml2Object) {
+		return marshallToXml(toXmlObject(saml2Object));
+	}
+
+	@Override
+	public void toXml(Saml2Object saml2Object, OutputStream out) {
+		try {
+			SerializeSupport.writeNode(marshall(toXmlObject(saml2Object)), out);
+		} catch (LSException e) {
+			throw new SamlException(e);
+		}
+	}
+
+	protected XMLObject toXmlObject(Saml2Object saml2Object) {
 		XMLObject result = null;
 		if (saml2Object instanceof AuthenticationRequest) {
 			result = internalToXml((AuthenticationRequest) saml2Object);
@@ -392,7 +469,7 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 			result = internalToXml((LogoutResponse) saml2Object);
 		}
 		if (result != null) {
-			return marshallToXml(result);
+			return result;
 		}
 		throw new SamlException("To xml transformation not supported for: " +
 			saml2Object != null ?
@@ -407,7 +484,27 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 	}
 
 	public Saml2Object resolve(byte[] xml, List<SimpleKey> verificationKeys, List<SimpleKey> localKeys) {
+		return resolve(parse(xml), () -> new String(xml, StandardCharsets.UTF_8), verificationKeys, localKeys);
+	}
+
+	/**
+	 * Parses the message while it is read, the original XML is serialized from the DOM when requested.
+	 */
+	@Override
+	public Saml2Object resolve(InputStream xml, List<SimpleKey> verificationKeys, List<SimpleKey> localKeys) {
 		XMLObject parsed = parse(xml);
+		return resolve(
+			parsed,
+			() -> parsed.getDOM() == null ? null : SerializeSupport.nodeToString(parsed.getDOM()),
+			verificationKeys,
+			localKeys
+		);
+	}
+
+	protected Saml2Object resolve(XMLObject parsed,
+								  Supplier<String> originalXML,
+								  List<SimpleKey> verificationKeys,
+								  List<SimpleKey> localKeys) {
 		Signature signature = validateSignature((SignableSAMLObject) parsed, verificationKeys);
 		Saml2Object result = null;
 		if (parsed instanceof EntityDescriptor) {
@@ -447,13 +544,152 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 		if (result != null) {
 			if (result instanceof ImplementationHolder) {
 				((ImplementationHolder) result).setImplementation(parsed);
-				((ImplementationHolder) result).setOriginalXML(new String(xml, StandardCharsets.UTF_8));
+				((ImplementationHolder) result).setOriginalXMLSupplier(originalXML);
 			}
 			return result;
 		}
 		throw new SamlException("Deserialization not yet supported for class: " + parsed.getClass());
 	}
 
+	/**
+	 * Streams the document, only the entities included by the filter are unmarshalled.
+	 * Documents that can't be streamed are parsed into a DOM instead.
+	 */
+	@Override
+	public Metadata resolveMetadata(byte[] xml, List<SimpleKey> verificationKeys, MetadataFilter filter) {
+		List<Metadata> entities = new LinkedList<>();
+		Signature signature;
+		try {
+			signature = new StreamingMetadataParser(this::newDocument, filter, verificationKeys).parse(
+				xml,
+				(element, root) -> entities.add(resolveMetadata(element, root ? null : verificationKeys))
+			);
+		} catch (StreamingMetadataParser.UnsupportedDocumentException e) {
+			logger.debug("Unable to stream metadata document, parsing it instead. " + e.getMessage());
+			return resolveMetadataDocument(xml, verificationKeys, filter);
+		}
+		return link(entities, signature);
+	}
+
+	/**
+	 * Verifies the signature of a metadata document without resolving any of its entities.
+	 */
+	@Override
+	public Signature validateMetadataSignature(byte[] xml, List<SimpleKey> verificationKeys) {
+		try {
+			return new StreamingMetadataParser(this::newDocument, new MetadataFilter(), verificationKeys)
+				.parse(xml, null);
+		} catch (StreamingMetadataParser.UnsupportedDocumentException e) {
+			logger.debug("Unable to stream metadata document, parsing it instead. " + e.getMessage());
+			return validateSignature((SignableSAMLObject) parse(xml), verificationKeys);
+		}
+	}
+
+	protected Metadata resolveMetadataDocument(byte[] xml, List<SimpleKey> verificationKeys, MetadataFilter filter) {
+		XMLObject parsed = parse(xml);
+		if (!(parsed instanceof EntityDescriptor) && !(parsed instanceof EntitiesDescriptor)) {
+			throw new SamlException("Not a metadata document:" + parsed.getClass().getName());
+		}
+		Signature signature = validateSignature((SignableSAMLObject) parsed, verificationKeys);
+		Metadata result = parsed instanceof EntityDescriptor ?
+			resolveMetadata((EntityDescriptor) parsed) :
+			resolveMetadata((EntitiesDescriptor) parsed, verificationKeys, null);
+		List<Metadata> entities = new LinkedList<>();
+		for (Metadata m = filter.filter(result); m != null; m = (Metadata) m.getNext()) {
+			entities.add(m);
+		}
+		return link(entities, signature);
+	}
+
+	private Metadata resolveMetadata(Element element, List<SimpleKey> verificationKeys) {
+		try {
+			EntityDescriptor descriptor =
+				(EntityDescriptor) getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
+			Metadata result = resolveMetadata(descriptor);
+			if (verificationKeys != null) {
+				result.setSignature(validateSignature(descriptor, verificationKeys));
+			}
+			result.setImplementation(descriptor);
+			return result;
+		} catch (UnmarshallingException e) {
+			throw new SamlException(e);
+		}
+	}
+
+	private Metadata link(List<Metadata> entities, Signature signature) {
+		Metadata previous = null;
+		for (Metadata m : entities) {
+			m.setNext(null);
+			if (previous != null) {
+				previous.setNext(m);
+			}
+			previous = m;
+		}
+		Metadata result = entities.isEmpty() ? null : entities.get(0);
+		if (result != null && signature != null) {
+			result.setSignature(signature);
+		}
+		return result;
+	}
+
+	private Document newDocument() {
+		try {
+			return getParserPool().newDocument();
+		} catch (XMLParserException e) {
+			throw new SamlException(e);
+		}
+	}
+
+	/**
+	 * Validates the signatures against the unmarshalled objects held by the resolved object,
+	 * so the message is neither parsed nor decrypted again. Objects that don't hold them are resolved again.
+	 */
+	@Override
+	public <O extends Saml2Object> O validateSignatures(O object,
+														List<SimpleKey> verificationKeys,
+														List<SimpleKey> localKeys) {
+		if (!isUnmarshalled(object)) {
+			return super.validateSignatures(object, verificationKeys, localKeys);
+		}
+		Signature signature = validateSignature((SignableSAMLObject) object.getImplementation(), verificationKeys);
+		if (object instanceof Response) {
+			Response response = (Response) object;
+			response.setSignature(signature);
+			for (Assertion assertion : response.getAssertions()) {
+				assertion.setSignature(
+					validateSignature((SignableSAMLObject) assertion.getImplementation(), verificationKeys)
+				);
+			}
+		}
+		else if (object instanceof Assertion) {
+			((Assertion) object).setSignature(signature);
+		}
+		else if (object instanceof AuthenticationRequest) {
+			((AuthenticationRequest) object).setSignature(signature);
+		}
+		else if (object instanceof LogoutRequest) {
+			((LogoutRequest) object).setSignature(signature);
+		}
+		else if (object instanceof LogoutResponse) {
+			((LogoutResponse) object).setSignature(signature);
+		}
+		return object;
+	}
+
+	private boolean isUnmarshalled(Saml2Object object) {
+		if (object instanceof Metadata || !(object.getImplementation() instanceof SignableSAMLObject)) {
+			return false;
+		}
+		if (object instanceof Response) {
+			for (Assertion assertion : ((Response) object).getAssertions()) {
+				if (!(assertion.getImplementation() instanceof SignableSAMLObject)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public Signature validateSignature(Saml2Object saml2Object, List<SimpleKey> trustedKeys) {
 		if (saml2Object == null || saml2Object.getImplementation() == null) {
@@ -478,9 +714,14 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 		Signature result = null;
 		if (object.isSigned() && keys != null && !keys.isEmpty()) {
 			SignatureException last = null;
-			for (SimpleKey key : keys) {
+			List<SimpleKey> candidates = selectKeys(
+				ofNullable(object.getSignature().getKeyInfo()).map(Collections::singletonList).orElse(emptyList()),
+				keys,
+				signatureKeyMetrics
+			);
+			for (SimpleKey key : candidates) {
 				try {
-					Credential credential = getCredential(key, getCredentialsResolver(key));
+					Credential credential = getCredential(key);
 					SignatureValidator.validate(object.getSignature(), credential);
 					last = null;
 					result = getSignature(object)
@@ -491,7 +732,7 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 					last = e;
 				}
 			}
-			if (last != null) {
+			if (result == null) {
 				throw new org.springframework.security.saml.saml2.signature.SignatureException(
 					"Signature validation against a " + object.getClass().getName() +
 						" object failed using " + keys.size() + (keys.size() == 1 ? " key." : " keys."),
@@ -502,6 +743,74 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 		return result;
 	}
 
+	/**
+	 * Selects the keys identified by the KeyInfo elements.
+	 *
+	 * @param keyInfos the KeyInfo elements of a signature or an encrypted element
+	 * @param keys     the keys to select from
+	 * @param metrics  counts how the keys were selected
+	 * @return the keys to try, empty if none should be tried
+	 */
+	protected List<SimpleKey> selectKeys(List<KeyInfo> keyInfos, List<SimpleKey> keys, KeySelectionMetrics metrics) {
+		List<SimpleKey> result = keySelector.select(keyInfos, keys);
+		if (result == null) {
+			if (keys.size() > 1) {
+				metrics.undirected();
+			}
+			return keys;
+		}
+		else if (!result.isEmpty()) {
+			metrics.directed();
+			return result;
+		}
+		else if (isKeyTrialFallback()) {
+			metrics.fallback();
+			logger.debug("No key matches the KeyInfo, trying all " + keys.size() + " keys.");
+			return keys;
+		}
+		else {
+			metrics.rejected();
+			logger.debug("No key matches the KeyInfo, none of the " + keys.size() + " keys is tried.");
+			return emptyList();
+		}
+	}
+
+	/**
+	 * Returns the credential of a key, building a key store and parsing the certificate and
+	 * private key only the first time the key is used. Cached credentials are keyed by a digest
+	 * of the name, certificate, private key and passphrase, so a rotated key never resolves
+	 * the credential of the key it replaces.
+	 *
+	 * @param key the key to resolve
+	 * @return the credential of the key
+	 */
+	public Credential getCredential(SimpleKey key) {
+		String id = getCredentialId(key);
+		Credential result = credentials.get(id);
+		if (result == null) {
+			result = getCredential(key, getCredentialsResolver(key));
+			if (result != null) {
+				credentials.put(id, result);
+			}
+		}
+		return result;
+	}
+
+	protected String getCredentialId(SimpleKey key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String value : asList(key.getName(), key.getCertificate(), key.getPrivateKey(), key.getPassphrase())) {
+				if (value != null) {
+					digest.update(value.getBytes(StandardCharsets.UTF_8));
+				}
+				digest.update((byte) 0);
+			}
+			return new String(Hex.encode(digest.digest()));
+		} catch (NoSuchAlgorithmException e) {
+			throw new SamlKeyException(e);
+		}
+	}
+
 	public Credential getCredential(SimpleKey key, KeyStoreCredentialResolver resolver) {
 		try {
 			CriteriaSet cs = new CriteriaSet();
@@ -573,24 +882,47 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 
 	protected SAMLObject decrypt(EncryptedElementType encrypted, List<SimpleKey> keys) {
 		DecryptionException last = null;
-		for (SimpleKey key : keys) {
+		List<SimpleKey> candidates = selectKeys(getKeyInfos(encrypted), keys, decryptionKeyMetrics);
+		if (candidates.isEmpty()) {
+			throw new SamlKeyException(
+				keys.isEmpty() ? "No decryption key available." : "No decryption key matches the KeyInfo."
+			);
+		}
+		for (SimpleKey key : candidates) {
 			Decrypter decrypter = getDecrypter(key);
 			try {
 				return (SAMLObject) decrypter.decryptData(encrypted.getEncryptedData());
 			} catch (DecryptionException e) {
 				logger.debug(format("Unable to decrypt element:%s", encrypted), e);
+				last = e;
 			}
 		}
-		if (last != null) {
-			throw new SamlKeyException("Unable to decrypt object.", last);
+		throw new SamlKeyException("Unable to decrypt object.", last);
+	}
+
+	protected List<KeyInfo> getKeyInfos(EncryptedElementType encrypted) {
+		List<KeyInfo> result = new LinkedList<>();
+		EncryptedData data = encrypted.getEncryptedData();
+		if (data != null && data.getKeyInfo() != null) {
+			result.add(data.getKeyInfo());
+			for (EncryptedKey key : data.getKeyInfo().getEncryptedKeys()) {
+				if (key.getKeyInfo() != null) {
+					result.add(key.getKeyInfo());
+				}
+			}
 		}
-		return null;
+		for (EncryptedKey key : encrypted.getEncryptedKeys()) {
+			if (key.getKeyInfo() != null) {
+				result.add(key.getKeyInfo());
+			}
+		}
+		return result;
 	}
 
 	protected Encrypter getEncrypter(SimpleKey key,
 									 KeyEncryptionMethod keyAlgorithm,
 									 DataEncryptionMethod dataAlgorithm) {
-		Credential credential = getCredential(key, getCredentialsResolver(key));
+		Credential credential = getCredential(key);
 
 		SecretKey secretKey = generateKeyFromURI(dataAlgorithm);
 		BasicCredential dataCredential = new BasicCredential(secretKey);
@@ -618,7 +950,7 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 	}
 
 	protected Decrypter getDecrypter(SimpleKey key) {
-		Credential credential = getCredential(key, getCredentialsResolver(key));
+		Credential credential = getCredential(key);
 		KeyInfoCredentialResolver resolver = new StaticKeyInfoCredentialResolver(credential);
 		Decrypter decrypter = new Decrypter(null, resolver, encryptedKeyResolver);
 		decrypter.setRootInNewDocument(true);
@@ -626,8 +958,12 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 	}
 
 	protected XMLObject parse(byte[] xml) {
+		return parse(new ByteArrayInputStream(xml));
+	}
+
+	protected XMLObject parse(InputStream xml) {
 		try {
-			Document document = getParserPool().parse(new ByteArrayInputStream(xml));
+			Document document = getParserPool().parse(xml);
 			Element element = document.getDocumentElement();
 			return getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
 		} catch (UnmarshallingException | XMLParserException e) {
@@ -1201,11 +1537,14 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 	}
 
 	protected String marshallToXml(XMLObject auth) {
+		return SerializeSupport.nodeToString(marshall(auth));
+	}
+
+	protected Element marshall(XMLObject auth) {
 		try {
-			Element element = getMarshallerFactory()
+			return getMarshallerFactory()
 				.getMarshaller(auth)
 				.marshall(auth);
-			return SerializeSupport.nodeToString(element);
 		} catch (MarshallingException e) {
 			throw new SamlException(e);
 		}
@@ -1348,7 +1687,9 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 		List<SimpleKey> localKeys
 	) {
 		Signature signature = validateSignature(parsed, verificationKeys);
-		return new Assertion()
+		Assertion result = new Assertion();
+		result.setImplementation(parsed);
+		return result
 			.setSignature(signature)
 			.setId(parsed.getID())
 			.setIssueInstant(parsed.getIssueInstant())
@@ -1650,21 +1991,20 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 	protected Metadata resolveMetadata(EntitiesDescriptor parsed,
 									   List<SimpleKey> verificationKeys,
 									   List<SimpleKey> localKeys) {
-		Metadata result = null, current = null;
+		List<Metadata> entities = new LinkedList<>();
+		addEntities(parsed, verificationKeys, entities);
+		return link(entities, null);
+	}
+
+	private void addEntities(EntitiesDescriptor parsed, List<SimpleKey> verificationKeys, List<Metadata> entities) {
 		for (EntityDescriptor desc : parsed.getEntityDescriptors()) {
-			if (result == null) {
-				result = resolveMetadata(desc);
-				current = result;
-			}
-			else {
-				Metadata m = resolveMetadata(desc);
-				current.setNext(m);
-				current = m;
-			}
-			Signature signature = validateSignature(desc, verificationKeys);
-			current.setSignature(signature);
+			Metadata m = resolveMetadata(desc);
+			m.setSignature(validateSignature(desc, verificationKeys));
+			entities.add(m);
+		}
+		for (EntitiesDescriptor nested : parsed.getEntitiesDescriptors()) {
+			addEntities(nested, verificationKeys, entities);
 		}
-		return result;
 	}
 
 	protected Metadata resolveMetadata(EntityDescriptor parsed) {
@@ -1834,8 +2174,7 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 				.getBuilder(KeyDescriptor.DEFAULT_ELEMENT_NAME);
 		KeyDescriptor descriptor = builder.buildObject();
 
-		KeyStoreCredentialResolver resolver = getCredentialsResolver(key);
-		Credential credential = getCredential(key, resolver);
+		Credential credential = getCredential(key);
 		try {
 			KeyInfo info = getKeyInfoGenerator(credential).generate(credential);
 			descriptor.setKeyInfo(info);
@@ -1862,8 +2201,7 @@ public class OpenSamlImplementation extends SpringSecuritySaml<OpenSamlImplement
 						   AlgorithmMethod algorithm,
 						   DigestMethod digest) {
 
-		KeyStoreCredentialResolver resolver = getCredentialsResolver(key);
-		Credential credential = getCredential(key, resolver);
+		Credential credential = getCredential(key);
 
 		XMLObjectBuilder<org.opensaml.xmlsec.signature.Signature> signatureBuilder =
 			(XMLObjectBuilder<org.opensaml.xmlsec.signature.Signature>) getBuilderFactory()
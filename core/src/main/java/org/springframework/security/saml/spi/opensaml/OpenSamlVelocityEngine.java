@@ -19,19 +19,31 @@ package org.springframework.security.saml.spi.opensaml;
 
 import java.io.Writer;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.servlet.http.HttpServletRequest;
 
+import org.springframework.security.saml.SamlException;
 import org.springframework.security.saml.SamlTemplateEngine;
 
 import net.shibboleth.utilities.java.support.velocity.VelocityEngine;
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
+import org.apache.velocity.exception.VelocityException;
 import org.apache.velocity.runtime.log.NullLogChute;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+/**
+ * Renders Velocity templates from the classpath.
+ * The Velocity runtime is initialized once, on first use or by {@link #preload(String...)},
+ * and each template is parsed once and shared between threads.
+ */
 public class OpenSamlVelocityEngine implements SamlTemplateEngine {
 
 	private final boolean disableVelocityLog;
+	private final ConcurrentMap<String, Template> templates = new ConcurrentHashMap<>();
+	private volatile org.apache.velocity.app.VelocityEngine velocityEngine;
 
 	public OpenSamlVelocityEngine() {
 		this(true);
@@ -41,6 +53,19 @@ public class OpenSamlVelocityEngine implements SamlTemplateEngine {
 		this.disableVelocityLog = disableVelocityLog;
 	}
 
+	/**
+	 * Initializes the Velocity runtime and parses the templates, so that the first
+	 * requests rendering them don't have to.
+	 *
+	 * @param templateIds the templates to parse
+	 * @return this object
+	 */
+	public OpenSamlVelocityEngine preload(String... templateIds) {
+		for (String templateId : templateIds) {
+			getTemplate(templateId);
+		}
+		return this;
+	}
 
 	@Override
 	public void process(HttpServletRequest request,
@@ -48,14 +73,39 @@ public class OpenSamlVelocityEngine implements SamlTemplateEngine {
 						Map<String, Object> model,
 						Writer out
 	) {
-		org.apache.velocity.app.VelocityEngine velocityEngine = VelocityEngine.newVelocityEngine();
-		initializeVelocityEngine(velocityEngine);
 		VelocityContext context = new VelocityContext();
 		model.entrySet().stream().forEach(
 			e -> context.put(e.getKey(), e.getValue())
 		);
+		getTemplate(templateId).merge(context, out);
+	}
+
+	protected Template getTemplate(String templateId) {
+		return templates.computeIfAbsent(
+			templateId,
+			id -> {
+				try {
+					return getVelocityEngine().getTemplate(id, UTF_8.name());
+				} catch (VelocityException e) {
+					throw new SamlException("Unable to load template:" + id, e);
+				}
+			}
+		);
+	}
 
-		velocityEngine.mergeTemplate(templateId, UTF_8.name(), context, out);
+	protected org.apache.velocity.app.VelocityEngine getVelocityEngine() {
+		org.apache.velocity.app.VelocityEngine result = velocityEngine;
+		if (result == null) {
+			synchronized (this) {
+				result = velocityEngine;
+				if (result == null) {
+					result = VelocityEngine.newVelocityEngine();
+					initializeVelocityEngine(result);
+					velocityEngine = result;
+				}
+			}
+		}
+		return result;
 	}
 
 	protected void initializeVelocityEngine(org.apache.velocity.app.VelocityEngine velocityEngine) {
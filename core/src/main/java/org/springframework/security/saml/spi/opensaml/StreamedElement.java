@@ -0,0 +1,155 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Snapshot of a start element read from an {@link XMLStreamReader}.
+ */
+class StreamedElement {
+
+	private final String prefix;
+	private final String localName;
+	private final String namespaceURI;
+	private final List<Attribute> attributes;
+	private final Map<String, String> namespaces;
+
+	private StreamedElement(String prefix,
+							String localName,
+							String namespaceURI,
+							List<Attribute> attributes,
+							Map<String, String> namespaces) {
+		this.prefix = prefix;
+		this.localName = localName;
+		this.namespaceURI = namespaceURI;
+		this.attributes = attributes;
+		this.namespaces = namespaces;
+	}
+
+	static StreamedElement from(XMLStreamReader reader) {
+		List<Attribute> attributes = new ArrayList<>(reader.getAttributeCount());
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			attributes.add(
+				new Attribute(
+					nonNull(reader.getAttributePrefix(i)),
+					reader.getAttributeLocalName(i),
+					nonNull(reader.getAttributeNamespace(i)),
+					reader.getAttributeValue(i)
+				)
+			);
+		}
+		Map<String, String> namespaces = Collections.emptyMap();
+		if (reader.getNamespaceCount() > 0) {
+			namespaces = new LinkedHashMap<>();
+			for (int i = 0; i < reader.getNamespaceCount(); i++) {
+				namespaces.put(nonNull(reader.getNamespacePrefix(i)), nonNull(reader.getNamespaceURI(i)));
+			}
+		}
+		return new StreamedElement(
+			nonNull(reader.getPrefix()),
+			reader.getLocalName(),
+			nonNull(reader.getNamespaceURI()),
+			attributes,
+			namespaces
+		);
+	}
+
+	String getPrefix() {
+		return prefix;
+	}
+
+	String getLocalName() {
+		return localName;
+	}
+
+	String getNamespaceURI() {
+		return namespaceURI;
+	}
+
+	String getQName() {
+		return prefix.isEmpty() ? localName : prefix + ":" + localName;
+	}
+
+	boolean is(String namespaceURI, String localName) {
+		return this.localName.equals(localName) && this.namespaceURI.equals(namespaceURI);
+	}
+
+	List<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	String getAttributeValue(String localName) {
+		for (Attribute a : attributes) {
+			if (a.getNamespaceURI().isEmpty() && a.getLocalName().equals(localName)) {
+				return a.getValue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the namespaces declared on this element, by prefix. The default namespace has an empty prefix.
+	 */
+	Map<String, String> getNamespaces() {
+		return namespaces;
+	}
+
+	private static String nonNull(String s) {
+		return s == null ? "" : s;
+	}
+
+	static class Attribute {
+		private final String prefix;
+		private final String localName;
+		private final String namespaceURI;
+		private final String value;
+
+		Attribute(String prefix, String localName, String namespaceURI, String value) {
+			this.prefix = prefix;
+			this.localName = localName;
+			this.namespaceURI = namespaceURI;
+			this.value = value;
+		}
+
+		String getPrefix() {
+			return prefix;
+		}
+
+		String getLocalName() {
+			return localName;
+		}
+
+		String getNamespaceURI() {
+			return namespaceURI;
+		}
+
+		String getValue() {
+			return value;
+		}
+
+		String getQName() {
+			return prefix.isEmpty() ? localName : prefix + ":" + localName;
+		}
+	}
+}
@@ -0,0 +1,657 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.springframework.security.saml.SamlException;
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.metadata.MetadataFilter;
+import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
+import org.springframework.security.saml.saml2.signature.CanonicalizationMethod;
+import org.springframework.security.saml.saml2.signature.DigestMethod;
+import org.springframework.security.saml.saml2.signature.Signature;
+import org.springframework.security.saml.saml2.signature.SignatureException;
+import org.springframework.security.saml.util.X509Utilities;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * Reads a metadata document, typically a large EntitiesDescriptor aggregate, in a single streaming pass.
+ * <ul>
+ * <li>The enveloped signature of the document element is verified while reading,
+ * using exclusive canonicalization of the event stream</li>
+ * <li>Each EntityDescriptor is built as a DOM fragment of its own, and handed to the consumer
+ * only if the {@link MetadataFilter} includes it. Entities are the document element,
+ * or the direct children of a document EntitiesDescriptor</li>
+ * </ul>
+ * Memory use is therefore bounded by the largest entity rather than by the document.
+ * Documents using signature algorithms or transforms, or nesting, that are not supported here raise
+ * {@link UnsupportedDocumentException}, and should be parsed into a DOM instead.
+ */
+class StreamingMetadataParser {
+
+	static final String NS_METADATA = "urn:oasis:names:tc:SAML:2.0:metadata";
+	static final String NS_SIGNATURE = "http://www.w3.org/2000/09/xmldsig#";
+	static final String ENVELOPED_SIGNATURE = NS_SIGNATURE + "enveloped-signature";
+
+	private static final Map<String, String> DIGEST_ALGORITHMS = new HashMap<>();
+	private static final Map<String, String> SIGNATURE_ALGORITHMS = new HashMap<>();
+
+	static {
+		DIGEST_ALGORITHMS.put("http://www.w3.org/2000/09/xmldsig#sha1", "SHA-1");
+		DIGEST_ALGORITHMS.put("http://www.w3.org/2001/04/xmlenc#sha256", "SHA-256");
+		DIGEST_ALGORITHMS.put("http://www.w3.org/2001/04/xmldsig-more#sha384", "SHA-384");
+		DIGEST_ALGORITHMS.put("http://www.w3.org/2001/04/xmlenc#sha512", "SHA-512");
+		SIGNATURE_ALGORITHMS.put("http://www.w3.org/2000/09/xmldsig#rsa-sha1", "SHA1withRSA");
+		SIGNATURE_ALGORITHMS.put("http://www.w3.org/2001/04/xmldsig-more#rsa-sha256", "SHA256withRSA");
+		SIGNATURE_ALGORITHMS.put("http://www.w3.org/2001/04/xmldsig-more#rsa-sha384", "SHA384withRSA");
+		SIGNATURE_ALGORITHMS.put("http://www.w3.org/2001/04/xmldsig-more#rsa-sha512", "SHA512withRSA");
+	}
+
+	private static final XMLInputFactory inputFactory = createInputFactory();
+
+	private final Supplier<Document> documents;
+	private final MetadataFilter filter;
+	private final List<SimpleKey> verificationKeys;
+
+	/**
+	 * @param documents        creates the empty documents entity fragments are built in
+	 * @param filter           selects the entities that are handed to the consumer
+	 * @param verificationKeys keys for the document signature, null or empty to skip verification
+	 */
+	StreamingMetadataParser(Supplier<Document> documents,
+							MetadataFilter filter,
+							List<SimpleKey> verificationKeys) {
+		this.documents = documents;
+		this.filter = filter;
+		this.verificationKeys = verificationKeys == null ? Collections.emptyList() : verificationKeys;
+	}
+
+	/**
+	 * @param xml      the metadata document
+	 * @param entities receives each included EntityDescriptor element, and whether it is the document element.
+	 *                 Null to only verify the signature
+	 * @return the verified signature of the document element, null if unsigned or not verified
+	 * @throws SignatureException           if the document signature is invalid
+	 * @throws UnsupportedDocumentException if the document can't be processed by this parser
+	 */
+	Signature parse(byte[] xml, BiConsumer<Element, Boolean> entities) {
+		XMLStreamReader reader = null;
+		try {
+			reader = inputFactory.createXMLStreamReader(new ByteArrayInputStream(xml));
+			return new Pass(entities).run(reader);
+		} catch (XMLStreamException e) {
+			throw new SamlException("Unable to parse metadata", e);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException ignore) {
+				}
+			}
+		}
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+
+	/*
+	 * State of a single pass through a document
+	 */
+	private class Pass {
+		private final BiConsumer<Element, Boolean> entities;
+		private final Deque<Map<String, String>> scope = new ArrayDeque<>();
+		private int depth = 0;
+
+		private StreamedElement root;
+		private boolean verify = !verificationKeys.isEmpty();
+		private boolean firstChild = true;
+		private final StringBuilder pendingText = new StringBuilder();
+		private SignatureReader signature;
+		private MessageDigest digest;
+		private ExclusiveCanonicalizer canonicalizer;
+
+		private FragmentBuilder entity;
+		private int entityDepth = -1;
+		private boolean identityProvider;
+		private boolean serviceProvider;
+
+		Pass(BiConsumer<Element, Boolean> entities) {
+			this.entities = entities;
+		}
+
+		Signature run(XMLStreamReader reader) throws XMLStreamException {
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						startElement(StreamedElement.from(reader));
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						endElement();
+						if (depth == 0) {
+							return verify ? verifySignature() : null;
+						}
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+					case XMLStreamConstants.SPACE:
+						if (depth > 0) {
+							characters(reader.getText());
+						}
+						break;
+					case XMLStreamConstants.PROCESSING_INSTRUCTION:
+						if (depth > 0) {
+							processingInstruction(reader.getPITarget(), reader.getPIData());
+						}
+						break;
+					default:
+						//comments are not part of the canonical form
+				}
+			}
+			throw new SamlException("Unexpected end of metadata document");
+		}
+
+		private void startElement(StreamedElement element) {
+			scope.push(element.getNamespaces());
+			depth++;
+			if (depth == 1) {
+				root = element;
+				if (!element.is(NS_METADATA, "EntitiesDescriptor") && !element.is(NS_METADATA, "EntityDescriptor")) {
+					throw new UnsupportedDocumentException("Not a metadata document:" + element.getQName());
+				}
+			}
+			else if (depth == 2 && firstChild) {
+				firstChild = false;
+				if (verify && element.is(NS_SIGNATURE, "Signature")) {
+					signature = new SignatureReader();
+				}
+				else {
+					//the signature has to be the first child, the document is not signed
+					verify = false;
+				}
+			}
+			if (depth > 1 && verify && hasText(root.getAttributeValue("ID")) &&
+				root.getAttributeValue("ID").equals(element.getAttributeValue("ID"))) {
+				//the signature reference must resolve to the document element only
+				throw new SignatureException("Duplicate ID " + element.getAttributeValue("ID") + " in metadata document.");
+			}
+
+			if (signature != null && !signature.isComplete()) {
+				signature.startElement(element, this::lookup);
+			}
+			else if (canonicalizer != null) {
+				canonicalizer.startElement(element, this::lookup);
+			}
+
+			if (entity != null) {
+				entity.startElement(element);
+				if (depth == entityDepth + 1) {
+					identityProvider |= element.is(NS_METADATA, "IDPSSODescriptor");
+					serviceProvider |= element.is(NS_METADATA, "SPSSODescriptor");
+				}
+			}
+			else if (entities != null && isEntity(element) &&
+				filter.isIncluded(element.getAttributeValue("entityID"))) {
+				entity = new FragmentBuilder(documents.get(), element, getNamespacesInScope());
+				entityDepth = depth;
+				identityProvider = false;
+				serviceProvider = false;
+			}
+		}
+
+		/*
+		 * Entities are the document element, or direct children of a document EntitiesDescriptor.
+		 * Anything deeper, such as content of ds:Signature, is never built.
+		 */
+		private boolean isEntity(StreamedElement element) {
+			if (depth == 1) {
+				return element.is(NS_METADATA, "EntityDescriptor");
+			}
+			if (depth != 2 || !root.is(NS_METADATA, "EntitiesDescriptor")) {
+				return false;
+			}
+			if (element.is(NS_METADATA, "EntitiesDescriptor")) {
+				throw new UnsupportedDocumentException("Nested EntitiesDescriptor in metadata document.");
+			}
+			return element.is(NS_METADATA, "EntityDescriptor");
+		}
+
+		private void endElement() {
+			if (signature != null && !signature.isComplete()) {
+				signature.endElement();
+				if (depth == 2) {
+					signature.complete();
+					startDigest();
+				}
+			}
+			else if (canonicalizer != null) {
+				canonicalizer.endElement();
+			}
+
+			if (entity != null) {
+				if (depth == entityDepth) {
+					if (filter.isIncluded(identityProvider, serviceProvider)) {
+						entities.accept(entity.getRoot(), depth == 1);
+					}
+					entity = null;
+					entityDepth = -1;
+				}
+				else {
+					entity.endElement();
+				}
+			}
+			scope.pop();
+			depth--;
+		}
+
+		private void characters(String text) {
+			if (signature != null && !signature.isComplete()) {
+				signature.characters(text);
+			}
+			else if (canonicalizer != null) {
+				canonicalizer.characters(text);
+			}
+			else if (verify && depth == 1) {
+				//text preceding the signature, rendered once the root element can be canonicalized
+				pendingText.append(text);
+			}
+			if (entity != null) {
+				entity.characters(text);
+			}
+		}
+
+		private void processingInstruction(String target, String data) {
+			if (canonicalizer != null) {
+				canonicalizer.processingInstruction(target, data);
+			}
+			else if (verify) {
+				//preceding or inside the signature, left to the DOM parser
+				throw new UnsupportedDocumentException("Processing instruction in signed metadata document.");
+			}
+		}
+
+		private void startDigest() {
+			signature.validate(root);
+			try {
+				digest = MessageDigest.getInstance(DIGEST_ALGORITHMS.get(signature.digestMethod));
+			} catch (NoSuchAlgorithmException e) {
+				throw new UnsupportedDocumentException(e.getMessage());
+			}
+			canonicalizer = new ExclusiveCanonicalizer(new DigestOutput(digest), signature.inclusivePrefixes);
+			//the root element, minus the signature, is the signed content
+			scope.pop();
+			canonicalizer.startElement(root, this::lookup);
+			canonicalizer.characters(pendingText.toString());
+			scope.push(Collections.emptyMap());
+		}
+
+		private Signature verifySignature() {
+			if (signature == null || !signature.isComplete()) {
+				return null;
+			}
+			canonicalizer.flush();
+			if (!MessageDigest.isEqual(digest.digest(), decode(signature.digestValue.toString()))) {
+				throw new SignatureException("Digest of metadata document " + root.getQName() + " is invalid.");
+			}
+			byte[] signatureValue = decode(signature.signatureValue.toString());
+			byte[] signedInfo = signature.signedInfo.toByteArray();
+			for (SimpleKey key : verificationKeys) {
+				if (verify(key, signedInfo, signatureValue)) {
+					return new Signature()
+						.setCanonicalizationAlgorithm(CanonicalizationMethod.fromUrn(signature.canonicalizationMethod))
+						.setSignatureAlgorithm(AlgorithmMethod.fromUrn(signature.signatureMethod))
+						.setDigestAlgorithm(DigestMethod.fromUrn(signature.digestMethod))
+						.setDigestValue(signature.digestValue.toString().trim())
+						.setSignatureValue(signature.signatureValue.toString().trim())
+						.setValidated(true)
+						.setValidatingKey(key);
+				}
+			}
+			throw new SignatureException(
+				"Signature validation against metadata document " + root.getQName() +
+					" failed using " + verificationKeys.size() +
+					(verificationKeys.size() == 1 ? " key." : " keys.")
+			);
+		}
+
+		private boolean verify(SimpleKey key, byte[] signedInfo, byte[] signatureValue) {
+			if (!hasText(key.getCertificate())) {
+				return false;
+			}
+			try {
+				PublicKey publicKey =
+					X509Utilities.getCertificate(X509Utilities.getDER(key.getCertificate())).getPublicKey();
+				java.security.Signature verifier =
+					java.security.Signature.getInstance(SIGNATURE_ALGORITHMS.get(signature.signatureMethod));
+				verifier.initVerify(publicKey);
+				verifier.update(signedInfo);
+				return verifier.verify(signatureValue);
+			} catch (GeneralSecurityException | IllegalArgumentException e) {
+				return false;
+			}
+		}
+
+		private String lookup(String prefix) {
+			for (Map<String, String> frame : scope) {
+				String uri = frame.get(prefix);
+				if (uri != null) {
+					return uri;
+				}
+			}
+			return null;
+		}
+
+		private Map<String, String> getNamespacesInScope() {
+			Map<String, String> result = new LinkedHashMap<>();
+			for (Map<String, String> frame : scope) {
+				for (Map.Entry<String, String> e : frame.entrySet()) {
+					result.putIfAbsent(e.getKey(), e.getValue());
+				}
+			}
+			return result;
+		}
+	}
+
+	private static byte[] decode(String base64) {
+		try {
+			return Base64.getMimeDecoder().decode(base64.trim());
+		} catch (IllegalArgumentException e) {
+			throw new SignatureException("Invalid base64 value in metadata signature", e);
+		}
+	}
+
+	/*
+	 * Collects the parts of a ds:Signature element needed to verify it, and the canonical form of its SignedInfo.
+	 * Values are only read at their place in the signature, anything else under ds:Signature is ignored.
+	 */
+	private static class SignatureReader {
+		private static final String SIGNED_INFO = "Signature/SignedInfo";
+		private static final String SIGNATURE_VALUE = "Signature/SignatureValue";
+		private static final String REFERENCE = SIGNED_INFO + "/Reference";
+		private static final String TRANSFORM = REFERENCE + "/Transforms/Transform";
+		private static final String INCLUSIVE_NAMESPACES = "/{" + ExclusiveCanonicalizer.ALGORITHM + "}InclusiveNamespaces";
+		private static final Set<String> SINGLE_ELEMENTS = new HashSet<>(Arrays.asList(
+			SIGNED_INFO,
+			SIGNED_INFO + "/CanonicalizationMethod",
+			SIGNED_INFO + "/SignatureMethod",
+			REFERENCE,
+			REFERENCE + "/Transforms",
+			REFERENCE + "/DigestMethod",
+			REFERENCE + "/DigestValue",
+			SIGNATURE_VALUE
+		));
+
+		private final ByteArrayOutputStream signedInfo = new ByteArrayOutputStream();
+		private ExclusiveCanonicalizer signedInfoCanonicalizer;
+		private final Deque<String> path = new ArrayDeque<>();
+		private final Set<String> seen = new HashSet<>();
+		private boolean complete = false;
+
+		private String canonicalizationMethod;
+		private String signatureMethod;
+		private String digestMethod;
+		private String referenceUri;
+		private final List<String> transforms = new ArrayList<>();
+		private final Set<String> inclusivePrefixes = new LinkedHashSet<>();
+		private boolean signedInfoPrefixes = false;
+		private final StringBuilder digestValue = new StringBuilder();
+		private final StringBuilder signatureValue = new StringBuilder();
+
+		boolean isComplete() {
+			return complete;
+		}
+
+		void complete() {
+			complete = true;
+		}
+
+		void startElement(StreamedElement element, Function<String, String> scope) {
+			String current = path.isEmpty() ? name(element) : path.peek() + "/" + name(element);
+			path.push(current);
+			if (SINGLE_ELEMENTS.contains(current) && !seen.add(current)) {
+				throw new SignatureException("Metadata signature has more than one " + element.getQName());
+			}
+			if (SIGNED_INFO.equals(current)) {
+				signedInfoCanonicalizer = new ExclusiveCanonicalizer(signedInfo, Collections.emptySet());
+			}
+			if (isSignedInfo(current)) {
+				signedInfoCanonicalizer.startElement(element, scope);
+			}
+			switch (current) {
+				case SIGNED_INFO + "/CanonicalizationMethod":
+					canonicalizationMethod = element.getAttributeValue("Algorithm");
+					break;
+				case SIGNED_INFO + "/SignatureMethod":
+					signatureMethod = element.getAttributeValue("Algorithm");
+					break;
+				case REFERENCE:
+					referenceUri = element.getAttributeValue("URI");
+					break;
+				case TRANSFORM:
+					transforms.add(element.getAttributeValue("Algorithm"));
+					break;
+				case REFERENCE + "/DigestMethod":
+					digestMethod = element.getAttributeValue("Algorithm");
+					break;
+				case TRANSFORM + INCLUSIVE_NAMESPACES:
+					String prefixes = element.getAttributeValue("PrefixList");
+					if (hasText(prefixes)) {
+						inclusivePrefixes.addAll(Arrays.asList(prefixes.trim().split("\\s+")));
+					}
+					break;
+				default:
+					if (isSignedInfo(current) && current.endsWith(INCLUSIVE_NAMESPACES)) {
+						signedInfoPrefixes = true;
+					}
+			}
+		}
+
+		void endElement() {
+			String current = path.pop();
+			if (isSignedInfo(current)) {
+				signedInfoCanonicalizer.endElement();
+				if (SIGNED_INFO.equals(current)) {
+					signedInfoCanonicalizer.flush();
+				}
+			}
+		}
+
+		void characters(String text) {
+			String current = path.peek();
+			if (isSignedInfo(current)) {
+				signedInfoCanonicalizer.characters(text);
+			}
+			if ((REFERENCE + "/DigestValue").equals(current)) {
+				digestValue.append(text);
+			}
+			else if (SIGNATURE_VALUE.equals(current)) {
+				signatureValue.append(text);
+			}
+		}
+
+		/*
+		 * Only the profile used for SAML metadata is supported here, the enveloped signature
+		 * of the document element using exclusive canonicalization.
+		 */
+		void validate(StreamedElement root) {
+			if (!seen.contains(SIGNED_INFO) || !seen.contains(SIGNATURE_VALUE)) {
+				throw new SignatureException("Metadata signature is incomplete.");
+			}
+			if (!ExclusiveCanonicalizer.ALGORITHM.equals(canonicalizationMethod) || signedInfoPrefixes) {
+				throw new UnsupportedDocumentException("Unsupported canonicalization:" + canonicalizationMethod);
+			}
+			if (!SIGNATURE_ALGORITHMS.containsKey(signatureMethod)) {
+				throw new UnsupportedDocumentException("Unsupported signature algorithm:" + signatureMethod);
+			}
+			if (!DIGEST_ALGORITHMS.containsKey(digestMethod)) {
+				throw new UnsupportedDocumentException("Unsupported digest algorithm:" + digestMethod);
+			}
+			if (!new LinkedHashSet<>(transforms).equals(
+				new LinkedHashSet<>(Arrays.asList(ENVELOPED_SIGNATURE, ExclusiveCanonicalizer.ALGORITHM))) ||
+				transforms.size() != 2) {
+				throw new UnsupportedDocumentException("Unsupported signature transforms:" + transforms);
+			}
+			String id = root.getAttributeValue("ID");
+			if (!hasText(id)) {
+				throw new SignatureException("Signed metadata document element has no ID.");
+			}
+			if (!seen.contains(REFERENCE) || referenceUri == null ||
+				!(referenceUri.isEmpty() || referenceUri.equals("#" + id))) {
+				throw new SignatureException("Metadata signature does not reference the document element.");
+			}
+		}
+
+		private static boolean isSignedInfo(String path) {
+			return path.equals(SIGNED_INFO) || path.startsWith(SIGNED_INFO + "/");
+		}
+
+		private static String name(StreamedElement element) {
+			return NS_SIGNATURE.equals(element.getNamespaceURI()) ?
+				element.getLocalName() :
+				"{" + element.getNamespaceURI() + "}" + element.getLocalName();
+		}
+	}
+
+	/*
+	 * Builds an element, and its descendants, as the document element of a new DOM document
+	 */
+	private static class FragmentBuilder {
+		private final Document document;
+		private final Element root;
+		private Node current;
+
+		FragmentBuilder(Document document, StreamedElement element, Map<String, String> namespacesInScope) {
+			this.document = document;
+			this.root = create(element);
+			for (Map.Entry<String, String> ns : namespacesInScope.entrySet()) {
+				if (!element.getNamespaces().containsKey(ns.getKey())) {
+					declare(root, ns.getKey(), ns.getValue());
+				}
+			}
+			document.appendChild(root);
+			current = root;
+		}
+
+		Element getRoot() {
+			return root;
+		}
+
+		void startElement(StreamedElement element) {
+			Element e = create(element);
+			current.appendChild(e);
+			current = e;
+		}
+
+		void endElement() {
+			current = current.getParentNode();
+		}
+
+		void characters(String text) {
+			current.appendChild(document.createTextNode(text));
+		}
+
+		private Element create(StreamedElement element) {
+			Element e = document.createElementNS(
+				element.getNamespaceURI().isEmpty() ? null : element.getNamespaceURI(),
+				element.getQName()
+			);
+			for (Map.Entry<String, String> ns : element.getNamespaces().entrySet()) {
+				declare(e, ns.getKey(), ns.getValue());
+			}
+			for (StreamedElement.Attribute a : element.getAttributes()) {
+				e.setAttributeNS(a.getNamespaceURI().isEmpty() ? null : a.getNamespaceURI(), a.getQName(), a.getValue());
+			}
+			return e;
+		}
+
+		private void declare(Element e, String prefix, String uri) {
+			e.setAttributeNS(
+				XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+				prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix,
+				uri
+			);
+		}
+	}
+
+	private static class DigestOutput extends OutputStream {
+		private final MessageDigest digest;
+
+		DigestOutput(MessageDigest digest) {
+			this.digest = digest;
+		}
+
+		@Override
+		public void write(int b) {
+			digest.update((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			digest.update(b, off, len);
+		}
+	}
+
+	/**
+	 * The document uses XML or signature features that are only supported when parsed into a DOM.
+	 */
+	static class UnsupportedDocumentException extends SamlException {
+		private static final long serialVersionUID = 1L;
+
+		UnsupportedDocumentException(String message) {
+			super(message);
+		}
+	}
+}
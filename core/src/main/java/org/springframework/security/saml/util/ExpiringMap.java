@@ -0,0 +1,373 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.util;
+
+import java.time.Clock;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread safe map whose entries expire a fixed time after they were last read or written.
+ * <ul>
+ * <li>Entries are kept in access order, so expired entries are found at the head of that order
+ * and removed in amortized constant time, never by scanning the whole map</li>
+ * <li>An optional maximum size evicts among the least recently used entries the one that
+ * has been read the least</li>
+ * <li>Reads do not allocate. They reorder the entry only if no other thread holds the lock,
+ * an entry that missed a reorder is moved when it reaches the head of the order</li>
+ * </ul>
+ * All timestamps come from the configured {@link Clock}.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class ExpiringMap<K, V> implements Map<K, V> {
+
+	private static final int EVICTION_SAMPLE = 4;
+	private static final int MAX_FREQUENCY = 15;
+
+	private final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Node<K, V> order = new Node<>(null, null, 0);
+	private Clock time;
+	private volatile long expirationTimeMillis = 1000 * 60 * 10;
+	private volatile int maximumSize = 0;
+	private int accessesSinceAging = 0;
+
+	public ExpiringMap(Clock time) {
+		this.time = time;
+		order.previous = order;
+		order.next = order;
+	}
+
+	public Clock getTime() {
+		return time;
+	}
+
+	public ExpiringMap<K, V> setTime(Clock time) {
+		this.time = time;
+		return this;
+	}
+
+	public long getExpirationTimeMillis() {
+		return expirationTimeMillis;
+	}
+
+	/**
+	 * @param expirationTimeMillis time after the last read or write at which an entry expires
+	 * @return this object
+	 */
+	public ExpiringMap<K, V> setExpirationTimeMillis(long expirationTimeMillis) {
+		this.expirationTimeMillis = expirationTimeMillis;
+		return this;
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * @param maximumSize the maximum number of entries, zero or less for no limit
+	 * @return this object
+	 */
+	public ExpiringMap<K, V> setMaximumSize(int maximumSize) {
+		this.maximumSize = maximumSize;
+		return this;
+	}
+
+	@Override
+	public V get(Object key) {
+		Node<K, V> node = map.get(key);
+		if (node == null) {
+			return null;
+		}
+		long now = time.millis();
+		if (isExpired(node, now)) {
+			removeExpired(node);
+			return null;
+		}
+		node.accessed = now;
+		if (node.frequency < MAX_FREQUENCY) {
+			node.frequency++;
+		}
+		if (lock.tryLock()) {
+			try {
+				if (node.isLinked()) {
+					moveToTail(node);
+				}
+				expire(now);
+			} finally {
+				lock.unlock();
+			}
+		}
+		return node.value;
+	}
+
+	@Override
+	public V put(K key, V value) {
+		long now = time.millis();
+		Node<K, V> node = new Node<>(key, value, now);
+		Node<K, V> previous;
+		lock.lock();
+		try {
+			previous = map.put(key, node);
+			if (previous != null) {
+				unlink(previous);
+				node.frequency = previous.frequency;
+			}
+			linkLast(node);
+			expire(now);
+			evict(node);
+		} finally {
+			lock.unlock();
+		}
+		return previous == null || isExpired(previous, now) ? null : previous.value;
+	}
+
+	@Override
+	public void putAll(Map<? extends K, ? extends V> m) {
+		for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+			put(e.getKey(), e.getValue());
+		}
+	}
+
+	@Override
+	public V remove(Object key) {
+		Node<K, V> node;
+		lock.lock();
+		try {
+			node = map.remove(key);
+			if (node != null) {
+				unlink(node);
+			}
+		} finally {
+			lock.unlock();
+		}
+		return node == null || isExpired(node, time.millis()) ? null : node.value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		Node<K, V> node = map.get(key);
+		return node != null && !isExpired(node, time.millis());
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		if (value != null) {
+			long now = time.millis();
+			for (Node<K, V> node : map.values()) {
+				if (value.equals(node.value) && !isExpired(node, now)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		expireNow();
+		return map.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public void clear() {
+		lock.lock();
+		try {
+			map.clear();
+			order.previous = order;
+			order.next = order;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return a snapshot of the keys of the entries that have not expired
+	 */
+	@Override
+	public Set<K> keySet() {
+		return new HashSet<>(snapshot().keySet());
+	}
+
+	/**
+	 * @return a snapshot of the values of the entries that have not expired
+	 */
+	@Override
+	public Collection<V> values() {
+		return new ArrayList<>(snapshot().values());
+	}
+
+	/**
+	 * @return a snapshot of the entries that have not expired
+	 */
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		Set<Entry<K, V>> result = new HashSet<>();
+		for (Map.Entry<K, V> e : snapshot().entrySet()) {
+			result.add(new AbstractMap.SimpleImmutableEntry<>(e));
+		}
+		return result;
+	}
+
+	private Map<K, V> snapshot() {
+		expireNow();
+		long now = time.millis();
+		Map<K, V> result = new LinkedHashMap<>();
+		for (Node<K, V> node : map.values()) {
+			if (!isExpired(node, now)) {
+				result.put(node.key, node.value);
+			}
+		}
+		return result;
+	}
+
+	private boolean isExpired(Node<K, V> node, long now) {
+		return (now - node.accessed) > expirationTimeMillis;
+	}
+
+	private void removeExpired(Node<K, V> node) {
+		lock.lock();
+		try {
+			if (map.remove(node.key, node)) {
+				unlink(node);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void expireNow() {
+		lock.lock();
+		try {
+			expire(time.millis());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Must hold the lock. Each entry is visited once per expiration, or once per read that
+	 * could not reorder it.
+	 */
+	private void expire(long now) {
+		Node<K, V> node = order.next;
+		while (node != order) {
+			Node<K, V> next = node.next;
+			if (isExpired(node, now)) {
+				map.remove(node.key, node);
+				unlink(node);
+			}
+			else if (node.accessed != node.ordered) {
+				//read without being reordered
+				moveToTail(node);
+			}
+			else {
+				break;
+			}
+			node = next;
+		}
+	}
+
+	/*
+	 * Must hold the lock. Evicts from the least recently used entries the one read the least,
+	 * never the entry that was just added.
+	 */
+	private void evict(Node<K, V> added) {
+		int max = maximumSize;
+		if (max <= 0) {
+			return;
+		}
+		if (++accessesSinceAging > 10 * Math.max(max, 16)) {
+			accessesSinceAging = 0;
+			for (Node<K, V> node = order.next; node != order; node = node.next) {
+				node.frequency >>= 1;
+			}
+		}
+		while (map.size() > max) {
+			Node<K, V> victim = null;
+			Node<K, V> node = order.next;
+			for (int i = 0; i < EVICTION_SAMPLE && node != order; i++, node = node.next) {
+				if (node != added && (victim == null || node.frequency < victim.frequency)) {
+					victim = node;
+				}
+			}
+			if (victim == null) {
+				return;
+			}
+			map.remove(victim.key, victim);
+			unlink(victim);
+		}
+	}
+
+	private void linkLast(Node<K, V> node) {
+		node.ordered = node.accessed;
+		node.previous = order.previous;
+		node.next = order;
+		order.previous.next = node;
+		order.previous = node;
+	}
+
+	private void unlink(Node<K, V> node) {
+		if (node.isLinked()) {
+			node.previous.next = node.next;
+			node.next.previous = node.previous;
+			node.previous = null;
+			node.next = null;
+		}
+	}
+
+	private void moveToTail(Node<K, V> node) {
+		unlink(node);
+		linkLast(node);
+	}
+
+	private static class Node<K, V> {
+		private final K key;
+		private final V value;
+		private volatile long accessed;
+		private volatile int frequency;
+		//guarded by the lock
+		private long ordered;
+		private Node<K, V> previous;
+		private Node<K, V> next;
+
+		Node(K key, V value, long accessed) {
+			this.key = key;
+			this.value = value;
+			this.accessed = accessed;
+		}
+
+		boolean isLinked() {
+			return next != null;
+		}
+	}
+}
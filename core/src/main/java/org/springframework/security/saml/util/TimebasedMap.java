@@ -29,6 +29,10 @@ import java.util.stream.Collectors;
 
 import static java.util.stream.Collectors.toList;
 
+/**
+ * @deprecated scans the whole map on the calling thread, use {@link ExpiringMap} instead
+ */
+@Deprecated
 public class TimebasedMap<K, V> implements Map<K, V> {
 
 	private Map<K, MapEntry<V>> map = new ConcurrentHashMap<>();
@@ -39,6 +43,7 @@ public class TimebasedMap<K, V> implements Map<K, V> {
 
 	public TimebasedMap(Clock time) {
 		this.time = time;
+		this.lastScan.set(time.millis());
 	}
 
 	public Clock getTime() {
@@ -71,7 +76,7 @@ public class TimebasedMap<K, V> implements Map<K, V> {
 	protected V access(MapEntry<V> value) {
 		V result = null;
 		if (value != null) {
-			value.setLastAccessTime(System.currentTimeMillis());
+			value.setLastAccessTime(getTime().millis());
 			result = value.getValue();
 		}
 		return result;
@@ -226,7 +231,7 @@ public class TimebasedMap<K, V> implements Map<K, V> {
 
 	@Override
 	public void clear() {
-		lastScan.set(System.currentTimeMillis());
+		lastScan.set(getTime().millis());
 		map.clear();
 	}
 
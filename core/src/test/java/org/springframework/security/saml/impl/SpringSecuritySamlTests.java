@@ -31,16 +31,25 @@
 
 package org.springframework.security.saml.impl;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Clock;
 import java.util.UUID;
 
+import org.springframework.security.saml.SamlException;
+import org.springframework.security.saml.SamlTransformer;
+import org.springframework.security.saml.spi.DefaultSamlTransformer;
 import org.springframework.security.saml.spi.SpringSecuritySaml;
 import org.springframework.security.saml.spi.opensaml.OpenSamlImplementation;
+import org.springframework.util.StreamUtils;
 
 import org.junit.jupiter.api.Test;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class SpringSecuritySamlTests {
 
@@ -65,4 +74,46 @@ public class SpringSecuritySamlTests {
 		String inflated = saml.inflate(saml.decode(deflated));
 		assertThat(inflated, equalTo(s));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void decoding_stream() throws IOException {
+		SpringSecuritySaml saml = instance.init();
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			s.append(UUID.randomUUID());
+		}
+		String deflated = saml.encode(saml.deflate(s.toString())).replaceAll("(.{76})", "$1\r\n");
+		assertThat(read(saml.decodingStream(deflated, true)), equalTo(s.toString()));
+		String encoded = saml.encode(s.toString().getBytes(UTF_8));
+		assertThat(read(saml.decodingStream(encoded, false)), equalTo(s.toString()));
+	}
+
+	@Test
+	public void decoding_stream_limits() {
+		SpringSecuritySaml saml = instance.init();
+		StringBuilder s = new StringBuilder("<a>");
+		for (int i = 0; i < 10000; i++) {
+			s.append("<b/>");
+		}
+		String xml = s.append("</a>").toString();
+		String deflated = saml.encode(saml.deflate(xml));
+
+		saml.setMaxMessageSize(xml.length() - 1);
+		SamlException e = assertThrows(SamlException.class, () -> read(saml.decodingStream(deflated, true)));
+		assertThat(e.getMessage(), containsString("Message exceeds"));
+		assertThrows(SamlException.class, () -> read(saml.decodingStream(saml.encode(xml.getBytes(UTF_8)), false)));
+
+		saml.setMaxMessageSize(xml.length()).setMaxCompressedMessageSize(10);
+		e = assertThrows(SamlException.class, () -> read(saml.decodingStream(deflated, true)));
+		assertThat(e.getMessage(), containsString("Compressed message exceeds"));
+
+		SamlTransformer transformer = new DefaultSamlTransformer(saml);
+		assertThrows(SamlException.class, () -> transformer.fromEncodedXml(deflated, true, null, null));
+	}
+
+	private String read(InputStream in) throws IOException {
+		try (InputStream stream = in) {
+			return StreamUtils.copyToString(stream, UTF_8);
+		}
+	}
+}
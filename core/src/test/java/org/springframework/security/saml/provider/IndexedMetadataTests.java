@@ -0,0 +1,170 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.security.saml.SamlException;
+import org.springframework.security.saml.SamlTransformer;
+import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata;
+import org.springframework.security.saml.saml2.metadata.Metadata;
+import org.springframework.security.saml.saml2.metadata.MetadataFilter;
+import org.springframework.security.saml.spi.DefaultSamlTransformer;
+import org.springframework.security.saml.spi.opensaml.OpenSamlImplementation;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IndexedMetadataTests {
+
+	private static final String AGGREGATE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+		"<!-- <md:EntityDescriptor entityID=\"http://comment\"> -->\n" +
+		"<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" Name=\"a&gt;b\">\n" +
+		"  <md:EntityDescriptor entityID=\"http://idp1?a=1&amp;b=2\">\n" +
+		"    <md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">\n" +
+		"      <md:SingleSignOnService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect\" " +
+		"Location=\"https://idp1/sso?x=>\"/>\n" +
+		"    </md:IDPSSODescriptor>\n" +
+		"  </md:EntityDescriptor>\n" +
+		"  <ds:Signature xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\"><ds:Object>\n" +
+		"    <md:EntityDescriptor entityID=\"http://wrapped\">\n" +
+		"      <md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\"/>\n" +
+		"    </md:EntityDescriptor>\n" +
+		"  </ds:Object></ds:Signature>\n" +
+		"  <EntityDescriptor xmlns=\"urn:other\" entityID=\"http://other\"/>\n" +
+		"  <md:EntityDescriptor entityID=\"http://sp\">\n" +
+		"    <md:SPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">\n" +
+		"      <md:AssertionConsumerService index=\"0\" " +
+		"Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST\" Location=\"https://sp/acs\"/>\n" +
+		"    </md:SPSSODescriptor>\n" +
+		"  </md:EntityDescriptor>\n" +
+		"  <md:EntityDescriptor entityID=\"http://idp2\"><![CDATA[</md:EntityDescriptor>]]>\n" +
+		"    <md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">\n" +
+		"      <md:SingleSignOnService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect\" " +
+		"Location=\"https://idp2/sso\"/>\n" +
+		"    </md:IDPSSODescriptor>\n" +
+		"  </md:EntityDescriptor>\n" +
+		"</md:EntitiesDescriptor>\n";
+
+	private static SamlTransformer transformer;
+
+	private final AtomicInteger resolutions = new AtomicInteger();
+
+	@BeforeAll
+	static void init() {
+		transformer = new DefaultSamlTransformer(new OpenSamlImplementation(Clock.systemUTC()).init());
+	}
+
+	@Test
+	void indexesOnlyIncludedEntities() {
+		IndexedMetadata<Metadata> index = index(new MetadataFilter().setServiceProviders(false), 10);
+		assertNotNull(index);
+		assertThat(index.getEntityIds(), contains("http://idp1?a=1&b=2", "http://idp2"));
+		assertThat(resolutions.get(), equalTo(0));
+		assertNull(index.getByEntityId("http://sp"));
+		assertNull(index.getByEntityId("http://comment"));
+	}
+
+	@Test
+	void indexesOnlyTopLevelMetadataEntities() {
+		IndexedMetadata<Metadata> index = index(new MetadataFilter(), 10);
+		assertThat(index.getEntityIds(), contains("http://idp1?a=1&b=2", "http://sp", "http://idp2"));
+		assertNull(index.getByEntityId("http://wrapped"));
+		assertNull(index.getByEntityId("http://other"));
+	}
+
+	@Test
+	void rejectsNestedEntitiesDescriptors() {
+		String xml = AGGREGATE.replace("<ds:Signature", "<md:EntitiesDescriptor><ds:Signature")
+			.replace("</ds:Signature>", "</ds:Signature></md:EntitiesDescriptor>");
+		assertNull(IndexedMetadata.index(xml.getBytes(UTF_8), new MetadataFilter(), 1, (id, d) -> null));
+	}
+
+	@Test
+	void rejectsInvalidCharacterReferences() {
+		String xml = AGGREGATE.replace("http://idp2", "http://idp&#xZZ;");
+		assertThrows(
+			SamlException.class,
+			() -> IndexedMetadata.index(xml.getBytes(UTF_8), new MetadataFilter(), 1, (id, d) -> null)
+		);
+	}
+
+	@Test
+	void resolvesEntityOnFirstLookup() {
+		IndexedMetadata<Metadata> index = index(new MetadataFilter(), 10);
+		Metadata idp2 = index.getByEntityId("http://idp2");
+		assertNotNull(idp2);
+		assertThat(idp2.getClass(), equalTo(IdentityProviderMetadata.class));
+		assertThat(idp2.getEntityId(), equalTo("http://idp2"));
+		assertSame(idp2, index.getByEntityId("http://idp2"));
+		assertSame(idp2, index.getBySourceId(RemoteProviderIndex.getSourceId("http://idp2")));
+		assertThat(resolutions.get(), equalTo(1));
+
+		assertThat(index.getByEntityId("http://sp").getEntityId(), equalTo("http://sp"));
+		assertThat(index.getByEntityId("http://idp1?a=1&b=2").getEntityId(), equalTo("http://idp1?a=1&b=2"));
+		assertThat(resolutions.get(), equalTo(3));
+	}
+
+	@Test
+	void evictsLeastRecentlyUsed() {
+		IndexedMetadata<Metadata> index = index(new MetadataFilter(), 1);
+		Metadata first = index.getFirst();
+		assertThat(first.getEntityId(), equalTo("http://idp1?a=1&b=2"));
+		index.getByEntityId("http://sp");
+		index.getByEntityId("http://idp2");
+		index.getByEntityId("http://sp");
+		assertThat(index.getResolvedCount(), equalTo(1));
+		assertThat(resolutions.get(), equalTo(4));
+		assertSame(first, index.getByEntityId("http://idp1?a=1&b=2"));
+		assertThat(resolutions.get(), equalTo(4));
+	}
+
+	@Test
+	void rejectsDocumentTypeDeclarations() {
+		String xml = "<!DOCTYPE md:EntitiesDescriptor []>" + AGGREGATE.substring(AGGREGATE.indexOf("<md:Ent"));
+		assertNull(IndexedMetadata.index(xml.getBytes(UTF_8), new MetadataFilter(), 1, (id, d) -> null));
+	}
+
+	private IndexedMetadata<Metadata> index(MetadataFilter filter, int cacheSize) {
+		return IndexedMetadata.index(
+			AGGREGATE.getBytes(UTF_8),
+			filter,
+			cacheSize,
+			(entityId, document) -> {
+				resolutions.incrementAndGet();
+				return transformer.fromMetadataXml(
+					document,
+					null,
+					new MetadataFilter().setEntityIds(singletonList(entityId))
+				);
+			}
+		);
+	}
+}
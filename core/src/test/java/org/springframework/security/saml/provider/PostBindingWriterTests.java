@@ -0,0 +1,72 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.security.saml.saml2.authentication.Response;
+
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class PostBindingWriterTests {
+
+	@Test
+	void writes_escaped_form_and_encoded_message() throws Exception {
+		String xml = "<samlp:Response xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" ID=\"a&b\"/>";
+		Response message = new Response();
+		HostedProviderService provider = mock(HostedProviderService.class);
+		doAnswer(invocation -> {
+			invocation.<OutputStream>getArgument(1).write(xml.getBytes(UTF_8));
+			return null;
+		}).when(provider).toXml(same(message), any(OutputStream.class));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new PostBindingWriter().write(
+			out,
+			"https://sp.example.com/acs?a=1&b=\"2\"",
+			"SAMLResponse",
+			message,
+			"<relay>",
+			provider
+		);
+		String html = new String(out.toByteArray(), UTF_8);
+
+		assertThat(html, containsString("action=\"https://sp.example.com/acs?a=1&amp;b=&quot;2&quot;\""));
+		assertThat(html, containsString("name=\"RelayState\" value=\"&lt;relay&gt;\""));
+		assertThat(html, not(containsString("<relay>")));
+		Matcher m = Pattern.compile("name=\"SAMLResponse\" value=\"(.*?)\"").matcher(html);
+		assertTrue(m.find());
+		assertThat(new String(Base64.getDecoder().decode(m.group(1)), UTF_8), equalTo(xml));
+		assertThat(html, containsString("</html>"));
+	}
+}
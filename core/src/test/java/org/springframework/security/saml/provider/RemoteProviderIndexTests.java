@@ -0,0 +1,89 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider;
+
+import java.security.MessageDigest;
+import java.util.List;
+
+import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RemoteProviderIndexTests {
+
+	private IdentityProviderMetadata single;
+	private IdentityProviderMetadata aggregateHead;
+	private IdentityProviderMetadata aggregateTail;
+	private List<IdentityProviderMetadata> providers;
+	private RemoteProviderIndex<IdentityProviderMetadata> index;
+
+	@BeforeEach
+	void setUp() {
+		single = new IdentityProviderMetadata().setEntityId("http://idp1").setEntityAlias("idp1");
+		aggregateTail = new IdentityProviderMetadata().setEntityId("http://idp3").setEntityAlias("http://idp3");
+		aggregateHead = new IdentityProviderMetadata().setEntityId("http://idp2").setEntityAlias("federation");
+		aggregateHead.setNext(aggregateTail);
+		providers = asList(single, aggregateHead);
+		index = new RemoteProviderIndex<>(providers);
+	}
+
+	@Test
+	void findsEntitiesInAggregates() {
+		assertSame(single, index.getByEntityId("http://idp1"));
+		assertSame(aggregateHead, index.getByEntityId("http://idp2"));
+		assertSame(aggregateTail, index.getByEntityId("http://idp3"));
+		assertNull(index.getByEntityId("http://unknown"));
+		assertNull(index.getByEntityId(null));
+	}
+
+	@Test
+	void findsByAlias() {
+		assertSame(single, index.getByAlias("idp1"));
+		assertSame(aggregateHead, index.getByAlias("federation"));
+		assertNull(index.getByAlias("http://idp2"));
+	}
+
+	@Test
+	void findsBySourceId() throws Exception {
+		byte[] sourceId = MessageDigest.getInstance("SHA-1").digest("http://idp3".getBytes(UTF_8));
+		assertSame(aggregateTail, index.getBySourceId(sourceId));
+		assertNull(index.getBySourceId(new byte[20]));
+	}
+
+	@Test
+	void firstEntityIdWins() {
+		IdentityProviderMetadata duplicate = new IdentityProviderMetadata().setEntityId("http://idp1");
+		index = new RemoteProviderIndex<>(asList(single, duplicate));
+		assertSame(single, index.getByEntityId("http://idp1"));
+	}
+
+	@Test
+	void currentOnlyForSameProviderObjects() {
+		assertTrue(index.isCurrent(asList(single, aggregateHead)));
+		assertFalse(index.isCurrent(asList(single)));
+		assertFalse(index.isCurrent(asList(single, new IdentityProviderMetadata(aggregateHead))));
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider;
+
+import java.util.List;
+
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.authentication.Response;
+import org.springframework.security.saml.saml2.metadata.IdentityProvider;
+import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata;
+
+import org.junit.jupiter.api.Test;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SamlMessageContextTests {
+
+	@Test
+	void remote_provider_is_resolved_once_per_message() {
+		HostedProviderService<?, ?, IdentityProviderMetadata> provider = mock(HostedProviderService.class);
+		IdentityProviderMetadata idp = mock(IdentityProviderMetadata.class);
+		IdentityProvider descriptor = mock(IdentityProvider.class);
+		List<SimpleKey> keys = singletonList(new SimpleKey());
+		when(idp.getIdentityProvider()).thenReturn(descriptor);
+		when(descriptor.getKeys()).thenReturn(keys);
+		Response message = new Response();
+		Response other = new Response();
+		when(provider.getRemoteProvider(message)).thenReturn(idp);
+		when(provider.getRemoteProvider(other)).thenReturn(idp);
+
+		SamlMessageContext<IdentityProviderMetadata> context = new SamlMessageContext<>(provider);
+		assertThat(context.getRemoteProvider(message), sameInstance(idp));
+		assertThat(context.getVerificationKeys(message), sameInstance(keys));
+		assertThat(context.getRemoteProvider(message), sameInstance(idp));
+		verify(provider, times(1)).getRemoteProvider(message);
+		verify(descriptor, times(1)).getKeys();
+
+		context.getRemoteProvider(other);
+		verify(provider, times(1)).getRemoteProvider(other);
+	}
+}
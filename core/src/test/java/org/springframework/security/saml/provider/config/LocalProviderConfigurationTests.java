@@ -0,0 +1,57 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider.config;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.springframework.security.saml.provider.service.config.ExternalIdentityProviderConfiguration;
+import org.springframework.security.saml.provider.service.config.LocalServiceProviderConfiguration;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class LocalProviderConfigurationTests {
+
+	@Test
+	void version_changes_with_keys_and_providers() throws Exception {
+		ExternalIdentityProviderConfiguration idp = new ExternalIdentityProviderConfiguration().setAlias("idp");
+		List<ExternalIdentityProviderConfiguration> providers = new LinkedList<>();
+		providers.add(idp);
+		LocalServiceProviderConfiguration configuration = new LocalServiceProviderConfiguration()
+			.setEntityId("http://sp.example.com")
+			.setProviders(providers);
+
+		long version = configuration.getVersion();
+		assertEquals(version, configuration.getVersion());
+		assertEquals(version, configuration.clone().getVersion());
+
+		idp.setMetadata("http://idp.example.com/metadata");
+		long providerChanged = configuration.getVersion();
+		assertNotEquals(version, providerChanged);
+
+		configuration.setKeys(new RotatingKeys());
+		long keysChanged = configuration.getVersion();
+		assertNotEquals(providerChanged, keysChanged);
+
+		providers.add(new ExternalIdentityProviderConfiguration().setAlias("idp2"));
+		assertNotEquals(keysChanged, configuration.getVersion());
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider.config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.web.client.ResourceAccessException;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PooledRestTemplateTests {
+
+	private final Set<Integer> clientPorts = new HashSet<>();
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private HttpServer server;
+	private String url;
+
+	@BeforeEach
+	void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/metadata", exchange -> {
+			synchronized (clientPorts) {
+				clientPorts.add(exchange.getRemoteAddress().getPort());
+			}
+			byte[] body = "metadata".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.createContext("/blocking", exchange -> {
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.sendResponseHeaders(204, -1);
+			exchange.close();
+		});
+		server.setExecutor(executor);
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@AfterEach
+	void stopServer() {
+		release.countDown();
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	@Test
+	void connections_are_reused() throws IOException {
+		PooledRestTemplate template = new Network(new NetworkConfiguration()).get(false);
+		try {
+			for (int i = 0; i < 3; i++) {
+				assertThat(template.getForObject(url + "/metadata", String.class), equalTo("metadata"));
+			}
+			assertThat(clientPorts.size(), equalTo(1));
+			assertThat(template.getPoolStats().getLeased(), equalTo(0));
+			assertThat(template.getPoolStats().getAvailable(), equalTo(1));
+		} finally {
+			template.destroy();
+		}
+	}
+
+	@Test
+	void pool_is_limited_and_waits_for_connect_timeout() throws Exception {
+		NetworkConfiguration configuration = new NetworkConfiguration()
+			.setMaxConnectionsPerRoute(1)
+			.setMaxConnectionsTotal(1)
+			.setConnectTimeout(200);
+		PooledRestTemplate template = new Network(configuration).get(false);
+		try {
+			assertThat(template.getPoolStats().getMax(), equalTo(1));
+			CompletableFuture<Void> blocking =
+				CompletableFuture.runAsync(() -> template.getForObject(url + "/blocking", String.class));
+			long deadline = System.currentTimeMillis() + 5000;
+			while (template.getPoolStats().getLeased() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertThat(template.getPoolStats().getLeased(), equalTo(1));
+
+			ResourceAccessException e = assertThrows(
+				ResourceAccessException.class,
+				() -> template.getForObject(url + "/metadata", String.class)
+			);
+			assertThat(e.getCause(), instanceOf(ConnectionPoolTimeoutException.class));
+
+			release.countDown();
+			blocking.get(5, TimeUnit.SECONDS);
+			assertThat(template.getPoolStats().getLeased(), equalTo(0));
+		} finally {
+			template.destroy();
+		}
+	}
+
+	@Test
+	void read_timeout_is_applied() throws Exception {
+		try (ServerSocket silent = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			CompletableFuture<Socket> accepted = CompletableFuture.supplyAsync(() -> {
+				try {
+					return silent.accept();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			PooledRestTemplate template = new Network(new NetworkConfiguration().setReadTimeout(200)).get(false);
+			try {
+				long start = System.currentTimeMillis();
+				ResourceAccessException e = assertThrows(
+					ResourceAccessException.class,
+					() -> template.getForObject("http://127.0.0.1:" + silent.getLocalPort(), String.class)
+				);
+				assertThat(e.getCause(), instanceOf(SocketTimeoutException.class));
+				assertThat(System.currentTimeMillis() - start, lessThan(5000L));
+			} finally {
+				template.destroy();
+				accepted.get(5, TimeUnit.SECONDS).close();
+			}
+		}
+	}
+
+	@Test
+	void evictor_thread_stops_on_destroy() throws Exception {
+		Set<Thread> before = evictorThreads();
+		PooledRestTemplate template = new Network(new NetworkConfiguration()).get(false);
+		Set<Thread> started = evictorThreads();
+		started.removeAll(before);
+		assertThat(started.size(), equalTo(1));
+
+		template.destroy();
+		Thread evictor = started.iterator().next();
+		evictor.join(5000);
+		assertFalse(evictor.isAlive());
+	}
+
+	private static Set<Thread> evictorThreads() {
+		Set<Thread> threads = new HashSet<>();
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("saml-network-evictor-")) {
+				threads.add(thread);
+			}
+		}
+		return threads;
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider.config;
+
+import org.springframework.security.saml.provider.SamlServerConfiguration;
+import org.springframework.security.saml.provider.service.config.ExternalIdentityProviderConfiguration;
+import org.springframework.security.saml.provider.service.config.LocalServiceProviderConfiguration;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotSamlConfigurationRepositoryTests {
+
+	private SamlServerConfiguration configuration;
+	private SnapshotSamlConfigurationRepository repository;
+
+	@BeforeEach
+	void setUp() {
+		configuration = new SamlServerConfiguration().setServiceProvider(
+			new LocalServiceProviderConfiguration()
+				.setEntityId("http://sp.example.com")
+				.setProviders(singletonList(new ExternalIdentityProviderConfiguration().setAlias("idp")))
+		);
+		repository = new SnapshotSamlConfigurationRepository(configuration);
+	}
+
+	@Test
+	void overlays_share_the_snapshot() {
+		SamlServerConfiguration host1 = repository.getServerConfiguration("http://host1");
+		SamlServerConfiguration host2 = repository.getServerConfiguration("http://host2");
+
+		assertSame(host1, repository.getServerConfiguration("http://host1"));
+		assertEquals("http://host1", host1.getServiceProvider().getBasePath());
+		assertEquals("http://host2", host2.getServiceProvider().getBasePath());
+		assertNull(configuration.getServiceProvider().getBasePath());
+		assertSame(configuration.getServiceProvider().getProviders(), host1.getServiceProvider().getProviders());
+		assertEquals(configuration.getVersion(), host1.getVersion());
+		assertEquals(configuration.getServiceProvider().getVersion(), host1.getServiceProvider().getVersion());
+	}
+
+	@Test
+	void update_replaces_the_snapshot() {
+		SamlServerConfiguration host = repository.getServerConfiguration("http://host");
+		SamlServerConfiguration updated = repository.update(c -> c.getServiceProvider().setWantAssertionsSigned(true));
+
+		assertNotSame(configuration, updated);
+		assertSame(updated, repository.getServerConfiguration());
+		assertNotEquals(configuration.getVersion(), updated.getVersion());
+		assertTrue(updated.getServiceProvider().isWantAssertionsSigned());
+		assertFalse(configuration.getServiceProvider().isWantAssertionsSigned());
+
+		SamlServerConfiguration updatedHost = repository.getServerConfiguration("http://host");
+		assertNotSame(host, updatedHost);
+		assertTrue(updatedHost.getServiceProvider().isWantAssertionsSigned());
+	}
+
+	@Test
+	void thread_local_repository_shares_snapshots() {
+		ThreadLocalSamlConfigurationRepository threadLocal = new ThreadLocalSamlConfigurationRepository(repository);
+		assertSame(configuration, threadLocal.getServerConfiguration());
+		assertSame(
+			repository.getServerConfiguration("http://host"),
+			threadLocal.getServerConfiguration("http://host")
+		);
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider.provisioning;
+
+import org.springframework.security.saml.SamlMetadataCache;
+import org.springframework.security.saml.SamlTransformer;
+import org.springframework.security.saml.SamlValidator;
+import org.springframework.security.saml.key.KeyType;
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.provider.SamlServerConfiguration;
+import org.springframework.security.saml.provider.config.RotatingKeys;
+import org.springframework.security.saml.provider.config.StaticSamlConfigurationRepository;
+import org.springframework.security.saml.provider.config.ThreadLocalSamlConfigurationRepository;
+import org.springframework.security.saml.provider.service.ServiceProviderService;
+import org.springframework.security.saml.provider.service.config.ExternalIdentityProviderConfiguration;
+import org.springframework.security.saml.provider.service.config.LocalServiceProviderConfiguration;
+import org.springframework.security.saml.saml2.metadata.NameId;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+
+class HostBasedSamlServiceProviderProvisioningTests {
+
+	private SamlServerConfiguration configuration;
+	private ExternalIdentityProviderConfiguration idp;
+	private HostBasedSamlServiceProviderProvisioning provisioning;
+
+	@BeforeEach
+	void setUp() {
+		idp = new ExternalIdentityProviderConfiguration().setAlias("idp");
+		configuration = new SamlServerConfiguration().setServiceProvider(
+			new LocalServiceProviderConfiguration()
+				.setEntityId("http://sp.example.com")
+				.setBasePath("http://sp.example.com")
+				.setKeys(new RotatingKeys().setActive(new SimpleKey().setName("sp").setType(KeyType.SIGNING)))
+				.setProviders(singletonList(idp))
+		);
+		provisioning = new HostBasedSamlServiceProviderProvisioning(
+			new ThreadLocalSamlConfigurationRepository(new StaticSamlConfigurationRepository(configuration)),
+			mock(SamlTransformer.class),
+			mock(SamlValidator.class),
+			mock(SamlMetadataCache.class)
+		);
+	}
+
+	@Test
+	void hosted_provider_is_built_once_per_version() {
+		ServiceProviderService provider = provisioning.getHostedProvider();
+		assertSame(provider, provisioning.getHostedProvider());
+
+		configuration.getServiceProvider().setWantAssertionsSigned(true);
+		ServiceProviderService changed = provisioning.getHostedProvider();
+		assertNotSame(provider, changed);
+		assertSame(changed, provisioning.getHostedProvider());
+
+		idp.setNameId(NameId.PERSISTENT);
+		assertNotSame(changed, provisioning.getHostedProvider());
+		changed = provisioning.getHostedProvider();
+
+		configuration.getServiceProvider().setBasePath("http://other.example.com");
+		assertNotSame(changed, provisioning.getHostedProvider());
+	}
+}
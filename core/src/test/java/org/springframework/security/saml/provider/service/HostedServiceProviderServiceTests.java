@@ -0,0 +1,149 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider.service;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.security.saml.SamlMetadataCache;
+import org.springframework.security.saml.provider.service.config.ExternalIdentityProviderConfiguration;
+import org.springframework.security.saml.provider.service.config.LocalServiceProviderConfiguration;
+import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata;
+import org.springframework.security.saml.spi.DefaultSamlTransformer;
+import org.springframework.security.saml.spi.opensaml.OpenSamlImplementation;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class HostedServiceProviderServiceTests {
+
+	private static final String NESTED_AGGREGATE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+		"<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\">\n" +
+		"  <md:EntityDescriptor entityID=\"http://idp1\">\n" +
+		"    <md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">\n" +
+		"      <md:SingleSignOnService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect\" " +
+		"Location=\"https://idp1/sso\"/>\n" +
+		"    </md:IDPSSODescriptor>\n" +
+		"  </md:EntityDescriptor>\n" +
+		"  <md:EntitiesDescriptor>\n" +
+		"    <md:EntityDescriptor entityID=\"http://idp2\">\n" +
+		"      <md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">\n" +
+		"        <md:SingleSignOnService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect\" " +
+		"Location=\"https://idp2/sso\"/>\n" +
+		"      </md:IDPSSODescriptor>\n" +
+		"    </md:EntityDescriptor>\n" +
+		"  </md:EntitiesDescriptor>\n" +
+		"</md:EntitiesDescriptor>\n";
+
+	private final AtomicLong now = new AtomicLong(1000);
+	private final SamlMetadataCache cache = mock(SamlMetadataCache.class);
+	private final IdentityProviderMetadata idp =
+		new IdentityProviderMetadata().setEntityId("http://idp1").setEntityAlias("idp1");
+	private LocalServiceProviderConfiguration configuration;
+	private HostedServiceProviderService service;
+
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	void setUp() {
+		Clock clock = mock(Clock.class);
+		when(clock.millis()).thenAnswer(invocation -> now.get());
+		when(cache.getMetadata(anyString(), anyBoolean())).thenReturn(new byte[0]);
+		when(cache.getResolvedMetadata(any(), any(), any())).thenReturn(idp);
+		when(cache.getDerivedMetadata(any(), any(), any()))
+			.thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(2).get());
+		configuration = new LocalServiceProviderConfiguration()
+			.setProviders(singletonList(
+				new ExternalIdentityProviderConfiguration()
+					.setAlias("idp1")
+					.setMetadata("http://idp1/metadata")
+			));
+		service = new HostedServiceProviderService(configuration, null, null, null, cache);
+		service.setClock(clock).setRemoteProviderRefreshMillis(1000);
+	}
+
+	@Test
+	void lookups_read_the_published_index() {
+		for (int i = 0; i < 3; i++) {
+			assertSame(idp, service.getRemoteProvider("http://idp1"));
+			assertSame(idp, service.getRemoteProviderByAlias("idp1"));
+		}
+		verify(cache, times(1)).getMetadata("http://idp1/metadata", false);
+
+		now.addAndGet(1000);
+		assertSame(idp, service.getRemoteProvider("http://idp1"));
+		assertSame(idp, service.getRemoteProvider("http://idp1"));
+		verify(cache, times(2)).getMetadata("http://idp1/metadata", false);
+	}
+
+	@Test
+	void configuration_change_rebuilds_the_index() {
+		assertSame(idp, service.getRemoteProvider("http://idp1"));
+		configuration.getProviders().get(0).setLinktext("Identity provider");
+		assertSame(idp, service.getRemoteProvider("http://idp1"));
+		verify(cache, times(2)).getMetadata("http://idp1/metadata", false);
+	}
+
+	@Test
+	void lazy_metadata_that_can_not_be_indexed_is_resolved_fully() {
+		assertLazyMetadataResolves(NESTED_AGGREGATE);
+	}
+
+	@Test
+	void lazy_metadata_keeps_the_configured_alias() {
+		String flat = NESTED_AGGREGATE.replace("  <md:EntitiesDescriptor>\n", "")
+			.replace("  </md:EntitiesDescriptor>\n", "");
+		assertLazyMetadataResolves(flat);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void assertLazyMetadataResolves(String metadata) {
+		SamlMetadataCache documents = mock(SamlMetadataCache.class);
+		when(documents.getMetadata(anyString(), anyBoolean())).thenReturn(metadata.getBytes(UTF_8));
+		when(documents.getResolvedMetadata(any(), any(), any()))
+			.thenAnswer(invocation -> invocation.<Function<byte[], ?>>getArgument(2).apply(invocation.getArgument(1)));
+		when(documents.getDerivedMetadata(any(), any(), any()))
+			.thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(2).get());
+		configuration.getProviders().get(0).setLazyMetadata(true);
+		HostedServiceProviderService lazy = new HostedServiceProviderService(
+			configuration,
+			null,
+			new DefaultSamlTransformer(new OpenSamlImplementation(Clock.systemUTC()).init()),
+			null,
+			documents
+		);
+
+		assertThat(lazy.getRemoteProviderByAlias("idp1").getEntityId(), equalTo("http://idp1"));
+		assertThat(lazy.getRemoteProvider("http://idp1").getEntityAlias(), equalTo("idp1"));
+		assertThat(lazy.getRemoteProvider("http://idp2").getEntityId(), equalTo("http://idp2"));
+	}
+}
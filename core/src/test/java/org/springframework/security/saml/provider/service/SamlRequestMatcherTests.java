@@ -33,6 +33,8 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class SamlRequestMatcherTests {
@@ -148,4 +150,30 @@ class SamlRequestMatcherTests {
 		assertTrue(matches(request));
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void routedOncePerRequest() {
+		SamlRequestMatcher logout = new SamlRequestMatcher(getProvisioning(), "logout");
+		matcher = new SamlRequestMatcher(getProvisioning(), getPath());
+		request = getRequest();
+		assertFalse(logout.matches(request));
+		assertTrue(matches(request));
+		verify(provisioning, times(1)).getHostedProvider();
+
+		request.setPathInfo("/saml/sp/logout");
+		assertTrue(logout.matches(request));
+		assertFalse(matches(request));
+		verify(provisioning, times(2)).getHostedProvider();
+	}
+
+	@Test
+	public void outsidePrefix() {
+		url = "/saml/idp/SSO";
+		matcher = new SamlRequestMatcher(getProvisioning(), getPath());
+		assertFalse(matches(getRequest()));
+		url = "/saml/sp/SSOs";
+		assertFalse(matches(getRequest()));
+		url = "/saml/sp/SSO";
+		assertTrue(matches(getRequest()));
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.provider.service;
+
+import javax.servlet.FilterChain;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.saml.provider.provisioning.SamlProviderProvisioning;
+import org.springframework.security.saml.provider.service.config.LocalServiceProviderConfiguration;
+import org.springframework.security.saml.saml2.metadata.ServiceProviderMetadata;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ServiceProviderMetadataFilterTests {
+
+	private SamlProviderProvisioning<ServiceProviderService> provisioning = mock(SamlProviderProvisioning.class);
+	private ServiceProviderService provider = mock(ServiceProviderService.class);
+	private LocalServiceProviderConfiguration configuration = new LocalServiceProviderConfiguration()
+		.setEntityId("http://sp.example.com");
+	private ServiceProviderMetadataFilter filter;
+
+	@BeforeEach
+	void setUp() {
+		when(provisioning.getHostedProvider()).thenReturn(provider);
+		when(provider.getConfiguration()).thenReturn(configuration);
+		when(provider.getMetadata()).thenReturn(new ServiceProviderMetadata());
+		when(provider.toXml(any())).then(
+			invocation -> "<md:EntityDescriptor wantAssertionsSigned=\"" + configuration.isWantAssertionsSigned() + "\"/>"
+		);
+		filter = new ServiceProviderMetadataFilter(provisioning, request -> true, "saml-sp-metadata.xml");
+	}
+
+	@Test
+	void metadata_is_created_once_per_version() throws Exception {
+		MockHttpServletResponse first = get(null);
+		assertThat(first.getStatus(), equalTo(200));
+		assertThat(first.getContentAsString(), equalTo("<md:EntityDescriptor wantAssertionsSigned=\"false\"/>"));
+		String etag = first.getHeader("ETag");
+		assertThat(etag, notNullValue());
+		assertThat(first.getHeader("Cache-Control"), equalTo("no-cache"));
+
+		MockHttpServletResponse second = get(etag);
+		assertThat(second.getStatus(), equalTo(304));
+		assertThat(second.getContentAsByteArray().length, equalTo(0));
+		verify(provider, times(1)).toXml(any());
+
+		configuration.setWantAssertionsSigned(!configuration.isWantAssertionsSigned());
+		MockHttpServletResponse third = get(etag);
+		assertThat(third.getStatus(), equalTo(200));
+		verify(provider, times(2)).toXml(any());
+
+		filter.setMaxAgeSeconds(3600);
+		assertThat(get(null).getHeader("Cache-Control"), equalTo("max-age=3600, must-revalidate"));
+		verify(provider, times(2)).toXml(any());
+		assertThat(third.getHeader("ETag"), not(equalTo(etag)));
+	}
+
+	private MockHttpServletResponse get(String etag) throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/saml/sp/metadata");
+		if (etag != null) {
+			request.addHeader("If-None-Match", etag);
+		}
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request, response, mock(FilterChain.class));
+		return response;
+	}
+}
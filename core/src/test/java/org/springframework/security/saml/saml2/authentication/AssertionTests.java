@@ -16,6 +16,7 @@
  */
 package org.springframework.security.saml.saml2.authentication;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -24,8 +25,11 @@ import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.List;
 
+import org.springframework.security.saml.SamlKeyException;
+import org.springframework.security.saml.SamlTransformer;
 import org.springframework.security.saml.key.KeyType;
 import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.RetentionPolicy;
 import org.springframework.security.saml.saml2.Saml2Object;
 import org.springframework.security.saml.saml2.attribute.Attribute;
 import org.springframework.security.saml.saml2.encrypt.DataEncryptionMethod;
@@ -35,7 +39,10 @@ import org.springframework.security.saml.saml2.metadata.NameId;
 import org.springframework.security.saml.saml2.signature.AlgorithmMethod;
 import org.springframework.security.saml.saml2.signature.DigestMethod;
 import org.springframework.security.saml.saml2.signature.SignatureException;
+import org.springframework.security.saml.spi.DefaultSamlTransformer;
 import org.springframework.security.saml.spi.ExamplePemKey;
+import org.springframework.security.saml.spi.opensaml.KeySelectionMetrics;
+import org.springframework.security.saml.spi.opensaml.OpenSamlImplementation;
 
 import org.hamcrest.core.IsEqual;
 import org.joda.time.DateTime;
@@ -54,7 +61,9 @@ import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.security.saml.saml2.attribute.AttributeNameFormat.BASIC;
 import static org.springframework.security.saml.saml2.authentication.AuthenticationContextClassReference.PASSWORD;
 import static org.springframework.security.saml.saml2.authentication.AuthenticationContextClassReference.PASSWORD_PROTECTED_TRANSPORT;
@@ -155,6 +164,30 @@ public class AssertionTests extends MetadataBase {
 		config.fromXml(xml, asList(spSigning, idpSigning), null);
 	}
 
+	@Test
+	public void validate_signatures_of_parsed_response() throws Exception {
+		Response response =
+			(Response) config.fromXml(getFileBytes("/test-data/assertion/assertion-external-20180507.xml"), null, null);
+		response.setSigningKey(idpSigning, AlgorithmMethod.RSA_SHA256, DigestMethod.SHA256);
+		response.getAssertions().get(0).setSigningKey(spSigning, AlgorithmMethod.RSA_SHA256, DigestMethod.SHA256);
+		String xml = config.toXml(response);
+
+		Response parsed = (Response) config.fromXml(xml, null, null);
+		assertNull(parsed.getSignature());
+		assertNull(parsed.getAssertions().get(0).getSignature());
+		assertThrows(
+			SignatureException.class,
+			() -> config.validateSignatures(parsed, asList(idpSigning), null)
+		);
+
+		Response validated = config.validateSignatures(parsed, asList(spSigning, idpSigning), null);
+		assertSame(parsed, validated);
+		assertTrue(validated.getSignature().isValidated());
+		assertThat(validated.getSignature().getValidatingKey(), equalTo(idpSigning));
+		assertTrue(validated.getAssertions().get(0).getSignature().isValidated());
+		assertThat(validated.getAssertions().get(0).getSignature().getValidatingKey(), equalTo(spSigning));
+	}
+
 	@Test
 	public void read_saml_response() throws Exception {
 		Response response =
@@ -627,4 +660,105 @@ public class AssertionTests extends MetadataBase {
 		assertThat(resolve.getOriginalXML(), equalTo(new String(assertion, StandardCharsets.UTF_8)));
 	}
 
+	@Test
+	public void from_encoded_xml() throws Exception {
+		String xml = new String(getFileBytes("/test-data/assertion/assertion-external-20180507.xml"), StandardCharsets.UTF_8);
+		Saml2Object resolve = config.fromEncodedXml(config.samlEncode(xml, true), true, null, null);
+		assertThat(resolve.getClass(), equalTo(Response.class));
+		assertThat(((Response) resolve).getAssertions().size(), equalTo(1));
+		assertThat(resolve.getOriginalXML(), containsString("samlp:Response"));
+	}
+
+	@Test
+	public void to_xml_stream() throws Exception {
+		String xml = new String(getFileBytes("/test-data/assertion/assertion-external-20180507.xml"), StandardCharsets.UTF_8);
+		Response response = (Response) config.fromXml(xml, null, null);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		config.toXml(response, out);
+		Response streamed = (Response) config.fromXml(out.toByteArray(), null, null);
+		assertThat(streamed.getId(), equalTo(response.getId()));
+		assertThat(streamed.getAssertions().get(0).getId(), equalTo(response.getAssertions().get(0).getId()));
+	}
+
+	@Test
+	public void retention_policy() throws Exception {
+		String xml = new String(getFileBytes("/test-data/assertion/assertion-external-20180507.xml"), StandardCharsets.UTF_8);
+		Response response = (Response) config.fromEncodedXml(config.samlEncode(xml, false), false, null, null);
+		Assertion assertion = response.getAssertions().get(0);
+		assertNotNull(assertion.getImplementation());
+
+		response.retain(RetentionPolicy.XML);
+		assertNull(response.getImplementation());
+		assertThat(response.getOriginalXML(), containsString("samlp:Response"));
+
+		assertion.retain(RetentionPolicy.DOM);
+		assertNotNull(assertion.getImplementation());
+
+		response = (Response) config.fromXml(xml, null, null);
+		response.retain(RetentionPolicy.NONE);
+		assertNull(response.getImplementation());
+		assertNull(response.getOriginalXML());
+		assertThat(response.getAssertions().get(0).getId(), equalTo(assertion.getId()));
+	}
+
+	@Test
+	public void verification_key_selected_by_key_info() throws Exception {
+		Response response =
+			(Response) config.fromXml(getFileBytes("/test-data/assertion/assertion-external-20180507.xml"), null, null);
+		response.setSigningKey(idpSigning, AlgorithmMethod.RSA_SHA256, DigestMethod.SHA256);
+		response.getAssertions().get(0).setSigningKey(spSigning, AlgorithmMethod.RSA_SHA256, DigestMethod.SHA256);
+		String xml = config.toXml(response);
+
+		OpenSamlImplementation implementation = new OpenSamlImplementation(time).init();
+		SamlTransformer transformer = new DefaultSamlTransformer(implementation);
+		Response validated = (Response) transformer.fromXml(xml, asList(decryptionVerificationKey, spSigning, idpSigning), null);
+		assertThat(validated.getSignature().getValidatingKey(), equalTo(idpSigning));
+		assertThat(validated.getAssertions().get(0).getSignature().getValidatingKey(), equalTo(spSigning));
+		KeySelectionMetrics metrics = implementation.getSignatureKeyMetrics();
+		assertThat(metrics.getDirected(), equalTo(2L));
+
+		assertThrows(SignatureException.class, () -> transformer.fromXml(xml, asList(decryptionVerificationKey), null));
+		assertThat(metrics.getRejected(), equalTo(1L));
+		assertThat(metrics.getFallbacks(), equalTo(0L));
+
+		implementation.setKeyTrialFallback(true);
+		assertThrows(SignatureException.class, () -> transformer.fromXml(xml, asList(decryptionVerificationKey), null));
+		assertThat(metrics.getFallbacks(), equalTo(1L));
+	}
+
+	@Test
+	public void decryption_key_selected_by_key_info() throws Exception {
+		Response response =
+			(Response) config.fromXml(getFileBytes("/test-data/assertion/assertion-external-20180507.xml"), null, null);
+		SimpleKey encryptionKey =
+			new SimpleKey("encryption-key", null, decryptionKey.getCertificate(), null, KeyType.ENCRYPTION);
+		response.getAssertions().get(0)
+			.setSigningKey(null, null, null)
+			.setEncryptionKey(encryptionKey, KeyEncryptionMethod.RSA_1_5, DataEncryptionMethod.AES128_CBC);
+		String xml = config.toXml(response).replaceFirst(
+			"(<xenc:EncryptedKey[^>]*>\\s*<xenc:EncryptionMethod[^>]*/>)",
+			"$1<ds:KeyInfo xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\"><ds:KeyName>unknown-key</ds:KeyName></ds:KeyInfo>"
+		);
+		assertThat(xml, containsString("unknown-key"));
+
+		OpenSamlImplementation implementation = new OpenSamlImplementation(time).init();
+		SamlTransformer transformer = new DefaultSamlTransformer(implementation);
+		SamlKeyException expected = assertThrows(
+			SamlKeyException.class,
+			() -> transformer.fromXml(xml, null, asList(decryptionKey))
+		);
+		assertThat(expected.getMessage(), equalTo("No decryption key matches the KeyInfo."));
+		KeySelectionMetrics metrics = implementation.getDecryptionKeyMetrics();
+		assertThat(metrics.getRejected(), equalTo(1L));
+
+		implementation.setKeyTrialFallback(true);
+		Response decrypted = (Response) transformer.fromXml(xml, null, asList(decryptionKey));
+		assertThat(decrypted.getAssertions().size(), equalTo(1));
+		assertThat(
+			decrypted.getAssertions().get(0).getSubject().getPrincipal().getValue(),
+			equalTo(response.getAssertions().get(0).getSubject().getPrincipal().getValue())
+		);
+		assertThat(metrics.getFallbacks(), equalTo(1L));
+	}
+
 }
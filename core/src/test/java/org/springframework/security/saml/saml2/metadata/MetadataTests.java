@@ -17,6 +17,7 @@
 package org.springframework.security.saml.saml2.metadata;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -39,6 +40,7 @@ import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.security.saml.saml2.Namespace.NS_PROTOCOL;
@@ -665,5 +667,54 @@ public class MetadataTests extends MetadataBase {
 		assertFalse(entities.hasNext());
 	}
 
+	@Test
+	public void streaming_signed_metadata() throws IOException {
+		Metadata metadata = config.fromMetadataXml(
+			getFileBytes("/test-data/metadata/sp-metadata-login.run.pivotal.io-20180504.xml"),
+			asList(keyLoginRunPivotalIo),
+			new MetadataFilter()
+		);
+		assertNotNull(metadata);
+		assertThat(metadata.getClass(), equalTo(ServiceProviderMetadata.class));
+		assertThat(metadata.getEntityId(), equalTo("login.run.pivotal.io"));
+		assertNotNull(metadata.getSignature());
+		assertTrue(metadata.getSignature().isValidated());
+		assertThat(metadata.getSignature().getValidatingKey(), equalTo(keyLoginRunPivotalIo));
+		assertThat(metadata.getSignature().getDigestAlgorithm(), equalTo(DigestMethod.SHA1));
+	}
+
+	@Test
+	public void streaming_tampered_metadata() throws IOException {
+		String xml = new String(
+			getFileBytes("/test-data/metadata/sp-metadata-login.run.pivotal.io-20180504.xml"),
+			StandardCharsets.UTF_8
+		).replace("/saml/SSO/alias/", "/saml/other/alias/");
+		assertThrows(
+			SignatureException.class,
+			() -> config.fromMetadataXml(
+				xml.getBytes(StandardCharsets.UTF_8),
+				asList(keyLoginRunPivotalIo),
+				new MetadataFilter()
+			)
+		);
+	}
 
+	@Test
+	public void streaming_entities_descriptor() throws IOException {
+		Metadata entities = config.fromMetadataXml(
+			getFileBytes("/test-data/metadata/entities-descriptor-example.xml"),
+			null,
+			new MetadataFilter().setServiceProviders(false)
+		);
+		assertNotNull(entities);
+		assertThat(entities.getClass(), equalTo(IdentityProviderMetadata.class));
+		assertFalse(entities.hasNext());
+
+		entities = config.fromMetadataXml(
+			getFileBytes("/test-data/metadata/entities-descriptor-example.xml"),
+			null,
+			new MetadataFilter().setEntityIds(asList("unknown.entity.id"))
+		);
+		assertNull(entities);
+	}
 }
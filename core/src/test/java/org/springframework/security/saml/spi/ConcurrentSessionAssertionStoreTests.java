@@ -0,0 +1,117 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi;
+
+import java.util.List;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.saml.saml2.authentication.Assertion;
+import org.springframework.security.saml.saml2.authentication.AuthenticationStatement;
+import org.springframework.security.saml.saml2.authentication.NameIdPrincipal;
+import org.springframework.security.saml.saml2.authentication.Subject;
+import org.springframework.security.saml.saml2.metadata.NameId;
+
+import org.junit.jupiter.api.Test;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+class ConcurrentSessionAssertionStoreTests {
+
+	private final ConcurrentSessionAssertionStore store = new ConcurrentSessionAssertionStore();
+	private final MockHttpServletRequest request = new MockHttpServletRequest();
+
+	@Test
+	void records_are_removed_in_order() {
+		assertThat(store.removeFirst(request), nullValue());
+		store.addMessage(request, "1", assertion("1", "http://sp1", "s1"));
+		store.addMessage(request, "2", assertion("2", "http://sp2", "s2"));
+		store.addMessage(request, "3", assertion("3", "http://sp1", "s3"));
+		assertThat(store.size(request), equalTo(3));
+
+		Assertion stored = store.getMessage(request, "2");
+		assertThat(stored.getId(), equalTo("2"));
+		assertThat(stored.getIssuer().getValue(), equalTo("http://idp"));
+		assertThat(stored.getSubject().getPrincipal().getValue(), equalTo("user"));
+		assertThat(stored.getSubject().getPrincipal().getFormat(), equalTo(NameId.PERSISTENT));
+		assertThat(stored.getAuthenticationStatements().get(0).getSessionIndex(), equalTo("s2"));
+
+		assertThat(store.removeMessage(request, "1").getId(), equalTo("1"));
+		assertThat(store.removeMessage(request, "3").getId(), equalTo("3"));
+		assertThat(store.getMessages(request).size(), equalTo(1));
+		assertThat(store.removeFirst(request).getId(), equalTo("2"));
+		assertThat(store.hasMessages(request), equalTo(false));
+		assertThat(store.removeFirst(request), nullValue());
+	}
+
+	@Test
+	void remove_by_id() {
+		store.addMessage(request, "1", assertion("1", "http://sp1", "s1"));
+		store.addMessage(request, "2", assertion("2", "http://sp2", "s2"));
+		assertThat(store.removeMessage(request, "1").getId(), equalTo("1"));
+		assertThat(store.getMessage(request, "1"), nullValue());
+		assertThat(store.removeFirst(request).getId(), equalTo("2"));
+	}
+
+	@Test
+	void remove_by_filter() {
+		store.addMessage(request, "1", assertion("1", "http://sp1", "s1"));
+		store.addMessage(request, "2", assertion("2", "http://sp2", "s2"));
+		store.addMessage(request, "3", assertion("3", "http://sp1", "s3"));
+		List<Assertion> removed = store.removeMessages(
+			request,
+			a -> "http://sp1".equals(a.getSubject().getPrincipal().getSpNameQualifier()),
+			Assertion::getId
+		);
+		assertThat(removed.size(), equalTo(2));
+		assertThat(store.size(request), equalTo(1));
+		assertThat(store.getMessage(request, "3"), nullValue());
+		assertThat(store.removeFirst(request).getId(), equalTo("2"));
+	}
+
+	@Test
+	void removed_records_are_purged_from_the_queue() {
+		store.addMessage(request, "kept", assertion("kept", "http://sp1", "s1"));
+		for (int i = 0; i < 1000; i++) {
+			store.addMessage(request, "id" + i, assertion("id" + i, "http://sp2", "s" + i));
+			store.removeMessage(request, "id" + i);
+		}
+		assertThat(store.getIndex(request, false).getQueueLength() <= 3, equalTo(true));
+		assertThat(store.getMessages(request).size(), equalTo(1));
+		assertThat(store.removeFirst(request).getId(), equalTo("kept"));
+	}
+
+	private Assertion assertion(String id, String sp, String sessionIndex) {
+		return new Assertion()
+			.setId(id)
+			.setIssuer("http://idp")
+			.setSubject(
+				new Subject().setPrincipal(
+					new NameIdPrincipal()
+						.setSpNameQualifier(sp)
+						.setFormat(NameId.PERSISTENT)
+						.setValue("user")
+				)
+			)
+			.setAuthenticationStatements(
+				singletonList(new AuthenticationStatement().setSessionIndex(sessionIndex))
+			);
+	}
+}
@@ -18,7 +18,23 @@
 package org.springframework.security.saml.spi;
 
 import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.saml.SamlProviderNotFoundException;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestOperations;
@@ -29,9 +45,14 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -59,8 +80,10 @@ class DefaultMetadataCacheTests {
 			.setCacheMissDurationMillis(missTime);
 
 		for (RestOperations network : asList(validatingNetwork, nonValidatingNetwork)) {
-			when(network.getForObject(hitUrl, byteClass)).thenAnswer(invocation -> new byte[0]); //new object each time
-			when(network.getForObject(missUrl, byteClass)).thenThrow(new ResourceAccessException(missUrl));
+			when(network.exchange(eq(hitUrl), eq(HttpMethod.GET), any(HttpEntity.class), eq(byteClass)))
+				.thenAnswer(invocation -> new ResponseEntity<>(new byte[0], HttpStatus.OK)); //new object each time
+			when(network.exchange(eq(missUrl), eq(HttpMethod.GET), any(HttpEntity.class), eq(byteClass)))
+				.thenThrow(new ResourceAccessException(missUrl));
 		}
 		when(clock.millis()).thenAnswer(invocation -> System.currentTimeMillis());
 	}
@@ -73,14 +96,14 @@ class DefaultMetadataCacheTests {
 	@Test
 	void nonValidatingNetworkCalled() {
 		cache.getMetadata(hitUrl, false);
-		verify(validatingNetwork).getForObject(hitUrl, byteClass);
+		verifyDownloads(validatingNetwork, 1);
 		verifyZeroInteractions(nonValidatingNetwork);
 	}
 
 	@Test
 	void validatingNetworkCalled() {
 		cache.getMetadata(hitUrl, true);
-		verify(nonValidatingNetwork).getForObject(hitUrl, byteClass);
+		verifyDownloads(nonValidatingNetwork, 1);
 		verifyZeroInteractions(validatingNetwork);
 	}
 
@@ -125,6 +148,149 @@ class DefaultMetadataCacheTests {
 		assertNotSame(miss1, miss2);
 	}
 
+	@Test
+	void resolvedMetadataReusedForSameDocument() {
+		AtomicInteger resolutions = new AtomicInteger();
+		byte[] data = cache.getMetadata(hitUrl, true);
+		Object r1 = cache.getResolvedMetadata("key", data, d -> new Object[] {resolutions.incrementAndGet()});
+		Object r2 = cache.getResolvedMetadata("key", data, d -> new Object[] {resolutions.incrementAndGet()});
+		assertSame(r1, r2);
+		assertEquals(1, resolutions.get());
+	}
+
+	@Test
+	void resolvedMetadataReusedForSameContent() {
+		AtomicInteger resolutions = new AtomicInteger();
+		Object r1 = cache.getResolvedMetadata("key", "<md/>".getBytes(), d -> resolutions.incrementAndGet());
+		Object r2 = cache.getResolvedMetadata("key", "<md/>".getBytes(), d -> resolutions.incrementAndGet());
+		assertSame(r1, r2);
+		assertEquals(1, resolutions.get());
+	}
+
+	@Test
+	void resolvedMetadataChangesWithContent() {
+		AtomicInteger resolutions = new AtomicInteger();
+		cache.getResolvedMetadata("key", "<md/>".getBytes(), d -> resolutions.incrementAndGet());
+		cache.getResolvedMetadata("key", "<md id='1'/>".getBytes(), d -> resolutions.incrementAndGet());
+		cache.getResolvedMetadata("other-key", "<md id='1'/>".getBytes(), d -> resolutions.incrementAndGet());
+		assertEquals(3, resolutions.get());
+	}
+
+	@Test
+	void notModifiedExtendsCachedCopy() {
+		when(validatingNetwork.exchange(eq(hitUrl), eq(HttpMethod.GET), any(HttpEntity.class), eq(byteClass)))
+			.thenAnswer(invocation -> {
+				HttpEntity<?> request = invocation.getArgument(2);
+				if ("\"v1\"".equals(request.getHeaders().getIfNoneMatch().stream().findFirst().orElse(null))) {
+					return new ResponseEntity<>(HttpStatus.NOT_MODIFIED);
+				}
+				HttpHeaders headers = new HttpHeaders();
+				headers.setETag("\"v1\"");
+				return new ResponseEntity<>(new byte[0], headers, HttpStatus.OK);
+			});
+		Object hit1 = cache.getMetadata(hitUrl, false);
+		reset(clock);
+		when(clock.millis()).thenReturn(System.currentTimeMillis() + (2 * cacheTime));
+		Object hit2 = cache.getMetadata(hitUrl, false);
+		assertSame(hit1, hit2);
+		verifyDownloads(validatingNetwork, 2);
+		assertEquals(1, cache.getDownloadCount());
+		assertEquals(1, cache.getNotModifiedCount());
+	}
+
+	@Test
+	void cacheDurationFromMetadata() {
+		returnMetadata("<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" " +
+			"cacheDuration=\"PT1H\"/>");
+		cache.setMaxCacheDurationMillis(1000 * 60 * 30);
+		Object hit1 = cache.getMetadata(hitUrl, false);
+		reset(clock);
+		when(clock.millis()).thenReturn(System.currentTimeMillis() + (1000 * 60 * 20));
+		assertSame(hit1, cache.getMetadata(hitUrl, false));
+		reset(clock);
+		when(clock.millis()).thenReturn(System.currentTimeMillis() + (1000 * 60 * 40));
+		assertNotSame(hit1, cache.getMetadata(hitUrl, false));
+	}
+
+	@Test
+	void expiredMetadataRejected() {
+		returnMetadata("<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" " +
+			"validUntil=\"2001-01-01T00:00:00Z\"/>");
+		Assertions.assertThrows(
+			SamlProviderNotFoundException.class,
+			() -> cache.getMetadata(hitUrl, false)
+		);
+	}
+
+	@Test
+	void concurrentMissesDownloadOnce() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(validatingNetwork.exchange(eq(hitUrl), eq(HttpMethod.GET), any(HttpEntity.class), eq(byteClass)))
+			.thenAnswer(invocation -> {
+				started.countDown();
+				release.await(5, TimeUnit.SECONDS);
+				return new ResponseEntity<>(new byte[0], HttpStatus.OK);
+			});
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<byte[]>> results = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				results.add(executor.submit(() -> cache.getMetadata(hitUrl, false)));
+			}
+			started.await(5, TimeUnit.SECONDS);
+			Thread.sleep(100);
+			release.countDown();
+			byte[] first = results.get(0).get(5, TimeUnit.SECONDS);
+			for (Future<byte[]> result : results) {
+				assertSame(first, result.get(5, TimeUnit.SECONDS));
+			}
+			verifyDownloads(validatingNetwork, 1);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void waitingThreadsReceiveLoaderFailure() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Error failure = new Error("loader failure");
+		when(validatingNetwork.exchange(eq(hitUrl), eq(HttpMethod.GET), any(HttpEntity.class), eq(byteClass)))
+			.thenAnswer(invocation -> {
+				started.countDown();
+				release.await(5, TimeUnit.SECONDS);
+				throw failure;
+			});
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<byte[]> loading = executor.submit(() -> cache.getMetadata(hitUrl, false));
+			started.await(5, TimeUnit.SECONDS);
+			Future<byte[]> waiting = executor.submit(() -> cache.getMetadata(hitUrl, false));
+			Thread.sleep(100);
+			release.countDown();
+			for (Future<byte[]> result : asList(loading, waiting)) {
+				ExecutionException expected = Assertions.assertThrows(
+					ExecutionException.class,
+					() -> result.get(5, TimeUnit.SECONDS)
+				);
+				assertSame(failure, expected.getCause());
+			}
+			verifyDownloads(validatingNetwork, 1);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void returnMetadata(String xml) {
+		when(validatingNetwork.exchange(eq(hitUrl), eq(HttpMethod.GET), any(HttpEntity.class), eq(byteClass)))
+			.thenAnswer(invocation -> new ResponseEntity<>(xml.getBytes(), HttpStatus.OK));
+	}
+
+	private void verifyDownloads(RestOperations network, int count) {
+		verify(network, times(count)).exchange(eq(hitUrl), eq(HttpMethod.GET), any(HttpEntity.class), eq(byteClass));
+	}
+
 	private SamlProviderNotFoundException doMiss() {
 		try {
 			cache.getMetadata(missUrl, true);
@@ -134,4 +300,42 @@ class DefaultMetadataCacheTests {
 		throw new IllegalStateException();
 	}
 
-}
\ No newline at end of file
+	@Test
+	void backgroundRefreshServesStaleCopy() {
+		AtomicLong offset = new AtomicLong();
+		when(clock.millis()).thenAnswer(invocation -> System.currentTimeMillis() + offset.get());
+		List<Runnable> tasks = new ArrayList<>();
+		ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+		when(executor.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(
+			invocation -> {
+				tasks.add(invocation.getArgument(0));
+				return null;
+			}
+		);
+		cache.setBackgroundRefresh(true)
+			.setRefreshAheadMillis(100)
+			.setCacheHardDurationMillis(cacheTime * 10)
+			.setRefreshExecutor(executor);
+
+		byte[] first = cache.getMetadata(hitUrl, false);
+		assertEquals(1, tasks.size());
+
+		//past the soft limit, the stale copy is served while the refresh is pending
+		offset.set(cacheTime * 2);
+		assertSame(first, cache.getMetadata(hitUrl, false));
+		assertSame(first, cache.getMetadata(hitUrl, false));
+		assertEquals(1, tasks.size());
+		verifyDownloads(validatingNetwork, 1);
+
+		tasks.remove(0).run();
+		verifyDownloads(validatingNetwork, 2);
+		assertEquals(1, tasks.size());
+
+		//entries that are not read are not refreshed again
+		tasks.remove(0).run();
+		verifyDownloads(validatingNetwork, 2);
+		assertEquals(0, tasks.size());
+		assertNotSame(first, cache.getMetadata(hitUrl, false));
+	}
+
+}
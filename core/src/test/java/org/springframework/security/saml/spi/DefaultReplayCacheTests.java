@@ -0,0 +1,102 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi;
+
+import java.time.Clock;
+
+import org.springframework.security.saml.saml2.authentication.Assertion;
+import org.springframework.security.saml.saml2.authentication.Conditions;
+import org.springframework.security.saml.saml2.authentication.OneTimeUse;
+import org.springframework.security.saml.saml2.authentication.Subject;
+import org.springframework.security.saml.saml2.metadata.IdentityProviderMetadata;
+
+import org.joda.time.DateTime;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DefaultReplayCacheTests {
+
+	private final Clock clock = mock(Clock.class);
+	private final DefaultReplayCache cache = new DefaultReplayCache(clock).setBucketMillis(1000);
+
+	@Test
+	void ids_are_accepted_once_until_their_bucket_expires() {
+		when(clock.millis()).thenReturn(10_000L);
+		assertThat(cache.checkAndRecord("http://idp", "id-1", 12_500L), equalTo(true));
+		assertThat(cache.checkAndRecord("http://idp", "id-1", 12_500L), equalTo(false));
+		assertThat(cache.checkAndRecord("http://idp", "id-1", 20_000L), equalTo(false));
+		assertThat(cache.checkAndRecord("http://other-idp", "id-1", 12_500L), equalTo(true));
+		assertThat(cache.checkAndRecord("http://idp", "id-2", 15_000L), equalTo(true));
+		assertThat(cache.checkAndRecord("http://idp", "expired", 9_000L), equalTo(true));
+		assertThat(cache.size(), equalTo(3));
+
+		//the bucket of 12.5s is dropped as a whole once it ends
+		when(clock.millis()).thenReturn(12_999L);
+		assertThat(cache.size(), equalTo(3));
+		when(clock.millis()).thenReturn(13_000L);
+		assertThat(cache.size(), equalTo(1));
+		assertThat(cache.checkAndRecord("http://idp", "id-2", 15_000L), equalTo(false));
+	}
+
+	@Test
+	void ids_are_accepted_again_once_expired() {
+		when(clock.millis()).thenReturn(10_000L);
+		assertThat(cache.checkAndRecord("http://idp", "id-1", 10_200L), equalTo(true));
+		when(clock.millis()).thenReturn(10_200L);
+		assertThat(cache.checkAndRecord("http://idp", "id-1", 12_500L), equalTo(true));
+		assertThat(cache.checkAndRecord("http://idp", "id-1", 12_500L), equalTo(false));
+
+		//the first expiration bucket ends, the ID has been recorded again since
+		when(clock.millis()).thenReturn(11_000L);
+		assertThat(cache.size(), equalTo(1));
+		assertThat(cache.checkAndRecord("http://idp", "id-1", 12_500L), equalTo(false));
+	}
+
+	@Test
+	void default_cache_of_validator_uses_its_clock() {
+		when(clock.millis()).thenReturn(10_000L);
+		DefaultValidator validator = new DefaultValidator(null).setTime(clock);
+		assertThat(validator.getReplayCache().checkAndRecord("http://idp", "id-1", 11_000L), equalTo(true));
+		assertThat(validator.getReplayCache().checkAndRecord("http://idp", "id-1", 11_000L), equalTo(false));
+	}
+
+	@Test
+	void validator_enforces_one_time_use() {
+		when(clock.millis()).thenReturn(10_000L);
+		DefaultValidator validator = new DefaultValidator(null)
+			.setReplayCache(cache)
+			.setRejectReplayedAssertions(false);
+		IdentityProviderMetadata idp = new IdentityProviderMetadata();
+		idp.setEntityId("http://idp");
+		Assertion assertion = new Assertion()
+			.setId("id-1")
+			.setSubject(new Subject())
+			.setConditions(new Conditions().setNotOnOrAfter(new DateTime(20_000L)));
+
+		assertThat(validator.isReplayed(assertion, idp), equalTo(false));
+		assertThat(validator.isReplayed(assertion, idp), equalTo(false));
+
+		assertion.getConditions().addCriteria(new OneTimeUse());
+		assertThat(validator.isReplayed(assertion, idp), equalTo(false));
+		assertThat(validator.isReplayed(assertion, idp), equalTo(true));
+	}
+}
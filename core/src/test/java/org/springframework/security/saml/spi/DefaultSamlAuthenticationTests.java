@@ -0,0 +1,111 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+
+import org.springframework.security.saml.saml2.attribute.Attribute;
+import org.springframework.security.saml.saml2.attribute.AttributeNameFormat;
+import org.springframework.security.saml.saml2.authentication.Assertion;
+import org.springframework.security.saml.saml2.authentication.AuthenticationStatement;
+import org.springframework.security.saml.saml2.authentication.NameIdPrincipal;
+import org.springframework.security.saml.saml2.authentication.Subject;
+import org.springframework.security.saml.saml2.metadata.NameId;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.Test;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+class DefaultSamlAuthenticationTests {
+
+	@Test
+	void serializes_compact_session_form() throws Exception {
+		DateTime instant = new DateTime(1546300800000L, DateTimeZone.UTC);
+		Assertion assertion = new Assertion()
+			.setId("assertion-id")
+			.setIssuer("http://idp.example.com")
+			.setSubject(
+				new Subject().setPrincipal(
+					new NameIdPrincipal()
+						.setValue("user@example.com")
+						.setFormat(NameId.EMAIL)
+						.setSpNameQualifier("http://sp.example.com")
+				)
+			)
+			.setAuthenticationStatements(
+				singletonList(new AuthenticationStatement().setSessionIndex("session").setAuthInstant(instant))
+			)
+			.setAttributes(
+				singletonList(
+					new Attribute()
+						.setName("values")
+						.setNameFormat(AttributeNameFormat.URI)
+						.setValues(asList("text", new URI("urn:example"), true, instant, 42, null))
+				)
+			);
+		DefaultSamlAuthentication authentication = new DefaultSamlAuthentication(
+			true,
+			assertion,
+			"http://idp.example.com",
+			"http://sp.example.com",
+			"relay"
+		);
+
+		DefaultSamlAuthentication copy = copy(copy(authentication));
+
+		assertThat(copy.getName(), equalTo("user@example.com"));
+		assertThat(((NameIdPrincipal) copy.getSamlPrincipal()).getFormat(), equalTo(NameId.EMAIL));
+		assertThat(copy.isAuthenticated(), equalTo(true));
+		assertThat(copy.getAssertingEntityId(), equalTo("http://idp.example.com"));
+		assertThat(copy.getHoldingEntityId(), equalTo("http://sp.example.com"));
+		assertThat(copy.getRelayState(), equalTo("relay"));
+
+		Assertion rehydrated = copy.getAssertion();
+		assertThat(rehydrated.getId(), equalTo("assertion-id"));
+		assertThat(rehydrated.getIssuer().getValue(), equalTo("http://idp.example.com"));
+		assertThat(rehydrated.getSubject().getPrincipal().getSpNameQualifier(), equalTo("http://sp.example.com"));
+		assertThat(rehydrated.getAuthenticationStatements().get(0).getSessionIndex(), equalTo("session"));
+		assertThat(rehydrated.getAuthenticationStatements().get(0).getAuthInstant(), equalTo(instant));
+		Attribute attribute = rehydrated.getFirstAttribute("values");
+		assertThat(attribute.getNameFormat(), equalTo(AttributeNameFormat.URI));
+		assertThat(attribute.getValues(), equalTo(asList("text", new URI("urn:example"), true, instant, 42, null)));
+		assertThat(copy.getDetails(), sameInstance(rehydrated));
+		assertThat(rehydrated.getImplementation(), nullValue());
+	}
+
+	private DefaultSamlAuthentication copy(DefaultSamlAuthentication authentication) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(authentication);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			return (DefaultSamlAuthentication) in.readObject();
+		}
+	}
+}
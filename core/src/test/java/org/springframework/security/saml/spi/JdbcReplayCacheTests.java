@@ -0,0 +1,70 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi;
+
+import java.time.Clock;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class JdbcReplayCacheTests {
+
+	private final Clock clock = mock(Clock.class);
+	private JdbcDataSource dataSource;
+
+	@BeforeEach
+	void setUp() {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:" + getClass().getSimpleName() + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+		new JdbcReplayCache(dataSource, clock).createTable();
+		when(clock.millis()).thenReturn(10_000L);
+	}
+
+	@Test
+	void ids_are_accepted_once_across_nodes() {
+		JdbcReplayCache node1 = new JdbcReplayCache(dataSource, clock);
+		JdbcReplayCache node2 = new JdbcReplayCache(dataSource, clock);
+
+		assertThat(node1.checkAndRecord("http://idp", "id-1", 20_000L), equalTo(true));
+		assertThat(node1.checkAndRecord("http://idp", "id-1", 20_000L), equalTo(false));
+		assertThat(node2.checkAndRecord("http://idp", "id-1", 20_000L), equalTo(false));
+		assertThat(node2.checkAndRecord("http://idp", "id-2", 20_000L), equalTo(true));
+	}
+
+	@Test
+	void expired_rows_are_reused() {
+		//without local caches, which keep IDs until the end of their bucket
+		JdbcReplayCache node1 = new JdbcReplayCache(dataSource, clock)
+			.setLocalCache(null)
+			.setCleanupIntervalMillis(Long.MAX_VALUE / 2);
+		JdbcReplayCache node2 = new JdbcReplayCache(dataSource, clock).setLocalCache(null);
+		assertThat(node1.checkAndRecord("http://idp", "id-1", 20_000L), equalTo(true));
+		assertThat(node1.checkAndRecord("http://idp", "id-2", 20_000L), equalTo(true));
+
+		when(clock.millis()).thenReturn(30_000L);
+		assertThat(node1.checkAndRecord("http://idp", "id-1", 40_000L), equalTo(true));
+		assertThat(node2.checkAndRecord("http://idp", "id-1", 40_000L), equalTo(false));
+		assertThat(node2.checkAndRecord("http://idp", "id-2", 40_000L), equalTo(true));
+	}
+}
@@ -16,13 +16,21 @@
  */
 package org.springframework.security.saml.spi;
 
+import java.security.KeyStore;
 import java.time.Clock;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.springframework.security.saml.key.SimpleKey;
 import org.springframework.security.saml.spi.opensaml.OpenSamlImplementation;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.opensaml.security.credential.Credential;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.springframework.security.saml.spi.ExamplePemKey.IDP_RSA_KEY;
 import static org.springframework.security.saml.spi.ExamplePemKey.RSA_TEST_KEY;
 import static org.springframework.security.saml.spi.ExamplePemKey.SP_RSA_KEY;
@@ -47,4 +55,28 @@ public class SamlKeyStoreProviderTests {
 	public void test_sp_1024() {
 		new SamlKeyStoreProvider(){}.getKeyStore(SP_RSA_KEY.getSimpleKey("alias"));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void credentials_are_cached() {
+		AtomicInteger keyStores = new AtomicInteger();
+		OpenSamlImplementation implementation = new OpenSamlImplementation(Clock.systemUTC())
+			.setSamlKeyStoreProvider(new SamlKeyStoreProvider() {
+				@Override
+				public KeyStore getKeyStore(SimpleKey key) {
+					keyStores.incrementAndGet();
+					return SamlKeyStoreProvider.super.getKeyStore(key);
+				}
+			});
+		Credential credential = implementation.getCredential(SP_RSA_KEY.getSimpleKey("sp"));
+		assertSame(credential, implementation.getCredential(SP_RSA_KEY.getSimpleKey("sp")));
+		assertThat(keyStores.get(), equalTo(1));
+
+		Credential rotated = implementation.getCredential(IDP_RSA_KEY.getSimpleKey("sp"));
+		assertNotSame(credential, rotated);
+		assertThat(keyStores.get(), equalTo(2));
+
+		implementation.clearCredentials();
+		implementation.getCredential(SP_RSA_KEY.getSimpleKey("sp"));
+		assertThat(keyStores.get(), equalTo(3));
+	}
+}
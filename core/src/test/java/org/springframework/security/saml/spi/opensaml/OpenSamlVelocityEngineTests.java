@@ -0,0 +1,109 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.security.saml.SamlException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OpenSamlVelocityEngineTests {
+
+	private static final String POST_TEMPLATE = "/templates/saml2-post-binding.vm";
+
+	@Test
+	void templates_are_parsed_once() {
+		OpenSamlVelocityEngine engine = new OpenSamlVelocityEngine().preload(POST_TEMPLATE);
+		Map<String, Object> model = new HashMap<>();
+		model.put("action", "https://idp.example.com/sso");
+		model.put("SAMLResponse", "PHNhbWw+");
+		for (int i = 0; i < 2; i++) {
+			StringWriter out = new StringWriter();
+			engine.process(null, POST_TEMPLATE, model, out);
+			assertThat(out.toString(), containsString("https://idp.example.com/sso"));
+			assertThat(out.toString(), containsString("PHNhbWw+"));
+		}
+		assertSame(engine.getVelocityEngine(), engine.getVelocityEngine());
+		assertSame(engine.getTemplate(POST_TEMPLATE), engine.getTemplate(POST_TEMPLATE));
+	}
+
+	@Test
+	void engine_and_template_are_created_once_for_concurrent_renders() throws Exception {
+		AtomicInteger initializations = new AtomicInteger();
+		AtomicInteger loads = new AtomicInteger();
+		OpenSamlVelocityEngine engine = new OpenSamlVelocityEngine() {
+			@Override
+			protected org.apache.velocity.app.VelocityEngine getVelocityEngine() {
+				loads.incrementAndGet();
+				return super.getVelocityEngine();
+			}
+
+			@Override
+			protected void initializeVelocityEngine(org.apache.velocity.app.VelocityEngine velocityEngine) {
+				initializations.incrementAndGet();
+				super.initializeVelocityEngine(velocityEngine);
+			}
+		};
+		Map<String, Object> model = new HashMap<>();
+		model.put("action", "https://idp.example.com/sso");
+		model.put("SAMLResponse", "PHNhbWw+");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<String>> renders = new ArrayList<>();
+			for (int i = 0; i < 40; i++) {
+				renders.add(executor.submit(() -> {
+					StringWriter out = new StringWriter();
+					engine.process(null, POST_TEMPLATE, model, out);
+					return out.toString();
+				}));
+			}
+			for (Future<String> render : renders) {
+				assertThat(render.get(10, TimeUnit.SECONDS), containsString("PHNhbWw+"));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertThat(initializations.get(), equalTo(1));
+		assertThat(loads.get(), equalTo(1));
+	}
+
+	@Test
+	void missing_template() {
+		SamlException expected = assertThrows(
+			SamlException.class,
+			() -> new OpenSamlVelocityEngine().preload("/templates/missing.vm")
+		);
+		assertThat(expected.getMessage(), containsString("/templates/missing.vm"));
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.spi.opensaml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.springframework.security.saml.key.SimpleKey;
+import org.springframework.security.saml.saml2.metadata.MetadataFilter;
+import org.springframework.security.saml.saml2.signature.Signature;
+import org.springframework.security.saml.saml2.signature.SignatureException;
+import org.springframework.security.saml.spi.opensaml.StreamingMetadataParser.UnsupportedDocumentException;
+
+import org.apache.xml.security.Init;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.apache.xml.security.signature.XMLSignature;
+import org.apache.xml.security.transforms.Transforms;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.saml.spi.ExamplePemKey.RSA_TEST_KEY;
+import static org.springframework.security.saml.spi.opensaml.StreamingMetadataParser.NS_METADATA;
+import static org.springframework.security.saml.spi.opensaml.StreamingMetadataParser.NS_SIGNATURE;
+import static org.springframework.security.saml.util.X509Utilities.readPrivateKey;
+
+class StreamingMetadataParserTests {
+
+	private static final String AGGREGATE =
+		"<md:EntitiesDescriptor xmlns:md=\"" + NS_METADATA + "\" ID=\"aggregate\">" +
+			"<md:EntityDescriptor entityID=\"https://idp.example.com\">" +
+			"<md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\"/>" +
+			"</md:EntityDescriptor>" +
+			"<md:EntityDescriptor entityID=\"https://sp.example.com\">" +
+			"<md:SPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\"/>" +
+			"</md:EntityDescriptor>" +
+			"</md:EntitiesDescriptor>";
+
+	private static final String WRAPPED_ENTITY =
+		"<md:EntityDescriptor xmlns:md=\"" + NS_METADATA + "\" entityID=\"https://attacker.example.com\">" +
+			"<md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\"/>" +
+			"</md:EntityDescriptor>";
+
+	private final SimpleKey key = RSA_TEST_KEY.getSimpleKey("test");
+
+	@BeforeAll
+	static void init() {
+		Security.addProvider(new BouncyCastleProvider());
+		Init.init();
+	}
+
+	@Test
+	void signed_aggregate() throws Exception {
+		List<String> entityIds = new ArrayList<>();
+		Signature signature = parse(sign(AGGREGATE, "#aggregate", s -> {}), entityIds);
+		assertTrue(signature.isValidated());
+		assertThat(entityIds, contains("https://idp.example.com", "https://sp.example.com"));
+	}
+
+	@Test
+	void entity_wrapped_in_signature_is_ignored() throws Exception {
+		List<String> entityIds = new ArrayList<>();
+		Signature signature = parse(sign(AGGREGATE, "#aggregate", s -> append(s, "Object", WRAPPED_ENTITY)), entityIds);
+		assertTrue(signature.isValidated());
+		assertThat(entityIds, contains("https://idp.example.com", "https://sp.example.com"));
+	}
+
+	@Test
+	void signature_values_outside_signed_info_are_ignored() throws Exception {
+		byte[] xml = sign(
+			AGGREGATE,
+			"#aggregate",
+			s -> append(s, "Object", "<ds:DigestValue xmlns:ds=\"" + NS_SIGNATURE + "\">AAAA</ds:DigestValue>")
+		);
+		assertTrue(parse(xml, new ArrayList<>()).isValidated());
+	}
+
+	@Test
+	void second_signed_info() throws Exception {
+		byte[] xml = sign(
+			AGGREGATE,
+			"#aggregate",
+			s -> s.appendChild(s.getElementsByTagNameNS(NS_SIGNATURE, "SignedInfo").item(0).cloneNode(true))
+		);
+		assertThrows(SignatureException.class, () -> parse(xml, new ArrayList<>()));
+	}
+
+	@Test
+	void document_element_without_id() throws Exception {
+		byte[] xml = sign(AGGREGATE.replace(" ID=\"aggregate\"", ""), "", s -> {});
+		assertThrows(SignatureException.class, () -> parse(xml, new ArrayList<>()));
+	}
+
+	@Test
+	void duplicate_document_element_id() throws Exception {
+		byte[] xml = sign(
+			AGGREGATE,
+			"#aggregate",
+			s -> append(s, "Object", WRAPPED_ENTITY.replace("entityID=", "ID=\"aggregate\" entityID="))
+		);
+		assertThrows(SignatureException.class, () -> parse(xml, new ArrayList<>()));
+	}
+
+	@Test
+	void processing_instructions_are_signed_content() throws Exception {
+		String xml = AGGREGATE.replace(
+			"<md:EntityDescriptor entityID=\"https://sp.example.com\">",
+			"<?pi first?><md:EntityDescriptor entityID=\"https://sp.example.com\"><?pi second one?>"
+		);
+		List<String> entityIds = new ArrayList<>();
+		Signature signature = parse(sign(xml, "#aggregate", s -> {}), entityIds);
+		assertTrue(signature.isValidated());
+		assertThat(entityIds, contains("https://idp.example.com", "https://sp.example.com"));
+	}
+
+	@Test
+	void processing_instruction_in_signature_is_left_to_dom() throws Exception {
+		byte[] xml = sign(
+			AGGREGATE,
+			"#aggregate",
+			s -> s.insertBefore(s.getOwnerDocument().createProcessingInstruction("pi", "data"), s.getFirstChild())
+		);
+		assertThrows(UnsupportedDocumentException.class, () -> parse(xml, new ArrayList<>()));
+	}
+
+	private Signature parse(byte[] xml, List<String> entityIds) {
+		return new StreamingMetadataParser(this::newDocument, new MetadataFilter(), singletonList(key))
+			.parse(xml, (entity, root) -> entityIds.add(entity.getAttribute("entityID")));
+	}
+
+	/*
+	 * Signs the document element, then lets the test alter the ds:Signature element
+	 */
+	private byte[] sign(String xml, String uri, Consumer<Element> tamper) throws Exception {
+		Document document = newDocumentBuilderFactory().newDocumentBuilder()
+			.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+		Element root = document.getDocumentElement();
+		if (root.hasAttribute("ID")) {
+			root.setIdAttributeNS(null, "ID", true);
+		}
+		XMLSignature signature = new XMLSignature(
+			document,
+			"",
+			XMLSignature.ALGO_ID_SIGNATURE_RSA_SHA256,
+			Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS
+		);
+		root.insertBefore(signature.getElement(), root.getFirstChild());
+		Transforms transforms = new Transforms(document);
+		transforms.addTransform(Transforms.TRANSFORM_ENVELOPED_SIGNATURE);
+		transforms.addTransform(Transforms.TRANSFORM_C14N_EXCL_OMIT_COMMENTS);
+		signature.addDocument(uri, transforms, "http://www.w3.org/2001/04/xmlenc#sha256");
+		signature.sign(readPrivateKey(key.getPrivateKey(), key.getPassphrase()));
+		tamper.accept(signature.getElement());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(out));
+		return out.toByteArray();
+	}
+
+	private void append(Element signature, String localName, String xml) {
+		try {
+			Element content = newDocumentBuilderFactory().newDocumentBuilder()
+				.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)))
+				.getDocumentElement();
+			Element child = signature.getOwnerDocument().createElementNS(NS_SIGNATURE, "ds:" + localName);
+			child.appendChild(signature.getOwnerDocument().importNode(content, true));
+			signature.appendChild(child);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Document newDocument() {
+		try {
+			return newDocumentBuilderFactory().newDocumentBuilder().newDocument();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static DocumentBuilderFactory newDocumentBuilderFactory() {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.springframework.security.saml.util;
+
+import java.time.Clock;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ExpiringMapTests {
+
+	private Clock clock = mock(Clock.class);
+	private ExpiringMap<String, String> map;
+
+	@BeforeEach
+	void setUp() {
+		when(clock.millis()).thenReturn(0L);
+		map = new ExpiringMap<String, String>(clock).setExpirationTimeMillis(100);
+	}
+
+	@Test
+	void expiresAfterLastAccess() {
+		map.put("a", "1");
+		map.put("b", "2");
+		when(clock.millis()).thenReturn(80L);
+		assertThat(map.get("a"), equalTo("1"));
+		when(clock.millis()).thenReturn(150L);
+		assertThat(map.get("a"), equalTo("1"));
+		assertFalse(map.containsKey("b"));
+		assertNull(map.get("b"));
+		assertThat(map.size(), equalTo(1));
+		when(clock.millis()).thenReturn(251L);
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	void evictsLeastFrequentlyReadOfTheOldest() {
+		map.setExpirationTimeMillis(Long.MAX_VALUE).setMaximumSize(3);
+		map.put("a", "1");
+		map.put("b", "2");
+		map.put("c", "3");
+		map.get("a");
+		map.get("a");
+		map.get("c");
+		map.put("d", "4");
+		assertThat(map.keySet(), containsInAnyOrder("a", "c", "d"));
+		map.put("e", "5");
+		assertThat(map.keySet(), containsInAnyOrder("a", "c", "e"));
+	}
+
+	@Test
+	void replacesValue() {
+		map.put("a", "1");
+		assertThat(map.put("a", "2"), equalTo("1"));
+		assertThat(map.get("a"), equalTo("2"));
+		assertThat(map.remove("a"), equalTo("2"));
+		assertNull(map.get("a"));
+		assertThat(map.size(), equalTo(0));
+	}
+}